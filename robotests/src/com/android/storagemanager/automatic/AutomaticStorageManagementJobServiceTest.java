@@ -18,7 +18,10 @@ package com.android.storagemanager.automatic;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyBoolean;
 import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.anyLong;
+import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -74,6 +77,7 @@ public class AutomaticStorageManagementJobServiceTest {
     private Context mContext;
     private ShadowApplication mApplication;
     private List<VolumeInfo> mVolumes;
+    private List<Runnable> mSnapshotRefreshes;
 
     @Before
     public void setUp() throws Exception {
@@ -126,6 +130,11 @@ public class AutomaticStorageManagementJobServiceTest {
         mJobService.onBind(null);
         mJobService.setStorageVolumeProvider(mStorageVolumeProvider);
         mJobService.setClock(mClock);
+        mSnapshotRefreshes = new ArrayList<>();
+        mJobService.setSnapshotExecutor(mSnapshotRefreshes::add);
+        doNothing()
+                .when(mJobService)
+                .writeCandidateSnapshot(any(Context.class), anyLong(), anyBoolean());
 
         Resources fakeResources = mock(Resources.class);
         when(fakeResources.getInteger(
@@ -143,13 +152,65 @@ public class AutomaticStorageManagementJobServiceTest {
         assertJobFinished(true);
 
         when(mBatteryManager.isCharging()).thenReturn(true);
+        assertThat(mJobService.onStartJob(mJobParameters)).isTrue();
+        runSnapshotRefreshes();
+        assertJobFinished(false);
+    }
+
+    @Test
+    public void testJobRunsUntilCandidateSnapshotIsWritten() {
+        when(mBatteryManager.isCharging()).thenReturn(false);
+        mJobService.onStartJob(mJobParameters);
+        assertThat(mSnapshotRefreshes).isEmpty();
+
+        when(mBatteryManager.isCharging()).thenReturn(true);
+        assertThat(mJobService.onStartJob(mJobParameters)).isTrue();
+        assertThat(mSnapshotRefreshes).hasSize(1);
+        verify(mJobService, never()).jobFinished(nullable(JobParameters.class), eq(false));
+
+        runSnapshotRefreshes();
+
+        verify(mJobService)
+                .writeCandidateSnapshot(any(Context.class), anyLong(), anyBoolean());
+        assertJobFinished(false);
+    }
+
+    @Test
+    public void testStoppedJobIsNotFinishedBySnapshot() {
+        assertThat(mJobService.onStartJob(mJobParameters)).isTrue();
+
+        assertThat(mJobService.onStopJob(mJobParameters)).isFalse();
+        runSnapshotRefreshes();
+
+        verify(mJobService, never()).jobFinished(nullable(JobParameters.class), anyBoolean());
+    }
+
+    @Test
+    public void testNoSnapshotIfStorageNotFull() {
+        when(mStorageVolumeProvider.getFreeBytes(
+                        nullable(StorageStatsManager.class), eq(mVolumeInfo)))
+                .thenReturn(100L);
+
         assertThat(mJobService.onStartJob(mJobParameters)).isFalse();
+
+        assertThat(mSnapshotRefreshes).isEmpty();
         assertJobFinished(false);
     }
 
     @Test
-    public void testStartJobTriesUpsellWhenASMDisabled() {
+    public void testNoSnapshotIfStorageIsManagedAutomatically() {
+        activateASM();
+
         assertThat(mJobService.onStartJob(mJobParameters)).isFalse();
+
+        assertStorageManagerJobRan();
+        assertThat(mSnapshotRefreshes).isEmpty();
+    }
+
+    @Test
+    public void testStartJobTriesUpsellWhenASMDisabled() {
+        assertThat(mJobService.onStartJob(mJobParameters)).isTrue();
+        runSnapshotRefreshes();
         assertJobFinished(false);
         mApplication.runBackgroundTasks();
 
@@ -340,6 +401,13 @@ public class AutomaticStorageManagementJobServiceTest {
                 .isNotEqualTo(0);
     }
 
+    private void runSnapshotRefreshes() {
+        for (int i = 0, size = mSnapshotRefreshes.size(); i < size; i++) {
+            mSnapshotRefreshes.get(i).run();
+        }
+        mSnapshotRefreshes.clear();
+    }
+
     private void assertJobFinished(boolean retryNeeded) {
         verify(mJobService).jobFinished(nullable(JobParameters.class), eq(retryNeeded));
     }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppCacheDeletionTypeTest {
+    private static final String PACKAGE_SMALL_CACHE = "package.small";
+    private static final String PACKAGE_LARGE_CACHE = "package.large";
+    private static final String PACKAGE_NO_CACHE = "package.none";
+    private static final String ADOPTED_VOLUME_UUID = "adopted-volume";
+
+    private AppCacheDeletionType mDeletion;
+
+    @Before
+    public void setUp() {
+        mDeletion = new AppCacheDeletionType(null);
+    }
+
+    @Test
+    public void testAppsAreOrderedByCacheSize() {
+        mDeletion.onAppRebuild(
+                Arrays.asList(
+                        createPackage(PACKAGE_SMALL_CACHE, null, 100),
+                        createPackage(PACKAGE_LARGE_CACHE, ADOPTED_VOLUME_UUID, 1000)));
+
+        assertThat(mDeletion.getApps()).hasSize(2);
+        assertThat(mDeletion.getApps().get(0).packageName).isEqualTo(PACKAGE_LARGE_CACHE);
+        assertThat(mDeletion.getApps().get(1).packageName).isEqualTo(PACKAGE_SMALL_CACHE);
+        assertThat(mDeletion.getFreeableBytes(DeletionHelperSettings.COUNT_UNCHECKED))
+                .isEqualTo(1100L);
+    }
+
+    @Test
+    public void testAppsWithoutCacheAreSkipped() {
+        mDeletion.onAppRebuild(Arrays.asList(createPackage(PACKAGE_NO_CACHE, null, 0)));
+
+        assertThat(mDeletion.getApps()).isEmpty();
+        assertThat(mDeletion.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testNothingIsCheckedByDefault() {
+        DeletionType.FreeableChangedListener listener =
+                mock(DeletionType.FreeableChangedListener.class);
+        mDeletion.registerFreeableChangedListener(listener);
+
+        mDeletion.onAppRebuild(Arrays.asList(createPackage(PACKAGE_LARGE_CACHE, null, 1000)));
+
+        verify(listener).onFreeableChanged(1, 1000L);
+        assertThat(mDeletion.getFreeableBytes(DeletionHelperSettings.COUNT_CHECKED_ONLY))
+                .isEqualTo(0L);
+        assertThat(mDeletion.createPlan().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testPlanHasOnlyTheCheckedApps() {
+        PackageInfo largeCache = createPackage(PACKAGE_LARGE_CACHE, null, 1000);
+        mDeletion.onAppRebuild(
+                Arrays.asList(createPackage(PACKAGE_SMALL_CACHE, null, 100), largeCache));
+
+        mDeletion.setChecked(largeCache.getKey(), true);
+        DeletionPlan plan = mDeletion.createPlan();
+
+        assertThat(plan.category).isEqualTo(MeasuredDeletion.CATEGORY_APP_CACHES);
+        assertThat(plan.items).hasSize(1);
+        assertThat(plan.items.get(0).key).isEqualTo(largeCache.getKey());
+        assertThat(plan.totalBytes).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testCheckedAppsAreRestored() {
+        PackageInfo smallCache = createPackage(PACKAGE_SMALL_CACHE, null, 100);
+        AppCacheDeletionType deletion =
+                new AppCacheDeletionType(new String[] {smallCache.getKey()});
+
+        deletion.onAppRebuild(Arrays.asList(smallCache));
+
+        assertThat(deletion.getFreeableBytes(DeletionHelperSettings.COUNT_CHECKED_ONLY))
+                .isEqualTo(100L);
+    }
+
+    @Test
+    public void testCacheOfUninstalledAppIsNotCountedTwice() {
+        PackageInfo smallCache = createPackage(PACKAGE_SMALL_CACHE, null, 100);
+        PackageInfo largeCache = createPackage(PACKAGE_LARGE_CACHE, null, 1000);
+        AppDeletionType uninstalledApps = mock(AppDeletionType.class);
+        when(uninstalledApps.isCounted(largeCache.getKey(), false)).thenReturn(true);
+        mDeletion.setUninstalledApps(uninstalledApps);
+        mDeletion.onAppRebuild(Arrays.asList(smallCache, largeCache));
+
+        mDeletion.setChecked(smallCache.getKey(), true);
+        mDeletion.setChecked(largeCache.getKey(), true);
+
+        // The uninstall already frees the large cache, as part of the app's size.
+        assertThat(mDeletion.getFreeableBytes(DeletionHelperSettings.COUNT_CHECKED_ONLY))
+                .isEqualTo(100L);
+        DeletionPlan plan = mDeletion.createPlan();
+        assertThat(plan.items).hasSize(1);
+        assertThat(plan.items.get(0).key).isEqualTo(smallCache.getKey());
+    }
+
+    private static PackageInfo createPackage(
+            String packageName, String volumeUuid, long cacheBytes) {
+        return new PackageInfo.Builder()
+                .setPackageName(packageName)
+                .setVolumeUuid(volumeUuid)
+                .setSize(cacheBytes * 2)
+                .setCacheBytes(cacheBytes)
+                .build();
+    }
+}
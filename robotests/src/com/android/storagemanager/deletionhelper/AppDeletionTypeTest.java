@@ -23,18 +23,26 @@ import org.junit.runner.RunWith;
 import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 @RunWith(RobolectricTestRunner.class)
 public class AppDeletionTypeTest {
     private static String PACKAGE_NAME = "com.package.package";
+    private static String OTHER_PACKAGE_NAME = "com.package.other";
+    private static final int PROFILE_USER_ID = 10;
+    private static final String ADOPTED_VOLUME_UUID = "adopted-volume";
 
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private DeletionHelperSettings mFragment;
@@ -84,11 +92,52 @@ public class AppDeletionTypeTest {
 
         // By default, no packages are checked, so these will be unchecked.
         mDeletion.onLoadFinished(null, loadedPackages);
-        mDeletion.setChecked(PACKAGE_NAME, true);
+        mDeletion.setChecked(AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, 0), true);
 
         verify(mFragment).onFreeableChanged(eq(1), eq(1000L));
     }
 
+    @Test
+    public void freeableTotalsFollowToggles() {
+        List<AppsAsyncLoader.PackageInfo> loadedPackages = new ArrayList<>();
+        loadedPackages.add(createPackage(PACKAGE_NAME, 0, 1000L));
+        loadedPackages.add(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 500L));
+        loadedPackages.add(createPackage("package.unknown", -1L));
+        mDeletion.onLoadFinished(null, loadedPackages);
+        String key = AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, 0);
+
+        mDeletion.setChecked(key, true);
+        mDeletion.setChecked(key, true);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(false)).isEqualTo(1000L);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(true)).isEqualTo(1500L);
+
+        mDeletion.setChecked(AppsAsyncLoader.PackageInfo.getKey("package.unknown", 0), true);
+        mDeletion.setChecked(key, false);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(false)).isEqualTo(0L);
+
+        mDeletion.setChecked(key, true);
+        mDeletion.patchPackage(PACKAGE_NAME, 0, null);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(false)).isEqualTo(0L);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(true)).isEqualTo(500L);
+    }
+
+    @Test
+    public void planOnlyContainsCheckedApps() {
+        List<AppsAsyncLoader.PackageInfo> loadedPackages = new ArrayList<>();
+        loadedPackages.add(createPackage(PACKAGE_NAME, 0, 1000L));
+        loadedPackages.add(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 500L));
+        mDeletion.onLoadFinished(null, loadedPackages);
+        mDeletion.setChecked(
+                AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, PROFILE_USER_ID), true);
+
+        DeletionPlan plan = mDeletion.createPlan();
+
+        assertThat(plan.items).hasSize(1);
+        assertThat(plan.items.get(0).key)
+                .isEqualTo(AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, PROFILE_USER_ID));
+        assertThat(plan.totalBytes).isEqualTo(500L);
+    }
+
     @Test
     public void dontCrashWhenClearingAndAppsArentLoaded() {
         mDeletion.clearFreeableData(mFragment.getActivity());
@@ -124,4 +173,187 @@ public class AppDeletionTypeTest {
         mDeletion.onLoadFinished(null, apps);
         assertThat(mDeletion.isComplete()).isTrue();
     }
+
+    @Test
+    public void testPatchPackage_removedPackageIsDropped() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        mDeletion.onLoadFinished(null, apps);
+        mDeletion.setChecked(AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, 0), true);
+
+        mDeletion.patchPackage(PACKAGE_NAME, 0, null);
+
+        assertThat(mDeletion.getApps()).isEmpty();
+        assertThat(mDeletion.isChecked(AppsAsyncLoader.PackageInfo.getKey(PACKAGE_NAME, 0)))
+                .isFalse();
+        assertThat(mDeletion.isEmpty()).isTrue();
+        verify(mGroup, times(2)).onAppRebuild(mDeletion.getApps());
+        // The list the loader delivered is left alone.
+        assertThat(apps).hasSize(1);
+    }
+
+    @Test
+    public void testPatchPackage_changedPackageIsResorted() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        apps.add(createPackage(OTHER_PACKAGE_NAME, 500));
+        mDeletion.onLoadFinished(null, apps);
+
+        mDeletion.patchPackage(OTHER_PACKAGE_NAME, 0, createPackage(OTHER_PACKAGE_NAME, 2000));
+
+        assertThat(mDeletion.getApps()).hasSize(2);
+        assertThat(mDeletion.getApps().get(0).packageName).isEqualTo(OTHER_PACKAGE_NAME);
+        assertThat(mDeletion.getApps().get(1).packageName).isEqualTo(PACKAGE_NAME);
+    }
+
+    @Test
+    public void testProfileAppsAreCheckedSeparately() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 0, 1000));
+        apps.add(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 500));
+        mDeletion.onLoadFinished(null, apps);
+
+        mDeletion.setChecked(apps.get(1).getKey(), true);
+
+        assertThat(mDeletion.isChecked(apps.get(0).getKey())).isFalse();
+        assertThat(mDeletion.getTotalAppsFreeableSpace(DeletionHelperSettings.COUNT_CHECKED_ONLY))
+                .isEqualTo(500L);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(DeletionHelperSettings.COUNT_UNCHECKED))
+                .isEqualTo(1500L);
+    }
+
+    @Test
+    public void testPatchPackage_onlyPatchesChangedProfile() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 0, 1000));
+        apps.add(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 500));
+        mDeletion.onLoadFinished(null, apps);
+
+        mDeletion.patchPackage(PACKAGE_NAME, PROFILE_USER_ID, null);
+
+        assertThat(mDeletion.getApps()).hasSize(1);
+        assertThat(mDeletion.getApps().get(0).userId).isEqualTo(0);
+    }
+
+    @Test
+    public void testReloadFinishingAfterRemovalIsDropped() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(OTHER_PACKAGE_NAME, 500));
+        mDeletion.onLoadFinished(null, apps);
+        // The package is added, and removed again before its reload finishes.
+        int generation = mDeletion.nextPackageGeneration(PACKAGE_NAME, 0);
+        mDeletion.removePackage(PACKAGE_NAME, 0);
+
+        mDeletion.onPackageReloaded(
+                PACKAGE_NAME, 0, createPackage(PACKAGE_NAME, 1000), generation);
+
+        assertThat(mDeletion.getApps()).hasSize(1);
+        assertThat(mDeletion.getApps().get(0).packageName).isEqualTo(OTHER_PACKAGE_NAME);
+    }
+
+    @Test
+    public void testPatchedAppsAreRetained() {
+        DeletionHelperResults results = new DeletionHelperResults();
+        AppDeletionType deletion =
+                new AppDeletionType(mFragment, null, AppsAsyncLoader.NO_THRESHOLD, results);
+        deletion.registerView(mGroup);
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        deletion.onLoadFinished(null, apps);
+
+        deletion.patchPackage(OTHER_PACKAGE_NAME, 0, createPackage(OTHER_PACKAGE_NAME, 500));
+
+        assertThat(apps).hasSize(1);
+        assertThat(results.getApps()).hasSize(2);
+    }
+
+    @Test
+    public void testFreeableSpaceIsSplitByVolume() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        AppsAsyncLoader.PackageInfo adopted = createPackage(OTHER_PACKAGE_NAME, 500);
+        adopted.volumeUuid = ADOPTED_VOLUME_UUID;
+        apps.add(adopted);
+        mDeletion.onLoadFinished(null, apps);
+
+        Map<String, Long> freeableSpace =
+                mDeletion.getTotalAppsFreeableSpaceByVolume(DeletionHelperSettings.COUNT_UNCHECKED);
+
+        assertThat(freeableSpace).containsEntry(null, 1000L);
+        assertThat(freeableSpace).containsEntry(ADOPTED_VOLUME_UUID, 500L);
+    }
+
+    @Test
+    public void loadedAppsAreRetained() {
+        DeletionHelperResults results = new DeletionHelperResults();
+        AppDeletionType deletion =
+                new AppDeletionType(mFragment, null, AppsAsyncLoader.NO_THRESHOLD, results);
+        deletion.registerView(mGroup);
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+
+        deletion.onLoadFinished(null, apps);
+
+        assertThat(results.getApps()).isSameAs(apps);
+    }
+
+    @Test
+    public void retainedAppsAreShownWithoutLoading() {
+        DeletionHelperResults results = new DeletionHelperResults();
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        results.setApps(apps);
+
+        AppDeletionType deletion =
+                new AppDeletionType(mFragment, null, AppsAsyncLoader.NO_THRESHOLD, results);
+        deletion.registerView(mGroup);
+        deletion.registerFreeableChangedListener(mFragment);
+        Robolectric.flushForegroundThreadScheduler();
+
+        // Only the deletion type created in setUp() started a load.
+        verify(mFragment.getLoaderManager(), times(1)).initLoader(anyInt(), any(), any());
+        assertThat(deletion.getApps()).containsExactlyElementsIn(apps);
+        assertThat(deletion.getLoadingStatus()).isEqualTo(LoadingStatus.COMPLETE);
+        assertThat(deletion.getTotalAppsFreeableSpace(DeletionHelperSettings.COUNT_UNCHECKED))
+                .isEqualTo(1000L);
+    }
+
+    @Test
+    public void thresholdChangesFilterTheLoadedApps() {
+        List<AppsAsyncLoader.PackageInfo> apps = new ArrayList<>();
+        apps.add(createPackage(PACKAGE_NAME, 1000));
+        AppsAsyncLoader.PackageInfo recent = createPackage(OTHER_PACKAGE_NAME, 500);
+        recent.daysSinceLastUse = 10;
+        apps.add(recent);
+        mDeletion.onLoadFinished(null, apps);
+        assertThat(mDeletion.getContentCount()).isEqualTo(2);
+
+        mDeletion.setThresholdType(AppsAsyncLoader.NORMAL_THRESHOLD);
+
+        assertThat(mDeletion.getApps()).hasSize(1);
+        assertThat(mDeletion.getApps().get(0).packageName).isEqualTo(PACKAGE_NAME);
+        assertThat(mDeletion.getTotalAppsFreeableSpace(DeletionHelperSettings.COUNT_UNCHECKED))
+                .isEqualTo(1000L);
+        // The loaded apps are kept, so switching back needs no load either.
+        mDeletion.setThresholdType(AppsAsyncLoader.NO_THRESHOLD);
+        assertThat(mDeletion.getContentCount()).isEqualTo(2);
+        verify(mFragment.getLoaderManager(), times(1)).initLoader(anyInt(), any(), any());
+    }
+
+    private static AppsAsyncLoader.PackageInfo createPackage(String packageName, long size) {
+        return createPackage(packageName, 0, size);
+    }
+
+    private static AppsAsyncLoader.PackageInfo createPackage(
+            String packageName, int userId, long size) {
+        return new AppsAsyncLoader.PackageInfo.Builder()
+                .setDaysSinceLastUse(100)
+                .setDaysSinceFirstInstall(101)
+                .setUserId(userId)
+                .setPackageName(packageName)
+                .setLabel(packageName)
+                .setSize(size)
+                .setFlags(0)
+                .build();
+    }
 }
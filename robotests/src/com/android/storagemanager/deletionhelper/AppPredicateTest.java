@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.pm.ApplicationInfo;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.AppFilter;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppPredicateTest {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Test
+    public void testComparisons() {
+        PackageInfo app = createApp(0, 100, 200, 10 * MEGABYTE);
+
+        assertThat(compile(AppPredicate.atLeast(AppPredicate.FIELD_DAYS_UNUSED, 100))
+                .filterStorage(app)).isTrue();
+        assertThat(compile(AppPredicate.atLeast(AppPredicate.FIELD_DAYS_UNUSED, 101))
+                .filterStorage(app)).isFalse();
+        assertThat(compile(AppPredicate.atMost(AppPredicate.FIELD_SIZE, 10 * MEGABYTE))
+                .filterStorage(app)).isTrue();
+        assertThat(compile(AppPredicate.equalTo(AppPredicate.FIELD_USER_ID, 10))
+                .filterStorage(app)).isFalse();
+        assertThat(compile(AppPredicate.ALWAYS).filterStorage(app)).isTrue();
+    }
+
+    @Test
+    public void testAndOrNot() {
+        PackageInfo app = createApp(ApplicationInfo.FLAG_SYSTEM, 100, 200, MEGABYTE);
+        AppPredicate system = AppPredicate.hasAnyFlags(ApplicationInfo.FLAG_SYSTEM);
+        AppPredicate old = AppPredicate.atLeast(AppPredicate.FIELD_DAYS_SINCE_LAST_USE, 90);
+        AppPredicate recent = AppPredicate.not(old);
+
+        assertThat(compile(AppPredicate.and(system, old)).filterStorage(app)).isTrue();
+        assertThat(compile(AppPredicate.and(system, recent)).filterStorage(app)).isFalse();
+        assertThat(compile(AppPredicate.or(recent, system)).filterStorage(app)).isTrue();
+        assertThat(compile(AppPredicate.or(recent, AppPredicate.not(system))).filterStorage(app))
+                .isFalse();
+        AppPredicate nested =
+                AppPredicate.and(
+                        AppPredicate.or(recent, old),
+                        AppPredicate.not(AppPredicate.and(system, recent)));
+        assertThat(compile(nested).filterStorage(app)).isTrue();
+    }
+
+    @Test
+    public void testUnknownFieldsDoNotRejectEarly() {
+        AppFilter filter =
+                compile(
+                        AppPredicate.and(
+                                AppPredicate.hasNoFlags(ApplicationInfo.FLAG_SYSTEM),
+                                AppPredicate.atLeast(AppPredicate.FIELD_SIZE, MEGABYTE)));
+        PackageInfo small = createApp(0, 100, 200, 10);
+
+        // The size is only known once the storage has been queried.
+        assertThat(filter.filterFlags(0)).isTrue();
+        assertThat(filter.filterApp(small)).isTrue();
+        assertThat(filter.filterStorage(small)).isFalse();
+        // Flags alone are enough to reject system apps.
+        assertThat(filter.filterFlags(ApplicationInfo.FLAG_SYSTEM)).isFalse();
+    }
+
+    @Test
+    public void testKnownFieldsCanSettleAnOr() {
+        AppFilter filter =
+                compile(
+                        AppPredicate.or(
+                                AppPredicate.hasAnyFlags(ApplicationInfo.FLAG_SYSTEM),
+                                AppPredicate.atLeast(AppPredicate.FIELD_CACHE_BYTES, MEGABYTE)));
+        PackageInfo app = createApp(0, 100, 200, 10);
+
+        assertThat(filter.filterFlags(ApplicationInfo.FLAG_SYSTEM)).isTrue();
+        assertThat(filter.filterFlags(0)).isTrue();
+        assertThat(filter.filterStorage(app)).isFalse();
+    }
+
+    @Test
+    public void testNullAppIsRejected() {
+        AppFilter filter = compile(AppPredicate.ALWAYS);
+
+        assertThat(filter.filterApp(null)).isFalse();
+        assertThat(filter.filterStorage(null)).isFalse();
+    }
+
+    private static AppFilter compile(AppPredicate predicate) {
+        AppFilter filter = predicate.compile();
+        filter.init();
+        return filter;
+    }
+
+    private static PackageInfo createApp(
+            int flags, long daysSinceLastUse, long daysSinceFirstInstall, long size) {
+        return new PackageInfo.Builder()
+                .setFlags(flags)
+                .setDaysSinceLastUse(daysSinceLastUse)
+                .setDaysSinceFirstInstall(daysSinceFirstInstall)
+                .setSize(size)
+                .setCacheBytes(size / 2)
+                .setPackageName("package.mcpackageface")
+                .build();
+    }
+}
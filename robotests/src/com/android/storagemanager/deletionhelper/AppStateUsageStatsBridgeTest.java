@@ -37,11 +37,11 @@ import org.robolectric.shadows.ShadowApplication;
 import org.robolectric.shadows.ShadowPackageManager;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
@@ -64,7 +64,7 @@ public class AppStateUsageStatsBridgeTest {
     @Mock private AppStateUsageStatsBridge.Clock mClock;
     private AppStateUsageStatsBridge mBridge;
     private ArrayList<ApplicationsState.AppEntry> mApps;
-    private HashMap<String, UsageStats> mUsageStats;
+    private ArrayList<UsageStats> mUsageStats;
 
     @Before
     public void setUp() {
@@ -86,11 +86,12 @@ public class AppStateUsageStatsBridgeTest {
         when(mClock.getCurrentTime()).thenReturn(STARTING_TIME);
         mBridge = new AppStateUsageStatsBridge(RuntimeEnvironment.application, mState, null);
         mBridge.mClock = mClock;
+        mBridge.mLastUsedStore = new LastUsedStore(null, mUsageStatsManager);
         AppStateUsageStatsBridge.FILTER_USAGE_STATS.init();
 
         // Set up our fake usage stats.
-        mUsageStats = new HashMap<>();
-        when(mUsageStatsManager.queryAndAggregateUsageStats(anyLong(),
+        mUsageStats = new ArrayList<>();
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(),
                 anyLong())).thenReturn(mUsageStats);
     }
 
@@ -388,7 +389,8 @@ public class AppStateUsageStatsBridgeTest {
         mBridge.updateExtraInfo(app, PACKAGE_NAME, 0);
 
         verify(mUsageStatsManager, atLeastOnce())
-                .queryAndAggregateUsageStats(startTimeCaptor.capture(), endTimeCaptor.capture());
+                .queryUsageStats(
+                        anyInt(), startTimeCaptor.capture(), endTimeCaptor.capture());
         assertThat(startTimeCaptor.getValue()).isLessThan(endTimeCaptor.getValue());
     }
 
@@ -412,6 +414,6 @@ public class AppStateUsageStatsBridgeTest {
         UsageStats usageStats = mock(UsageStats.class);
         when(usageStats.getPackageName()).thenReturn(packageName);
         when(usageStats.getLastTimeUsed()).thenReturn(time);
-        mUsageStats.put(packageName, usageStats);
+        mUsageStats.add(usageStats);
     }
 }
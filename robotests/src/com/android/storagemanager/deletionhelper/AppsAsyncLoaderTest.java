@@ -22,7 +22,7 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.SystemProperties;
 import android.os.storage.VolumeInfo;
 import android.text.TextUtils;
 
@@ -41,7 +41,6 @@ import org.robolectric.Shadows;
 import org.robolectric.shadows.ShadowApplication;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -50,6 +49,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(RobolectricTestRunner.class)
@@ -61,6 +61,7 @@ public class AppsAsyncLoaderTest {
     private static final String PACKAGE_CLEARABLE = "package.clearable";
     private static final String PACKAGE_TOO_NEW_TO_DELETE = "package.tooNewToDelete";
     private static final String PACKAGE_DEFAULT_LAUNCHER = "package.launcherface";
+    private static final String ADOPTED_VOLUME_UUID = "adopted-volume";
 
     @Mock private UsageStatsManager mUsageStatsManager;
     @Mock private StorageStatsSource mStorageStatsSource;
@@ -68,8 +69,9 @@ public class AppsAsyncLoaderTest {
     @Mock private PackageManager mPackageManager;
     @Mock private AppStorageStats mAppStorageStats;
     private AppsAsyncLoader mLoader;
-    private HashMap<String, UsageStats> mUsageStats;
+    private ArrayList<UsageStats> mUsageStats;
     private ArrayList<ApplicationInfo> mInfo;
+    private ArrayList<android.content.pm.PackageInfo> mPackages;
 
     @Before
     public void setUp() throws Exception {
@@ -89,14 +91,16 @@ public class AppsAsyncLoaderTest {
         // Set up the loader to return our fake list of apps.
         mInfo = new ArrayList<>();
         when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), anyInt())).thenReturn(mInfo);
+        mPackages = new ArrayList<>();
+        when(mPackageManager.getInstalledPackagesAsUser(anyInt(), anyInt())).thenReturn(mPackages);
         when(mPackageManager.getHomeActivities(any(List.class)))
                 .thenReturn(new ComponentName(PACKAGE_DEFAULT_LAUNCHER, ""));
 
         AppsAsyncLoader.FILTER_USAGE_STATS.init();
 
         // Set up our fake usage app.
-        mUsageStats = new HashMap<>();
-        when(mUsageStatsManager.queryAndAggregateUsageStats(anyLong(), anyLong()))
+        mUsageStats = new ArrayList<>();
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(), anyLong()))
                 .thenReturn(mUsageStats);
         when(mStorageStatsSource.getStatsForUid(any(), anyInt())).thenReturn(mAppStorageStats);
 
@@ -106,7 +110,7 @@ public class AppsAsyncLoaderTest {
                         .setUuid(VolumeInfo.ID_PRIVATE_INTERNAL)
                         .setStorageStatsSource(mStorageStatsSource)
                         .setPackageManager(mPackageManager)
-                        .setUsageStatsManager(mUsageStatsManager)
+                        .setLastUsedStore(new LastUsedStore(null, mUsageStatsManager))
                         .setFilter(AppsAsyncLoader.FILTER_NO_THRESHOLD)
                         .build();
         mLoader.mClock = mClock;
@@ -144,6 +148,38 @@ public class AppsAsyncLoaderTest {
         assertThat(AppsAsyncLoader.FILTER_NO_THRESHOLD.filterApp(app)).isTrue();
     }
 
+    @Test
+    public void test_configuredThreshold_isUsed() {
+        AppsAsyncLoader.PackageInfo app =
+                createPackage(PACKAGE_NAME, AppsAsyncLoader.NEVER_USED, 30);
+
+        try {
+            AppsAsyncLoader.FILTER_USAGE_STATS.setUnusedDaysThreshold(30);
+            assertThat(AppsAsyncLoader.FILTER_USAGE_STATS.filterApp(app)).isTrue();
+        } finally {
+            AppsAsyncLoader.FILTER_USAGE_STATS.setUnusedDaysThreshold(
+                    AppsAsyncLoader.UNUSED_DAYS_DELETION_THRESHOLD);
+        }
+        assertThat(AppsAsyncLoader.FILTER_USAGE_STATS.filterApp(app)).isFalse();
+    }
+
+    @Test
+    public void test_debugOverride_isReadOnInit() {
+        AppsAsyncLoader.PackageInfo app =
+                createPackage(PACKAGE_NAME, AppsAsyncLoader.NEVER_USED, 30);
+
+        try {
+            SystemProperties.set("debug.asm.app_unused_limit", "30");
+            AppsAsyncLoader.FILTER_USAGE_STATS.init();
+            assertThat(AppsAsyncLoader.FILTER_USAGE_STATS.getUnusedDaysThreshold()).isEqualTo(30);
+            assertThat(AppsAsyncLoader.FILTER_USAGE_STATS.filterApp(app)).isTrue();
+        } finally {
+            SystemProperties.set("debug.asm.app_unused_limit", "");
+            AppsAsyncLoader.FILTER_USAGE_STATS.init();
+        }
+        assertThat(AppsAsyncLoader.FILTER_USAGE_STATS.filterApp(app)).isFalse();
+    }
+
     @Test
     public void test_unknownLastUse_isFilteredOut() {
         AppsAsyncLoader.PackageInfo app = createPackage(PACKAGE_NAME, -1, 90);
@@ -302,54 +338,196 @@ public class AppsAsyncLoaderTest {
     }
 
     @Test
-    public void test_getGreaterUsageStats_primaryIsNull() {
-        UsageStats secondary = mock(UsageStats.class);
-        when(secondary.getLastTimeUsed()).thenReturn(1000L);
-        assertThat(mLoader.getGreaterUsageStats(PACKAGE_NAME, null, secondary))
-                .isEqualTo(secondary);
+    public void test_defaultLauncherDisallowedFromDeletion() {
+        mLoader.mFilter = AppsAsyncLoader.FILTER_USAGE_STATS;
+        mLoader.mFilter.init();
+        AppsAsyncLoader.PackageInfo defaultLauncher =
+                createPackage(
+                        PACKAGE_DEFAULT_LAUNCHER,
+                        TimeUnit.DAYS.toMillis(800),
+                        TimeUnit.DAYS.toMillis(800));
+        registerLastUse(PACKAGE_DEFAULT_LAUNCHER, TimeUnit.DAYS.toMillis(800));
+        registerApp(defaultLauncher, 0, TimeUnit.DAYS.toMillis(800));
+        List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
+
+        assertThat(containsPackage(infos, PACKAGE_DEFAULT_LAUNCHER)).isFalse();
     }
 
     @Test
-    public void test_getGreaterUsageStats_secondaryIsNull() {
-        UsageStats primary = mock(UsageStats.class);
-        when(primary.getLastTimeUsed()).thenReturn(1000L);
-        assertThat(mLoader.getGreaterUsageStats(PACKAGE_NAME, primary, null)).isEqualTo(primary);
+    public void test_loadStats_recordEachStage() {
+        mLoader.mFilter = AppsAsyncLoader.FILTER_USAGE_STATS;
+        mLoader.mFilter.init();
+        AppsAsyncLoader.PackageInfo clearable =
+                createPackage(
+                        PACKAGE_CLEARABLE,
+                        TimeUnit.DAYS.toMillis(800),
+                        TimeUnit.DAYS.toMillis(800));
+        registerLastUse(PACKAGE_CLEARABLE, TimeUnit.DAYS.toMillis(800));
+        registerApp(clearable, 0, TimeUnit.DAYS.toMillis(800));
+        AppsAsyncLoader.PackageInfo tooNewtoDelete =
+                createPackage(
+                        PACKAGE_TOO_NEW_TO_DELETE,
+                        TimeUnit.DAYS.toMillis(1000),
+                        TimeUnit.DAYS.toMillis(1000));
+        registerLastUse(PACKAGE_TOO_NEW_TO_DELETE, TimeUnit.DAYS.toMillis(1000));
+        registerApp(tooNewtoDelete, 1, TimeUnit.DAYS.toMillis(1000));
+        AppsAsyncLoader.PackageInfo systemApp =
+                createPackage(
+                        PACKAGE_SYSTEM, TimeUnit.DAYS.toMillis(800), TimeUnit.DAYS.toMillis(800));
+        systemApp.flags = ApplicationInfo.FLAG_SYSTEM;
+        registerApp(systemApp, 2, TimeUnit.DAYS.toMillis(800));
+        AppsAsyncLoader.PackageInfo defaultLauncher =
+                createPackage(
+                        PACKAGE_DEFAULT_LAUNCHER,
+                        TimeUnit.DAYS.toMillis(800),
+                        TimeUnit.DAYS.toMillis(800));
+        registerLastUse(PACKAGE_DEFAULT_LAUNCHER, TimeUnit.DAYS.toMillis(800));
+        registerApp(defaultLauncher, 3, TimeUnit.DAYS.toMillis(800));
+
+        mLoader.loadInBackground();
+        AppsAsyncLoader.LoadStats stats = mLoader.getLastLoadStats();
+
+        assertThat(stats.getInputCount(AppsAsyncLoader.LoadStats.STAGE_FLAGS)).isEqualTo(4);
+        assertThat(stats.getOutputCount(AppsAsyncLoader.LoadStats.STAGE_FLAGS)).isEqualTo(3);
+        assertThat(stats.getOutputCount(AppsAsyncLoader.LoadStats.STAGE_USAGE)).isEqualTo(2);
+        assertThat(stats.getOutputCount(AppsAsyncLoader.LoadStats.STAGE_LAUNCHER)).isEqualTo(1);
+        assertThat(stats.getOutputCount(AppsAsyncLoader.LoadStats.STAGE_STORAGE)).isEqualTo(1);
+        assertThat(stats.getOutputCount(AppsAsyncLoader.LoadStats.STAGE_PRESENTATION))
+                .isEqualTo(1);
     }
 
     @Test
-    public void test_getGreaterUsageStats_primaryIsGreater() {
-        UsageStats primary = mock(UsageStats.class);
-        when(primary.getLastTimeUsed()).thenReturn(1000L);
-        UsageStats secondary = mock(UsageStats.class);
-        when(secondary.getLastTimeUsed()).thenReturn(900L);
-        assertThat(mLoader.getGreaterUsageStats(PACKAGE_NAME, primary, secondary))
-                .isEqualTo(primary);
+    public void test_appsOnOtherVolumesAreSkipped() {
+        AppsAsyncLoader.PackageInfo clearable =
+                createPackage(
+                        PACKAGE_CLEARABLE,
+                        TimeUnit.DAYS.toMillis(800),
+                        TimeUnit.DAYS.toMillis(800));
+        registerApp(clearable, 0, TimeUnit.DAYS.toMillis(800));
+        AppsAsyncLoader.PackageInfo adopted =
+                createPackage(
+                        PACKAGE_NAME, TimeUnit.DAYS.toMillis(800), TimeUnit.DAYS.toMillis(800));
+        registerApp(adopted, 1, TimeUnit.DAYS.toMillis(800)).volumeUuid = ADOPTED_VOLUME_UUID;
+
+        List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
+
+        assertThat(containsPackage(infos, PACKAGE_CLEARABLE)).isTrue();
+        assertThat(containsPackage(infos, PACKAGE_NAME)).isFalse();
     }
 
     @Test
-    public void test_getGreaterUsageStats_secondaryIsGreater() {
-        UsageStats primary = mock(UsageStats.class);
-        when(primary.getLastTimeUsed()).thenReturn(900L);
-        UsageStats secondary = mock(UsageStats.class);
-        when(secondary.getLastTimeUsed()).thenReturn(1000L);
-        assertThat(mLoader.getGreaterUsageStats(PACKAGE_NAME, primary, secondary))
-                .isEqualTo(secondary);
+    public void test_allVolumesLoadedWithoutUuid() throws Exception {
+        mLoader =
+                new AppsAsyncLoader.Builder(RuntimeEnvironment.application)
+                        .setUid(0)
+                        .setStorageStatsSource(mStorageStatsSource)
+                        .setPackageManager(mPackageManager)
+                        .setLastUsedStore(new LastUsedStore(null, mUsageStatsManager))
+                        .setFilter(AppsAsyncLoader.FILTER_NO_THRESHOLD)
+                        .build();
+        mLoader.mClock = mClock;
+        AppsAsyncLoader.PackageInfo adopted =
+                createPackage(
+                        PACKAGE_NAME, TimeUnit.DAYS.toMillis(800), TimeUnit.DAYS.toMillis(800));
+        registerApp(adopted, 1, TimeUnit.DAYS.toMillis(800)).volumeUuid = ADOPTED_VOLUME_UUID;
+
+        List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
+
+        assertThat(infos).hasSize(1);
+        assertThat(infos.get(0).volumeUuid).isEqualTo(ADOPTED_VOLUME_UUID);
+        verify(mStorageStatsSource).getStatsForUid(ADOPTED_VOLUME_UUID, 1);
     }
 
     @Test
-    public void test_defaultLauncherDisallowedFromDeletion() {
-        mLoader.mFilter = AppsAsyncLoader.FILTER_USAGE_STATS;
-        mLoader.mFilter.init();
-        AppsAsyncLoader.PackageInfo defaultLauncher =
+    public void test_storageBreakdownIsRecorded() {
+        when(mAppStorageStats.getTotalBytes()).thenReturn(1000L);
+        when(mAppStorageStats.getCodeBytes()).thenReturn(400L);
+        when(mAppStorageStats.getDataBytes()).thenReturn(600L);
+        when(mAppStorageStats.getCacheBytes()).thenReturn(250L);
+        AppsAsyncLoader.PackageInfo clearable =
                 createPackage(
-                        PACKAGE_DEFAULT_LAUNCHER,
+                        PACKAGE_CLEARABLE,
                         TimeUnit.DAYS.toMillis(800),
                         TimeUnit.DAYS.toMillis(800));
-        registerLastUse(PACKAGE_DEFAULT_LAUNCHER, TimeUnit.DAYS.toMillis(800));
-        registerApp(defaultLauncher, 0, TimeUnit.DAYS.toMillis(800));
+        registerApp(clearable, 0, TimeUnit.DAYS.toMillis(800));
+
         List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
 
-        assertThat(containsPackage(infos, PACKAGE_DEFAULT_LAUNCHER)).isFalse();
+        assertThat(infos).hasSize(1);
+        AppsAsyncLoader.PackageInfo info = infos.get(0);
+        assertThat(info.size).isEqualTo(1000L);
+        assertThat(info.codeBytes).isEqualTo(400L);
+        assertThat(info.dataBytes).isEqualTo(600L);
+        assertThat(info.cacheBytes).isEqualTo(250L);
+    }
+
+    @Test
+    public void test_defaultScorerRanksStaleAppsAboveSlightlyLargerRecentOnes() {
+        final long gigabyte = 1024L * 1024 * 1024;
+        long recent = AppScorer.DEFAULT.score(2 * gigabyte, 1, 400);
+        long stale = AppScorer.DEFAULT.score(19 * gigabyte / 10, 365, 400);
+        long neverUsed = AppScorer.DEFAULT.score(19 * gigabyte / 10, AppsAsyncLoader.NEVER_USED, 2);
+
+        assertThat(stale).isGreaterThan(recent);
+        // An app which was never used was last used when it was installed.
+        assertThat(neverUsed).isLessThan(recent);
+        assertThat(AppScorer.DEFAULT.score(-1, 365, 400)).isLessThan(0L);
+    }
+
+    @Test
+    public void test_appsAreOrderedByScore() {
+        mLoader =
+                new AppsAsyncLoader.Builder(RuntimeEnvironment.application)
+                        .setUid(0)
+                        .setUuid(VolumeInfo.ID_PRIVATE_INTERNAL)
+                        .setStorageStatsSource(mStorageStatsSource)
+                        .setPackageManager(mPackageManager)
+                        .setLastUsedStore(new LastUsedStore(null, mUsageStatsManager))
+                        .setFilter(AppsAsyncLoader.FILTER_NO_THRESHOLD)
+                        .setScorer((size, daysSinceLastUse, daysSinceFirstInstall) ->
+                                daysSinceFirstInstall)
+                        .build();
+        mLoader.mClock = mClock;
+        registerApp(
+                createPackage(PACKAGE_NAME, TimeUnit.DAYS.toMillis(800), 0),
+                0,
+                TimeUnit.DAYS.toMillis(800));
+        registerApp(
+                createPackage(PACKAGE_CLEARABLE, TimeUnit.DAYS.toMillis(100), 0),
+                1,
+                TimeUnit.DAYS.toMillis(100));
+
+        List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
+
+        assertThat(infos).hasSize(2);
+        // The clearable app was installed 900 days ago, so it ranks first.
+        assertThat(infos.get(0).packageName).isEqualTo(PACKAGE_CLEARABLE);
+        assertThat(infos.get(0).score).isEqualTo(900L);
+        assertThat(infos.get(1).score).isEqualTo(200L);
+    }
+
+    @Test
+    public void test_appsWithEqualScoresAreOrderedByLabel() {
+        registerApp(
+                createPackage(PACKAGE_NAME, TimeUnit.DAYS.toMillis(800), 0),
+                0,
+                TimeUnit.DAYS.toMillis(800));
+        registerApp(
+                createPackage(PACKAGE_CLEARABLE, TimeUnit.DAYS.toMillis(800), 0),
+                1,
+                TimeUnit.DAYS.toMillis(800));
+
+        List<AppsAsyncLoader.PackageInfo> infos = mLoader.loadInBackground();
+
+        assertThat(infos).hasSize(2);
+        assertThat(infos.get(0).packageName).isEqualTo(PACKAGE_CLEARABLE);
+        assertThat(infos.get(1).packageName).isEqualTo(PACKAGE_NAME);
+        // Apps which did not come from a loader have no sort keys, but still sort the same way.
+        assertThat(
+                        AppsAsyncLoader.PACKAGE_INFO_COMPARATOR.compare(
+                                infos.get(1),
+                                createPackage(PACKAGE_CLEARABLE, 800, 800)))
+                .isGreaterThan(0);
     }
 
     private AppsAsyncLoader.PackageInfo createPackage(
@@ -366,29 +544,27 @@ public class AppsAsyncLoaderTest {
         return app;
     }
 
-    private void registerApp(AppsAsyncLoader.PackageInfo info, int uid, long installed) {
+    private ApplicationInfo registerApp(
+            AppsAsyncLoader.PackageInfo info, int uid, long installed) {
         ApplicationInfo applicationInfo = mock(ApplicationInfo.class);
         applicationInfo.uid = uid;
         applicationInfo.packageName = info.packageName;
         applicationInfo.flags = info.flags;
         mInfo.add(applicationInfo);
         android.content.pm.PackageInfo packageInfo = mock(android.content.pm.PackageInfo.class);
+        packageInfo.packageName = info.packageName;
         packageInfo.firstInstallTime = installed;
-        try {
-            when(mPackageManager.getPackageInfo(eq(info.packageName), anyInt()))
-                    .thenReturn(packageInfo);
-            when(applicationInfo.loadLabel(eq(mPackageManager)))
-                    .thenReturn(applicationInfo.packageName);
-        } catch (NameNotFoundException e) {
-            e.printStackTrace();
-        }
+        mPackages.add(packageInfo);
+        when(applicationInfo.loadLabel(eq(mPackageManager)))
+                .thenReturn(applicationInfo.packageName);
+        return applicationInfo;
     }
 
     private void registerLastUse(String packageName, long time) {
         UsageStats usageStats = mock(UsageStats.class);
         when(usageStats.getPackageName()).thenReturn(packageName);
         when(usageStats.getLastTimeUsed()).thenReturn(time);
-        mUsageStats.put(packageName, usageStats);
+        mUsageStats.add(usageStats);
     }
 
     private boolean containsPackage(List<PackageInfo> infos, String expectedPackage) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class CandidateSnapshotTest {
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = CandidateSnapshot.getFile(RuntimeEnvironment.application);
+        mFile.delete();
+    }
+
+    @Test
+    public void testNothingPersisted() {
+        assertThat(CandidateSnapshot.read(mFile)).isNull();
+    }
+
+    @Test
+    public void testSnapshotIsReadBack() {
+        ArrayList<PackageInfo> apps = new ArrayList<>();
+        PackageInfo app =
+                new PackageInfo.Builder()
+                        .setPackageName("package")
+                        .setUserId(0)
+                        .setLabel("App")
+                        .setSize(1000)
+                        .setDaysSinceLastUse(100)
+                        .setDaysSinceFirstInstall(200)
+                        .setReuseProbability(0.5f)
+                        .build();
+        app.score = 1234;
+        apps.add(app);
+
+        new CandidateSnapshot(42, apps, 3, 4096).write(mFile);
+        CandidateSnapshot snapshot = CandidateSnapshot.read(mFile);
+
+        assertThat(snapshot.timeMillis).isEqualTo(42);
+        assertThat(snapshot.downloadsCount).isEqualTo(3);
+        assertThat(snapshot.downloadsBytes).isEqualTo(4096);
+        assertThat(snapshot.apps).hasSize(1);
+        PackageInfo readApp = snapshot.apps.get(0);
+        assertThat(readApp.packageName).isEqualTo("package");
+        assertThat(readApp.label.toString()).isEqualTo("App");
+        assertThat(readApp.size).isEqualTo(1000);
+        assertThat(readApp.daysSinceLastUse).isEqualTo(100);
+        assertThat(readApp.reuseProbability).isEqualTo(0.5f);
+        assertThat(readApp.score).isEqualTo(1234);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeletionHelperResultsTest {
+    private ArrayDeque<Runnable> mBackground;
+    private DeletionHelperResults mResults;
+    private List<PackageInfo> mStaleApps;
+    private DeletionHelperResults.AppsListener mListener =
+            new DeletionHelperResults.AppsListener() {
+                @Override
+                public void onStaleApps(List<PackageInfo> apps) {
+                    mStaleApps = apps;
+                }
+
+                @Override
+                public void onApps(List<PackageInfo> apps) {}
+            };
+
+    @Before
+    public void setUp() {
+        mBackground = new ArrayDeque<>();
+        mResults = new DeletionHelperResults(mBackground::add);
+    }
+
+    @Test
+    public void testNothingToWaitForWithoutPrefetch() {
+        assertThat(mResults.whenAppsLoaded(mListener)).isFalse();
+        assertThat(mResults.whenDownloadsLoaded(downloads -> {})).isFalse();
+    }
+
+    @Test
+    public void testPrefetchOnlyStartsOnce() {
+        mResults.prefetch(RuntimeEnvironment.application);
+        final int loads = mBackground.size();
+
+        mResults.prefetch(RuntimeEnvironment.application);
+
+        assertThat(loads).isAtLeast(1);
+        assertThat(mBackground).hasSize(loads);
+        assertThat(mResults.whenAppsLoaded(mListener)).isTrue();
+    }
+
+    @Test
+    public void testRetainedAppsAreNotPrefetched() {
+        mResults.setApps(new ArrayList<PackageInfo>());
+
+        mResults.prefetch(RuntimeEnvironment.application);
+
+        assertThat(mResults.whenAppsLoaded(mListener)).isFalse();
+    }
+
+    @Test
+    public void testSnapshotIsShownWhileAppsLoad() {
+        ArrayList<PackageInfo> apps = new ArrayList<>();
+        apps.add(
+                new PackageInfo.Builder()
+                        .setPackageName("package")
+                        .setLabel("App")
+                        .setSize(1000)
+                        .build());
+        new CandidateSnapshot(0, apps, 0, 0)
+                .write(CandidateSnapshot.getFile(RuntimeEnvironment.application));
+
+        mResults.prefetch(RuntimeEnvironment.application);
+        mResults.whenAppsLoaded(mListener);
+        // The apps are loaded first.
+        mBackground.poll().run();
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertThat(mStaleApps).hasSize(1);
+        assertThat(mStaleApps.get(0).packageName).isEqualTo("package");
+    }
+}
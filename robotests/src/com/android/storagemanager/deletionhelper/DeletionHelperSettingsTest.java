@@ -89,6 +89,32 @@ public class DeletionHelperSettingsTest {
         verify(downloadsDeletionType, never()).clearFreeableData(any());
     }
 
+    @Test
+    public void switchingThresholdFiltersAppsInPlace() {
+        DeletionHelperSettings settings =
+                spy(DeletionHelperSettings.newInstance(AppsAsyncLoader.NORMAL_THRESHOLD));
+        PreferenceScreen preferenceScreen = mock(PreferenceScreen.class);
+        doReturn(preferenceScreen).when(settings).getPreferenceScreen();
+        AppDeletionType appBackend = mock(AppDeletionType.class);
+        settings.mAppBackend = appBackend;
+        DownloadsDeletionPreferenceGroup downloadsPreference =
+                mock(DownloadsDeletionPreferenceGroup.class);
+        settings.mDownloadsPreference = downloadsPreference;
+        settings.setDownloadsDeletionType(mock(DownloadsDeletionType.class));
+
+        settings.setThresholdType(AppsAsyncLoader.NO_THRESHOLD);
+
+        verify(appBackend).setThresholdType(AppsAsyncLoader.NO_THRESHOLD);
+        verify(preferenceScreen).removePreference(downloadsPreference);
+        assertThat(settings.mDownloadsPreference).isNull();
+
+        settings.setThresholdType(AppsAsyncLoader.NORMAL_THRESHOLD);
+
+        verify(appBackend).setThresholdType(AppsAsyncLoader.NORMAL_THRESHOLD);
+        verify(preferenceScreen).addPreference(downloadsPreference);
+        assertThat(settings.mDownloadsPreference).isSameAs(downloadsPreference);
+    }
+
     @Test
     public void onFreeableChangeChecksForNull() {
         DeletionHelperSettings settings =
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import com.android.storagemanager.deletionhelper.DeletionOrchestrator.Job;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeletionOrchestratorTest {
+    private ArrayDeque<Runnable> mMainThread;
+    private ArrayList<String> mCleared;
+    private DeletionOrchestrator mOrchestrator;
+    private Activity mActivity;
+    private Context mApplicationContext;
+
+    @Before
+    public void setUp() {
+        mMainThread = new ArrayDeque<>();
+        mCleared = new ArrayList<>();
+        mOrchestrator =
+                new DeletionOrchestrator(
+                        Runnable::run, mMainThread::add, new Handler(Looper.getMainLooper()));
+        mApplicationContext = RuntimeEnvironment.application;
+        mActivity = mock(Activity.class);
+        when(mActivity.getApplicationContext()).thenReturn(mApplicationContext);
+    }
+
+    @Test
+    public void testJobsRunInPriorityOrder() {
+        mOrchestrator.enqueue(mActivity, "first", clearingType("first"),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        mOrchestrator.enqueue(mActivity, "low", clearingType("low"),
+                DeletionOrchestrator.PRIORITY_LOW, 0, null);
+        mOrchestrator.enqueue(mActivity, "high", clearingType("high"),
+                DeletionOrchestrator.PRIORITY_HIGH, 0, null);
+
+        runMainThread();
+
+        assertThat(mCleared).containsExactly("first", "high", "low").inOrder();
+    }
+
+    @Test
+    public void testOnlyOneJobRunsByDefault() {
+        Job first = mOrchestrator.enqueue(mActivity, "first", mock(DeletionType.class),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        Job second = mOrchestrator.enqueue(mActivity, "second", mock(DeletionType.class),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+
+        runMainThread();
+
+        assertThat(first.getState()).isEqualTo(Job.STATE_RUNNING);
+        assertThat(second.getState()).isEqualTo(Job.STATE_QUEUED);
+        assertThat(mOrchestrator.getPendingJobs()).containsExactly(first, second);
+    }
+
+    @Test
+    public void testCancelledQueuedJobNeverStarts() {
+        DeletionType running = mock(DeletionType.class);
+        DeletionType queued = clearingType("queued");
+        DeletionOrchestrator.Listener listener = mock(DeletionOrchestrator.Listener.class);
+        mOrchestrator.enqueue(mActivity, "running", running,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        Job job = mOrchestrator.enqueue(mActivity, "queued", queued,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, listener);
+
+        assertThat(mOrchestrator.cancel(job)).isTrue();
+        runMainThread();
+
+        assertThat(mCleared).isEmpty();
+        assertThat(job.getState()).isEqualTo(Job.STATE_FINISHED);
+        verify(listener).onJobFinished(job);
+    }
+
+    @Test
+    public void testRunningJobSeesCancellationAndProgress() {
+        DeletionType type = mock(DeletionType.class);
+        DeletionOrchestrator.Listener listener = mock(DeletionOrchestrator.Listener.class);
+        Job job = mOrchestrator.enqueue(mActivity, "running", type,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, listener);
+        runMainThread();
+        ArgumentCaptor<DeletionType.ClearListener> captor =
+                ArgumentCaptor.forClass(DeletionType.ClearListener.class);
+        verify(type).clearFreeableData(eq(mApplicationContext), captor.capture());
+        DeletionType.ClearListener clearListener = captor.getValue();
+
+        clearListener.onProgress(1, 4);
+        mOrchestrator.cancel(job);
+
+        assertThat(clearListener.isCancelled()).isTrue();
+        assertThat(job.getCompleted()).isEqualTo(1);
+        assertThat(job.getTotal()).isEqualTo(4);
+        verify(listener).onJobProgress(job, 1, 4);
+
+        clearListener.onCleared();
+
+        assertThat(job.getState()).isEqualTo(Job.STATE_FINISHED);
+        assertThat(job.isCancelled()).isTrue();
+        verify(listener).onJobFinished(job);
+    }
+
+    @Test
+    public void testOnlyTypesWhichRequireAnActivityAreGivenOne() {
+        DeletionType activityType = mock(DeletionType.class);
+        when(activityType.requiresActivity()).thenReturn(true);
+        mOrchestrator.setMaxConcurrentJobs(2);
+        DeletionType type = mock(DeletionType.class);
+        mOrchestrator.enqueue(mActivity, "activity", activityType,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        mOrchestrator.enqueue(mActivity, "application", type,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+
+        runMainThread();
+
+        verify(activityType).clearFreeableData(eq(mActivity), any());
+        verify(type).clearFreeableData(eq(mApplicationContext), any());
+    }
+
+    @Test
+    public void testThrowingTypeDoesNotHoldUpTheQueue() {
+        DeletionType throwing = mock(DeletionType.class);
+        doThrow(new IllegalStateException()).when(throwing).clearFreeableData(any(), any());
+        Job job = mOrchestrator.enqueue(mActivity, "throwing", throwing,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        mOrchestrator.enqueue(mActivity, "next", clearingType("next"),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+
+        runMainThread();
+
+        assertThat(job.getState()).isEqualTo(Job.STATE_FINISHED);
+        assertThat(mCleared).containsExactly("next");
+    }
+
+    @Test
+    public void testStuckJobIsFinishedAfterTheTimeout() {
+        Job job = mOrchestrator.enqueue(mActivity, "stuck", mock(DeletionType.class),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        mOrchestrator.enqueue(mActivity, "next", clearingType("next"),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0, null);
+        runMainThread();
+        assertThat(job.getState()).isEqualTo(Job.STATE_RUNNING);
+
+        Robolectric.getForegroundThreadScheduler()
+                .advanceBy(DeletionOrchestrator.JOB_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        runMainThread();
+
+        assertThat(job.getState()).isEqualTo(Job.STATE_FINISHED);
+        assertThat(mCleared).containsExactly("next");
+    }
+
+    private void runMainThread() {
+        while (!mMainThread.isEmpty()) {
+            mMainThread.poll().run();
+        }
+    }
+
+    private DeletionType clearingType(String name) {
+        DeletionType type = mock(DeletionType.class);
+        doAnswer(
+                        invocation -> {
+                            mCleared.add(name);
+                            ((DeletionType.ClearListener) invocation.getArgument(1)).onCleared();
+                            return null;
+                        })
+                .when(type)
+                .clearFreeableData(any(), any());
+        return type;
+    }
+}
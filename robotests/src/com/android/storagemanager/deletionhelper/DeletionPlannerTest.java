@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.content.pm.IPackageDataObserver;
+import android.content.pm.IPackageDeleteObserver;
+import android.content.pm.PackageManager;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class DeletionPlannerTest {
+    private static final String PACKAGE_NAME = "package.mcpackageface";
+    private static final String OTHER_PACKAGE_NAME = "package.other";
+    private static final int PROFILE_USER_ID = 10;
+
+    private PackageManager mPackageManager;
+    private DeletionPlanner mPlanner;
+
+    @Before
+    public void setUp() {
+        Context context = spy(RuntimeEnvironment.application);
+        mPackageManager = mock(PackageManager.class);
+        when(context.getPackageManager()).thenReturn(mPackageManager);
+        mPlanner = new DeletionPlanner(context);
+    }
+
+    @Test
+    public void testAppsPlanHasEveryAppAndTotal() {
+        DeletionPlan plan =
+                DeletionPlanner.createAppsPlan(
+                        Arrays.asList(
+                                createPackage(PACKAGE_NAME, 0, 100L),
+                                createPackage(OTHER_PACKAGE_NAME, PROFILE_USER_ID, -1L)));
+
+        assertThat(plan.category).isEqualTo(MeasuredDeletion.CATEGORY_APPS);
+        assertThat(plan.items).hasSize(2);
+        assertThat(plan.items.get(1).key)
+                .isEqualTo(PackageInfo.getKey(OTHER_PACKAGE_NAME, PROFILE_USER_ID));
+        // Unknown sizes do not count towards the total.
+        assertThat(plan.totalBytes).isEqualTo(100L);
+    }
+
+    @Test
+    public void testAppItemsMapBackToPackages() {
+        DeletionPlan plan =
+                DeletionPlanner.createAppsPlan(
+                        Arrays.asList(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 100L)));
+
+        PackageInfo app = DeletionPlanner.toPackageInfo(plan.items.get(0));
+
+        assertThat(app.packageName).isEqualTo(PACKAGE_NAME);
+        assertThat(app.userId).isEqualTo(PROFILE_USER_ID);
+        assertThat(app.size).isEqualTo(100L);
+    }
+
+    @Test
+    public void testExecuteUninstallsExactlyThePlannedApps() throws Exception {
+        doAnswer(
+                        invocation -> {
+                            ((IPackageDeleteObserver) invocation.getArgument(1))
+                                    .packageDeleted(
+                                            invocation.getArgument(0),
+                                            PackageManager.DELETE_SUCCEEDED);
+                            return null;
+                        })
+                .when(mPackageManager)
+                .deletePackageAsUser(anyString(), any(), anyInt(), anyInt());
+        DeletionPlan plan =
+                DeletionPlanner.createAppsPlan(
+                        Arrays.asList(createPackage(PACKAGE_NAME, PROFILE_USER_ID, 100L)));
+        DeletionType.ClearListener listener = mock(DeletionType.ClearListener.class);
+
+        mPlanner.execute(plan, listener);
+
+        verify(mPackageManager)
+                .deletePackageAsUser(eq(PACKAGE_NAME), any(), anyInt(), eq(PROFILE_USER_ID));
+        verify(mPackageManager, never())
+                .deletePackageAsUser(eq(OTHER_PACKAGE_NAME), any(), anyInt(), anyInt());
+        verify(listener).onProgress(1, 1);
+        verify(listener).onCleared();
+    }
+
+    @Test
+    public void testExecuteClearsOnlyThePlannedCaches() throws Exception {
+        doAnswer(
+                        invocation -> {
+                            ((IPackageDataObserver) invocation.getArgument(2))
+                                    .onRemoveCompleted(invocation.getArgument(0), true);
+                            return null;
+                        })
+                .when(mPackageManager)
+                .deleteApplicationCacheFilesAsUser(anyString(), anyInt(), any());
+        PackageInfo app = createPackage(PACKAGE_NAME, PROFILE_USER_ID, 100L);
+        app.cacheBytes = 50L;
+        DeletionPlan plan = DeletionPlanner.createAppCachesPlan(Arrays.asList(app));
+        DeletionType.ClearListener listener = mock(DeletionType.ClearListener.class);
+
+        mPlanner.execute(plan, listener);
+
+        verify(mPackageManager)
+                .deleteApplicationCacheFilesAsUser(eq(PACKAGE_NAME), eq(PROFILE_USER_ID), any());
+        verify(mPackageManager, never())
+                .deleteApplicationCacheFilesAsUser(eq(OTHER_PACKAGE_NAME), anyInt(), any());
+        verify(mPackageManager, never()).freeStorageAndNotify(any(), anyLong(), any());
+        verify(listener).onProgress(1, 1);
+        verify(listener).onCleared();
+    }
+
+    @Test
+    public void testExecuteEmptyPlanCompletes() {
+        DeletionType.ClearListener listener = mock(DeletionType.ClearListener.class);
+
+        mPlanner.execute(DeletionPlanner.createAppsPlan(new ArrayList<>()), listener);
+
+        verify(listener).onCleared();
+    }
+
+    private static PackageInfo createPackage(String packageName, int userId, long size) {
+        return new PackageInfo.Builder()
+                .setPackageName(packageName)
+                .setUserId(userId)
+                .setSize(size)
+                .build();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.deletionhelper.FreeableSpaceEstimator.Category;
+import com.android.storagemanager.deletionhelper.FreeableSpaceEstimator.Estimate;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class FreeableSpaceEstimatorTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+
+    private ArrayDeque<Runnable> mBackground;
+    private int mComputations;
+    private int mUpdates;
+    private FreeableSpaceEstimator mEstimator;
+
+    @Before
+    public void setUp() {
+        mBackground = new ArrayDeque<>();
+        mEstimator =
+                new FreeableSpaceEstimator(
+                        null,
+                        mBackground::add,
+                        () -> {
+                            mComputations++;
+                            ArrayList<Category> categories = new ArrayList<>();
+                            categories.add(
+                                    new Category(MeasuredDeletion.CATEGORY_APPS, 2, 1000));
+                            return new Estimate(NOW, categories);
+                        },
+                        () -> mUpdates++);
+    }
+
+    @Test
+    public void testConcurrentQueriesShareOneComputation() {
+        assertThat(mEstimator.getEstimate(NOW)).isNull();
+        assertThat(mEstimator.getEstimate(NOW)).isNull();
+        assertThat(mEstimator.isComputing()).isTrue();
+        assertThat(mBackground).hasSize(1);
+
+        mBackground.poll().run();
+
+        assertThat(mComputations).isEqualTo(1);
+        assertThat(mUpdates).isEqualTo(1);
+        assertThat(mEstimator.isComputing()).isFalse();
+        Estimate estimate = mEstimator.getEstimate(NOW);
+        assertThat(estimate.categories).hasSize(1);
+        assertThat(estimate.categories.get(0).bytes).isEqualTo(1000);
+    }
+
+    @Test
+    public void testFreshEstimateIsNotComputedAgain() {
+        mEstimator.getEstimate(NOW);
+        mBackground.poll().run();
+
+        mEstimator.getEstimate(NOW + FreeableSpaceEstimator.MAX_AGE_MILLIS - 1);
+
+        assertThat(mBackground).isEmpty();
+    }
+
+    @Test
+    public void testStaleEstimateIsReturnedWhileComputedAgain() {
+        mEstimator.getEstimate(NOW);
+        mBackground.poll().run();
+
+        Estimate estimate = mEstimator.getEstimate(NOW + FreeableSpaceEstimator.MAX_AGE_MILLIS);
+
+        assertThat(estimate.timeMillis).isEqualTo(NOW);
+        assertThat(mBackground).hasSize(1);
+    }
+
+    @Test
+    public void testAppsAreEstimatedWithoutTheirCaches() {
+        DeletionPlan caches =
+                new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APP_CACHES)
+                        .addItem("0/uninstalled", 100, null)
+                        .addItem("0/kept", 50, null)
+                        .build();
+        DeletionPlan apps =
+                new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APPS)
+                        .addItem("0/uninstalled", 1000, null)
+                        .build();
+
+        Estimate estimate = FreeableSpaceEstimator.fromPlans(NOW, Arrays.asList(caches, apps));
+
+        assertThat(estimate.categories.get(0).bytes).isEqualTo(150);
+        Category appsCategory = estimate.categories.get(1);
+        assertThat(appsCategory.count).isEqualTo(1);
+        assertThat(appsCategory.bytes).isEqualTo(900);
+    }
+
+    @Test
+    public void testSnapshotEstimateOnlyCountsUnusedApps() {
+        ArrayList<PackageInfo> apps = new ArrayList<>();
+        apps.add(
+                new PackageInfo.Builder()
+                        .setPackageName("unused")
+                        .setSize(1000)
+                        .setDaysSinceLastUse(365)
+                        .setDaysSinceFirstInstall(365)
+                        .build());
+        apps.add(
+                new PackageInfo.Builder()
+                        .setPackageName("used")
+                        .setSize(500)
+                        .setDaysSinceLastUse(1)
+                        .setDaysSinceFirstInstall(365)
+                        .build());
+
+        Estimate estimate =
+                FreeableSpaceEstimator.fromSnapshot(
+                        RuntimeEnvironment.application,
+                        new CandidateSnapshot(NOW, apps, 3, 4096));
+
+        assertThat(estimate.timeMillis).isEqualTo(NOW);
+        assertThat(estimate.categories).hasSize(2);
+        Category downloads = estimate.categories.get(0);
+        assertThat(downloads.name).isEqualTo(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        assertThat(downloads.bytes).isEqualTo(4096);
+        Category appsCategory = estimate.categories.get(1);
+        assertThat(appsCategory.count).isEqualTo(1);
+        assertThat(appsCategory.bytes).isEqualTo(1000);
+    }
+}
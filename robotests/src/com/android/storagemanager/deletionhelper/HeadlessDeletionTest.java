@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class HeadlessDeletionTest {
+    private DeletionPlanner mPlanner;
+    private ReclaimLog mLog;
+    private long mFreeBytes;
+    private HeadlessDeletion mDeletion;
+    private HeadlessDeletion.Result mResult;
+
+    @Before
+    public void setUp() {
+        mPlanner = mock(DeletionPlanner.class);
+        when(mPlanner.planAppCaches())
+                .thenReturn(
+                        new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APP_CACHES)
+                                .addItem("0/cached", 100, null)
+                                .build());
+        when(mPlanner.planDownloads())
+                .thenReturn(
+                        new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_DOWNLOADS)
+                                .addItem("/sdcard/Download/small", 10, null)
+                                .addItem("/sdcard/Download/large", 1000, null)
+                                .build());
+        when(mPlanner.planApps(anyInt()))
+                .thenReturn(new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APPS).build());
+        // Every plan frees exactly what it planned.
+        doAnswer(
+                        invocation -> {
+                            DeletionPlan plan = invocation.getArgument(0);
+                            mFreeBytes += plan.totalBytes;
+                            ((DeletionType.ClearListener) invocation.getArgument(1)).onCleared();
+                            return null;
+                        })
+                .when(mPlanner)
+                .execute(any(DeletionPlan.class), any(DeletionType.ClearListener.class));
+        mLog = new ReclaimLog(null);
+        mDeletion =
+                new HeadlessDeletion(
+                        RuntimeEnvironment.application,
+                        mPlanner,
+                        mLog,
+                        Runnable::run,
+                        new Handler(Looper.getMainLooper())) {
+                    @Override
+                    protected long getFreeBytes() {
+                        return mFreeBytes;
+                    }
+                };
+    }
+
+    @Test
+    public void testRunDeletesEveryCategory() {
+        mDeletion.run(allCategories().build(), result -> mResult = result);
+
+        assertThat(mResult.dryRun).isFalse();
+        assertThat(mResult.getDeletedCount()).isEqualTo(3);
+        assertThat(mResult.getReclaimedBytes()).isEqualTo(1110);
+        assertThat(mResult.categories).hasSize(3);
+        assertThat(mResult.categories.get(1).name).isEqualTo(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        assertThat(mResult.categories.get(1).reclaimedBytes).isEqualTo(1010);
+        assertThat(mLog.getEntries()).hasSize(1);
+        assertThat(mLog.getEntries().get(0).getReclaimedBytes()).isEqualTo(1110);
+    }
+
+    @Test
+    public void testDryRunDeletesNothing() {
+        mDeletion.run(allCategories().setDryRun(true).build(), result -> mResult = result);
+
+        verify(mPlanner, never())
+                .execute(any(DeletionPlan.class), any(DeletionType.ClearListener.class));
+        assertThat(mResult.dryRun).isTrue();
+        assertThat(mResult.categories.get(1).plannedBytes).isEqualTo(1010);
+        assertThat(mResult.getDeletedCount()).isEqualTo(0);
+        assertThat(mLog.getEntries()).isEmpty();
+    }
+
+    @Test
+    public void testRunFinishesWhenAPlanThrows() {
+        doThrow(new IllegalStateException())
+                .when(mPlanner)
+                .execute(any(DeletionPlan.class), any(DeletionType.ClearListener.class));
+
+        mDeletion.run(allCategories().build(), result -> mResult = result);
+
+        assertThat(mResult.categories).hasSize(3);
+        assertThat(mResult.getReclaimedBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRunFinishesWhenAPlanStopsReporting() {
+        doNothing()
+                .when(mPlanner)
+                .execute(any(DeletionPlan.class), any(DeletionType.ClearListener.class));
+
+        mDeletion.run(
+                new DeletionPolicy.Builder()
+                        .setCategories(Arrays.asList(MeasuredDeletion.CATEGORY_DOWNLOADS))
+                        .build(),
+                result -> mResult = result);
+        assertThat(mResult).isNull();
+
+        Robolectric.getForegroundThreadScheduler()
+                .advanceBy(DeletionOrchestrator.JOB_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        assertThat(mResult.categories).hasSize(1);
+    }
+
+    @Test
+    public void testRequestedBytesOnlyKeepsWhatCoversThem() {
+        List<DeletionPlan> plans =
+                mDeletion.plan(
+                        new DeletionPolicy.Builder()
+                                .setCategories(
+                                        Arrays.asList(
+                                                MeasuredDeletion.CATEGORY_APP_CACHES,
+                                                MeasuredDeletion.CATEGORY_DOWNLOADS))
+                                .setRequestedBytes(500)
+                                .build());
+
+        verify(mPlanner, never()).planApps(anyInt());
+        assertThat(plans).hasSize(2);
+        assertThat(plans.get(0).isEmpty()).isTrue();
+        assertThat(plans.get(1).items).hasSize(1);
+        assertThat(plans.get(1).items.get(0).key).isEqualTo("/sdcard/Download/large");
+    }
+
+    @Test
+    public void testCacheOfSelectedAppIsNotCleared() {
+        // The app's size includes its 100 byte cache.
+        when(mPlanner.planApps(anyInt()))
+                .thenReturn(
+                        new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APPS)
+                                .addItem("0/cached", 150, null)
+                                .build());
+
+        List<DeletionPlan> plans =
+                mDeletion.plan(
+                        new DeletionPolicy.Builder()
+                                .setCategories(
+                                        Arrays.asList(
+                                                MeasuredDeletion.CATEGORY_APP_CACHES,
+                                                MeasuredDeletion.CATEGORY_APPS))
+                                .setRequestedBytes(150)
+                                .build());
+
+        assertThat(plans).hasSize(2);
+        assertThat(plans.get(0).isEmpty()).isTrue();
+        assertThat(plans.get(1).totalBytes).isEqualTo(150);
+    }
+
+    @Test
+    public void testResultBundle() {
+        mDeletion.run(allCategories().build(), result -> mResult = result);
+
+        Bundle bundle = mResult.toBundle();
+
+        assertThat(bundle.getStringArray(HeadlessDeletion.Result.KEY_CATEGORIES))
+                .asList()
+                .containsExactlyElementsIn(DeletionPolicy.SUPPORTED_CATEGORIES)
+                .inOrder();
+        assertThat(bundle.getLongArray(HeadlessDeletion.Result.KEY_RECLAIMED_BYTES))
+                .asList()
+                .containsExactly(100L, 1010L, 0L)
+                .inOrder();
+    }
+
+    @Test
+    public void testShellOptionsArePartOfThePolicy() {
+        DeletionPolicy policy =
+                HeadlessDeletionService.parsePolicy(
+                        new String[] {"run", "--dry-run", "--bytes", "42", "downloads"});
+
+        assertThat(policy.dryRun).isTrue();
+        assertThat(policy.requestedBytes).isEqualTo(42);
+        assertThat(policy.categories).containsExactly(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        assertThat(HeadlessDeletionService.parsePolicy(new String[] {"run", "photos"})).isNull();
+        assertThat(HeadlessDeletionService.parsePolicy(new String[] {"run", "--dry-run"}))
+                .isNull();
+    }
+
+    @Test
+    public void testIntentWithoutCategoriesIsRejected() {
+        Intent intent = new Intent(HeadlessDeletionService.ACTION_RUN_DELETION);
+
+        assertThat(HeadlessDeletionService.getPolicy(intent)).isNull();
+
+        intent.putExtra(
+                HeadlessDeletionService.EXTRA_CATEGORIES,
+                new String[] {MeasuredDeletion.CATEGORY_DOWNLOADS});
+        DeletionPolicy policy = HeadlessDeletionService.getPolicy(intent);
+        assertThat(policy.categories).containsExactly(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        assertThat(policy.dryRun).isFalse();
+    }
+
+    @Test
+    public void testIntentCarriesThePolicy() {
+        DeletionPolicy policy =
+                new DeletionPolicy.Builder()
+                        .setCategories(Arrays.asList(MeasuredDeletion.CATEGORY_APPS))
+                        .setThresholdType(AppsAsyncLoader.NO_THRESHOLD)
+                        .setRequestedBytes(42)
+                        .setDryRun(true)
+                        .build();
+
+        DeletionPolicy parsed =
+                HeadlessDeletionService.getPolicy(
+                        HeadlessDeletionService.createIntent(
+                                RuntimeEnvironment.application, policy));
+
+        assertThat(parsed.toString()).isEqualTo(policy.toString());
+    }
+
+    @Test(expected = SecurityException.class)
+    public void testOnlyTheShellCanQueueCommands() {
+        new DeletionCommandProvider()
+                .call(DeletionCommandProvider.METHOD_RUN, "--dry-run downloads", null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPolicyWithoutCategoriesCannotBeBuilt() {
+        new DeletionPolicy.Builder().setDryRun(true).build();
+    }
+
+    private static DeletionPolicy.Builder allCategories() {
+        return new DeletionPolicy.Builder().setCategories(DeletionPolicy.SUPPORTED_CATEGORIES);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import com.android.storagemanager.utils.PackageLongMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class LastUsedStoreTest {
+    private static final long STARTING_TIME = TimeUnit.DAYS.toMillis(1000);
+    private static final String PACKAGE_NAME = "package.mcpackageface";
+    private static final String PACKAGE_CLEARABLE = "package.clearable";
+
+    @Mock private UsageStatsManager mUsageStatsManager;
+    private ArrayList<UsageStats> mUsageStats;
+    private LastUsedStore mStore;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mUsageStats = new ArrayList<>();
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(), anyLong()))
+                .thenReturn(mUsageStats);
+        mStore = new LastUsedStore(null, mUsageStatsManager);
+    }
+
+    @Test
+    public void testMissingPackageIsAbsent() {
+        registerLastUse(PACKAGE_NAME, 1000L);
+
+        PackageLongMap lastUsed = mStore.refresh(STARTING_TIME);
+
+        assertThat(lastUsed.containsKey(PACKAGE_CLEARABLE)).isFalse();
+        assertThat(lastUsed.get(PACKAGE_NAME, 0)).isEqualTo(1000L);
+        assertThat(mStore.getUsageStatsMismatchCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testFirstBucketIsGreater() {
+        registerLastUse(PACKAGE_NAME, 1000L);
+        registerLastUse(PACKAGE_NAME, 900L);
+
+        PackageLongMap lastUsed = mStore.refresh(STARTING_TIME);
+
+        assertThat(lastUsed.get(PACKAGE_NAME, 0)).isEqualTo(1000L);
+        assertThat(mStore.getUsageStatsMismatchCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSecondBucketIsGreater() {
+        registerLastUse(PACKAGE_NAME, 900L);
+        registerLastUse(PACKAGE_NAME, 1000L);
+
+        PackageLongMap lastUsed = mStore.refresh(STARTING_TIME);
+
+        assertThat(lastUsed.get(PACKAGE_NAME, 0)).isEqualTo(1000L);
+        assertThat(mStore.getUsageStatsMismatchCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testMatchingBucketsAreNotMismatches() {
+        registerLastUse(PACKAGE_NAME, 1000L);
+        registerLastUse(PACKAGE_NAME, 1000L);
+        registerLastUse(PACKAGE_CLEARABLE, 500L);
+
+        PackageLongMap lastUsed = mStore.refresh(STARTING_TIME);
+
+        assertThat(lastUsed.size()).isEqualTo(2);
+        assertThat(mStore.getUsageStatsMismatchCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRecentCheckpointOnlyQueriesEvents() {
+        registerLastUse(PACKAGE_NAME, 1000L);
+
+        mStore.refresh(STARTING_TIME);
+        PackageLongMap lastUsed = mStore.refresh(STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+
+        verify(mUsageStatsManager, times(1)).queryUsageStats(anyInt(), anyLong(), anyLong());
+        verify(mUsageStatsManager).queryEvents(STARTING_TIME,
+                STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+        assertThat(lastUsed.get(PACKAGE_NAME, 0)).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testStaleCheckpointRebuilds() {
+        mStore.refresh(STARTING_TIME);
+        mStore.refresh(STARTING_TIME + LastUsedStore.EVENTS_RETENTION_MILLIS + 1);
+
+        verify(mUsageStatsManager, times(2)).queryUsageStats(anyInt(), anyLong(), anyLong());
+        verify(mUsageStatsManager, never()).queryEvents(anyLong(), anyLong());
+    }
+
+    @Test
+    public void testSnapshotIsPersisted() {
+        File file = new File(RuntimeEnvironment.application.getFilesDir(), "snapshot");
+        registerLastUse(PACKAGE_NAME, 1000L);
+        new LastUsedStore(file, mUsageStatsManager).refresh(STARTING_TIME);
+        mUsageStats.clear();
+
+        PackageLongMap lastUsed =
+                new LastUsedStore(file, mUsageStatsManager)
+                        .refresh(STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+
+        verify(mUsageStatsManager, times(1)).queryUsageStats(anyInt(), anyLong(), anyLong());
+        assertThat(lastUsed.get(PACKAGE_NAME, 0)).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testReuseHistoryIsPersisted() {
+        File file = new File(RuntimeEnvironment.application.getFilesDir(), "reuse");
+        registerLastUse(PACKAGE_NAME, STARTING_TIME - 1000L);
+        LastUsedStore store = new LastUsedStore(file, mUsageStatsManager);
+        store.refresh(STARTING_TIME);
+        store.getReuseModel(STARTING_TIME);
+        mUsageStats.clear();
+
+        store = new LastUsedStore(file, mUsageStatsManager);
+        store.refresh(STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+        ReuseModel model = store.getReuseModel(STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+
+        verify(mUsageStatsManager, times(2)).queryUsageStats(anyInt(), anyLong(), anyLong());
+        assertThat(model.getReuseProbability(PACKAGE_NAME)).isGreaterThan(0f);
+    }
+
+    @Test
+    public void testUnchangedTableIsNotWritten() {
+        File file = new File(RuntimeEnvironment.application.getFilesDir(), "unchanged");
+        LastUsedStore store = new LastUsedStore(file, mUsageStatsManager);
+        store.refresh(STARTING_TIME);
+        file.delete();
+
+        store.refresh(STARTING_TIME + TimeUnit.DAYS.toMillis(1));
+
+        assertThat(file.exists()).isFalse();
+    }
+
+    @Test
+    public void testRefreshesInABurstReuseTheTable() {
+        mStore.refresh(STARTING_TIME);
+        mStore.refresh(STARTING_TIME + LastUsedStore.MIN_REFRESH_INTERVAL_MILLIS - 1);
+
+        verify(mUsageStatsManager, never()).queryEvents(anyLong(), anyLong());
+    }
+
+    private void registerLastUse(String packageName, long time) {
+        UsageStats usageStats = mock(UsageStats.class);
+        when(usageStats.getPackageName()).thenReturn(packageName);
+        when(usageStats.getLastTimeUsed()).thenReturn(time);
+        mUsageStats.add(usageStats);
+    }
+}
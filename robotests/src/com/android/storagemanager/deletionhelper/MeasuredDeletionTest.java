@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class MeasuredDeletionTest {
+    private ReclaimLog mLog;
+    private ArrayDeque<Long> mFreeBytes;
+    private MeasuredDeletion mDeletion;
+
+    @Before
+    public void setUp() {
+        mLog = new ReclaimLog(null);
+        mFreeBytes = new ArrayDeque<>();
+        DeletionOrchestrator orchestrator =
+                new DeletionOrchestrator(
+                        Runnable::run, Runnable::run, new Handler(Looper.getMainLooper()));
+        mDeletion =
+                new MeasuredDeletion(RuntimeEnvironment.application, mLog, orchestrator) {
+                    @Override
+                    protected long getFreeBytes() {
+                        return mFreeBytes.poll();
+                    }
+                };
+    }
+
+    @Test
+    public void testReclaimedBytesAreMeasuredPerCategory() {
+        mFreeBytes.addAll(Arrays.asList(100L, 150L, 150L, 400L));
+        mDeletion.add(MeasuredDeletion.CATEGORY_DOWNLOADS, clearingType(),
+                DeletionOrchestrator.PRIORITY_DEFAULT, 60L);
+        mDeletion.add(MeasuredDeletion.CATEGORY_APPS, clearingType(),
+                DeletionOrchestrator.PRIORITY_LOW, 300L);
+
+        mDeletion.run(mock(Activity.class));
+
+        List<ReclaimLog.Entry> entries = mLog.getEntries();
+        assertThat(entries).hasSize(1);
+        ReclaimLog.Entry entry = entries.get(0);
+        assertThat(entry.freeBytesBefore).isEqualTo(100L);
+        assertThat(entry.freeBytesAfter).isEqualTo(400L);
+        assertThat(entry.getEstimatedBytes()).isEqualTo(360L);
+        assertThat(entry.categories).hasSize(2);
+        assertThat(entry.categories.get(0).name).isEqualTo(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        assertThat(entry.categories.get(0).reclaimedBytes).isEqualTo(50L);
+        assertThat(entry.categories.get(1).name).isEqualTo(MeasuredDeletion.CATEGORY_APPS);
+        assertThat(entry.categories.get(1).reclaimedBytes).isEqualTo(250L);
+    }
+
+    @Test
+    public void testNextCategoryWaitsForCompletion() {
+        mFreeBytes.addAll(Arrays.asList(100L, 150L));
+        DeletionType pending = mock(DeletionType.class);
+        DeletionType next = clearingType();
+        mDeletion.add(MeasuredDeletion.CATEGORY_DOWNLOADS, pending,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 60L);
+        mDeletion.add(MeasuredDeletion.CATEGORY_APPS, next, DeletionOrchestrator.PRIORITY_LOW,
+                300L);
+
+        mDeletion.run(mock(Activity.class));
+
+        verify(next, never()).clearFreeableData(any(), any());
+        assertThat(mLog.getEntries()).isEmpty();
+    }
+
+    @Test
+    public void testCancelledJobsAreNotLogged() {
+        mFreeBytes.addAll(Arrays.asList(100L, 100L, 100L));
+        DeletionType pending = mock(DeletionType.class);
+        DeletionType next = clearingType();
+        mDeletion.add(MeasuredDeletion.CATEGORY_DOWNLOADS, pending,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 60L);
+        mDeletion.add(MeasuredDeletion.CATEGORY_APPS, next, DeletionOrchestrator.PRIORITY_LOW,
+                300L);
+        mDeletion.run(mock(Activity.class));
+
+        mDeletion.cancel();
+
+        verify(next, never()).clearFreeableData(any(), any());
+        assertThat(mDeletion.getResults()).isEmpty();
+    }
+
+    @Test
+    public void testTypesWithNothingCheckedAreSkipped() {
+        mFreeBytes.addAll(Arrays.asList(100L, 150L));
+        DeletionType nothingChecked = clearingType();
+        when(nothingChecked.createPlan())
+                .thenReturn(DeletionPlanner.createDownloadsPlan(new ArrayList<>()));
+        DeletionType nothingEstimated = clearingType();
+        mDeletion.add(MeasuredDeletion.CATEGORY_DOWNLOADS, nothingChecked,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0L);
+        mDeletion.add(MeasuredDeletion.CATEGORY_PHOTOS, nothingEstimated,
+                DeletionOrchestrator.PRIORITY_DEFAULT, 0L);
+        mDeletion.add(MeasuredDeletion.CATEGORY_APPS, clearingType(),
+                DeletionOrchestrator.PRIORITY_LOW, 300L);
+
+        mDeletion.run(mock(Activity.class));
+
+        verify(nothingChecked, never()).clearFreeableData(any(), any());
+        verify(nothingEstimated, never()).clearFreeableData(any(), any());
+        List<ReclaimLog.Entry> entries = mLog.getEntries();
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).categories).hasSize(1);
+        assertThat(entries.get(0).categories.get(0).name)
+                .isEqualTo(MeasuredDeletion.CATEGORY_APPS);
+    }
+
+    private static DeletionType clearingType() {
+        DeletionType type = mock(DeletionType.class);
+        doAnswer(
+                        invocation -> {
+                            ((DeletionType.ClearListener) invocation.getArgument(1)).onCleared();
+                            return null;
+                        })
+                .when(type)
+                .clearFreeableData(any(), any());
+        return type;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReclaimLogTest {
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "reclaim_log_test");
+        mFile.delete();
+    }
+
+    @Test
+    public void testEntriesArePersisted() {
+        ReclaimLog log = new ReclaimLog(mFile);
+        log.append(
+                new ReclaimLog.Entry(
+                        1000L,
+                        100L,
+                        350L,
+                        Collections.singletonList(
+                                new ReclaimLog.Category(
+                                        MeasuredDeletion.CATEGORY_APPS, 300L, 250L))));
+
+        List<ReclaimLog.Entry> entries = new ReclaimLog(mFile).getEntries();
+
+        assertThat(entries).hasSize(1);
+        ReclaimLog.Entry entry = entries.get(0);
+        assertThat(entry.timeMillis).isEqualTo(1000L);
+        assertThat(entry.getReclaimedBytes()).isEqualTo(250L);
+        assertThat(entry.getEstimatedBytes()).isEqualTo(300L);
+        assertThat(entry.categories.get(0).name).isEqualTo(MeasuredDeletion.CATEGORY_APPS);
+        assertThat(entry.categories.get(0).reclaimedBytes).isEqualTo(250L);
+    }
+
+    @Test
+    public void testOldestEntryIsDroppedWhenFull() {
+        ReclaimLog log = new ReclaimLog(mFile);
+        for (int i = 0; i <= ReclaimLog.MAX_ENTRIES; i++) {
+            log.append(new ReclaimLog.Entry(i, 0L, 0L, Collections.emptyList()));
+        }
+
+        List<ReclaimLog.Entry> entries = new ReclaimLog(mFile).getEntries();
+
+        assertThat(entries).hasSize(ReclaimLog.MAX_ENTRIES);
+        assertThat(entries.get(0).timeMillis).isEqualTo(1L);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.RequestedBytesSelector.Candidate;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class RequestedBytesSelectorTest {
+    @Test
+    public void testNothingRequestedSelectsNothing() {
+        List<Candidate> candidates = Arrays.asList(app("a", 100L, 10L));
+
+        assertThat(RequestedBytesSelector.select(candidates, 0L)).isEmpty();
+    }
+
+    @Test
+    public void testLargestItemCoveringTheRequestIsSelectedAlone() {
+        Candidate large = app("large", 100L, 10L);
+        List<Candidate> candidates =
+                Arrays.asList(app("small", 50L, 10L), large, app("medium", 60L, 10L));
+
+        assertThat(RequestedBytesSelector.select(candidates, 100L)).containsExactly(large);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedItemIsPreferred() {
+        Candidate recent = app("recent", 100L, 1L);
+        Candidate old = app("old", 100L, 300L);
+
+        assertThat(RequestedBytesSelector.select(Arrays.asList(recent, old), 50L))
+                .containsExactly(old);
+    }
+
+    @Test
+    public void testItemsMadeUnnecessaryLaterAreDropped() {
+        // The old item ranks first, but the larger one covers the request on its own.
+        Candidate old = app("old", 40L, RequestedBytesSelector.MAX_RANKED_DAYS);
+        Candidate large = app("large", 70L, 0L);
+
+        assertThat(RequestedBytesSelector.select(Arrays.asList(old, large), 70L))
+                .containsExactly(large);
+    }
+
+    @Test
+    public void testCategoriesAreMixed() {
+        Candidate caches =
+                new Candidate(
+                        MeasuredDeletion.CATEGORY_APP_CACHES,
+                        MeasuredDeletion.CATEGORY_APP_CACHES,
+                        30L,
+                        RequestedBytesSelector.MAX_RANKED_DAYS);
+        Candidate file = new Candidate(MeasuredDeletion.CATEGORY_DOWNLOADS, "/file", 50L, 200L);
+        Candidate app = app("app", 20L, 5L);
+
+        assertThat(RequestedBytesSelector.select(Arrays.asList(app, file, caches), 80L))
+                .containsExactly(file, caches);
+    }
+
+    @Test
+    public void testAppAndItsCacheAreNotCountedTwice() {
+        // The app is 100 bytes in all, 60 of which are its cache.
+        Candidate cache =
+                new Candidate(
+                        MeasuredDeletion.CATEGORY_APP_CACHES,
+                        AppsAsyncLoader.PackageInfo.getKey("app", 0),
+                        60L,
+                        RequestedBytesSelector.MAX_RANKED_DAYS);
+        Candidate app = app("app", RequestedBytesSelector.getBytesWithoutCache(100L, 60L), 5L);
+        Candidate other = app("other", 30L, 5L);
+
+        // Counting the cache in both would cover the request without the other app.
+        assertThat(RequestedBytesSelector.select(Arrays.asList(cache, app, other), 120L))
+                .containsExactly(cache, app, other);
+        assertThat(RequestedBytesSelector.getBytesWithoutCache(-1L, 60L)).isEqualTo(-1L);
+    }
+
+    @Test
+    public void testEverythingKnownIsSelectedWhenTheRequestCannotBeCovered() {
+        Candidate first = app("first", 10L, 10L);
+        Candidate second = app("second", 20L, 10L);
+        List<Candidate> candidates =
+                Arrays.asList(first, app("unknown", -1L, 10L), second, app("empty", 0L, 10L));
+
+        assertThat(RequestedBytesSelector.select(candidates, 1000L))
+                .containsExactly(second, first)
+                .inOrder();
+    }
+
+    @Test
+    public void testSelectionOfManyCandidatesIsMinimal() {
+        Random random = new Random(42);
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        long totalBytes = 0;
+        for (int i = 0; i < 5000; i++) {
+            long bytes = 1 + random.nextInt(1000000);
+            candidates.add(app("app" + i, bytes, random.nextInt(1000) - 1));
+            totalBytes += bytes;
+        }
+        long requestedBytes = totalBytes / 3;
+
+        List<Candidate> selection = RequestedBytesSelector.select(candidates, requestedBytes);
+
+        long selectedBytes = 0;
+        for (Candidate candidate : selection) {
+            selectedBytes += candidate.bytes;
+        }
+        assertThat(selectedBytes).isAtLeast(requestedBytes);
+        // No single item could be left out.
+        for (Candidate candidate : selection) {
+            assertThat(selectedBytes - candidate.bytes).isLessThan(requestedBytes);
+        }
+    }
+
+    private static Candidate app(String packageName, long bytes, long daysUnused) {
+        return new Candidate(
+                MeasuredDeletion.CATEGORY_APPS,
+                AppsAsyncLoader.PackageInfo.getKey(packageName, 0),
+                bytes,
+                daysUnused);
+    }
+}
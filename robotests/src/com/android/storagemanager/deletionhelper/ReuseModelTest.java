@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.usage.UsageStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReuseModelTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(1000);
+    private static final int MONTHS = 12;
+
+    private ArrayList<UsageStats> mBuckets;
+
+    @Before
+    public void setUp() {
+        mBuckets = new ArrayList<>();
+    }
+
+    @Test
+    public void testNoBucketsIsEmpty() {
+        assertThat(ReuseModel.compute(null, NOW)).isSameAs(ReuseModel.EMPTY);
+        assertThat(ReuseModel.compute(mBuckets, NOW)).isSameAs(ReuseModel.EMPTY);
+        assertThat(ReuseModel.EMPTY.getReuseProbability("package")).isEqualTo(0f);
+    }
+
+    @Test
+    public void testUnknownPackageIsNotReused() {
+        addBucket("used", 1, daysAgo(2), 0);
+
+        ReuseModel model = ReuseModel.compute(mBuckets, NOW);
+
+        assertThat(model.size()).isEqualTo(1);
+        assertThat(model.getReuseProbability("unknown")).isEqualTo(0f);
+    }
+
+    @Test
+    public void testMonthlyAppOutranksAppUsedOnceLongAgo() {
+        for (int month = MONTHS; month > 0; month--) {
+            addBucket("monthly", month, daysAgo(month * 30 - 25), 1);
+        }
+        addBucket("once", MONTHS, daysAgo(MONTHS * 30 - 20), 1);
+
+        ReuseModel model = ReuseModel.compute(mBuckets, NOW);
+
+        assertThat(model.getReuseProbability("monthly")).isWithin(0.01f).of(1f);
+        assertThat(model.getReuseProbability("once")).isLessThan(0.1f);
+    }
+
+    @Test
+    public void testLaunchesCountAsUses() {
+        addBucket("launched", MONTHS, daysAgo(1), 100);
+        addBucket("opened", MONTHS, daysAgo(1), 1);
+
+        ReuseModel model = ReuseModel.compute(mBuckets, NOW);
+
+        assertThat(model.getReuseProbability("launched"))
+                .isGreaterThan(model.getReuseProbability("opened"));
+    }
+
+    @Test
+    public void testOverdueAppDecays() {
+        // Used every month for half a year, then not for half a year.
+        for (int month = MONTHS; month > MONTHS / 2; month--) {
+            addBucket("abandoned", month, daysAgo(month * 30 - 25), 1);
+        }
+        addBucket("other", 1, daysAgo(1), 1);
+
+        ReuseModel model = ReuseModel.compute(mBuckets, NOW);
+
+        assertThat(model.getReuseProbability("abandoned")).isLessThan(0.1f);
+    }
+
+    @Test
+    public void testUnusedBucketsAreIgnored() {
+        addBucket("unused", MONTHS, 0, 0);
+
+        assertThat(ReuseModel.compute(mBuckets, NOW).getReuseProbability("unused")).isEqualTo(0f);
+    }
+
+    @Test
+    public void testRecordedUsesUpdateTheHistory() {
+        for (int month = MONTHS; month > MONTHS / 2; month--) {
+            addBucket("abandoned", month, daysAgo(month * 30 - 25), 1);
+        }
+        ReuseModel.History history = ReuseModel.History.fromBuckets(mBuckets, NOW);
+
+        assertThat(history.recordUse("abandoned", daysAgo(MONTHS * 30))).isFalse();
+        assertThat(history.recordUse("abandoned", daysAgo(1))).isTrue();
+        assertThat(history.recordUse("new", daysAgo(1))).isTrue();
+
+        ReuseModel model = history.build(NOW);
+        assertThat(model.getReuseProbability("abandoned")).isGreaterThan(0.5f);
+        assertThat(model.getReuseProbability("new")).isGreaterThan(0f);
+    }
+
+    @Test
+    public void testHistoryIsReadAsWritten() throws IOException {
+        addBucket("monthly", 2, daysAgo(40), 1);
+        addBucket("monthly", 1, daysAgo(10), 3);
+        addBucket("once", MONTHS, daysAgo(MONTHS * 30 - 20), 1);
+        ReuseModel.History history = ReuseModel.History.fromBuckets(mBuckets, NOW);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        history.writeTo(new DataOutputStream(bytes));
+
+        ReuseModel.History read =
+                ReuseModel.History.readFrom(
+                        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertThat(read.getFirstTimeStamp()).isEqualTo(history.getFirstTimeStamp());
+        ReuseModel expected = history.build(NOW);
+        ReuseModel actual = read.build(NOW);
+        assertThat(actual.size()).isEqualTo(2);
+        assertThat(actual.getReuseProbability("monthly"))
+                .isEqualTo(expected.getReuseProbability("monthly"));
+        assertThat(actual.getReuseProbability("once"))
+                .isEqualTo(expected.getReuseProbability("once"));
+    }
+
+    @Test
+    public void testDefaultScorerDiscountsLikelyReuse() {
+        final long size = 1000000;
+
+        long unlikely = AppScorer.DEFAULT.score(size, 10, 10, 0f);
+        long likely = AppScorer.DEFAULT.score(size, 10, 10, 1f);
+
+        assertThat(unlikely).isEqualTo(AppScorer.DEFAULT.score(size, 10, 10));
+        assertThat(likely).isEqualTo(unlikely / 2);
+    }
+
+    private static long daysAgo(long days) {
+        return NOW - TimeUnit.DAYS.toMillis(days);
+    }
+
+    /** Adds the bucket of the package which started the given number of months ago. */
+    private void addBucket(String packageName, int monthsAgo, long lastTimeUsed, int launches) {
+        UsageStats usageStats = mock(UsageStats.class);
+        when(usageStats.getPackageName()).thenReturn(packageName);
+        when(usageStats.getFirstTimeStamp()).thenReturn(daysAgo(monthsAgo * 30));
+        when(usageStats.getLastTimeUsed()).thenReturn(lastTimeUsed);
+        when(usageStats.getAppLaunchCount()).thenReturn(launches);
+        mBuckets.add(usageStats);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.storagemanager.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static com.google.common.truth.Truth.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageLongMapTest {
+    private static final String PACKAGE_NAME = "package.mcpackageface";
+
+    @Test
+    public void testMissingPackageReturnsDefault() {
+        PackageLongMap map = new PackageLongMap();
+
+        assertThat(map.get(PACKAGE_NAME, -1)).isEqualTo(-1);
+        assertThat(map.containsKey(PACKAGE_NAME)).isFalse();
+    }
+
+    @Test
+    public void testPutReplacesValue() {
+        PackageLongMap map = new PackageLongMap();
+        map.put(PACKAGE_NAME, 1);
+        map.put(PACKAGE_NAME, 2);
+
+        assertThat(map.get(PACKAGE_NAME, -1)).isEqualTo(2);
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        PackageLongMap map = new PackageLongMap(1);
+        for (int i = 0; i < 1000; i++) {
+            map.put(PACKAGE_NAME + i, i);
+        }
+
+        assertThat(map.size()).isEqualTo(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(map.get(PACKAGE_NAME + i, -1)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testRemoveKeepsOtherPackagesReachable() {
+        PackageLongMap map = new PackageLongMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(PACKAGE_NAME + i, i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            map.remove(PACKAGE_NAME + i);
+        }
+
+        assertThat(map.size()).isEqualTo(50);
+        for (int i = 0; i < 100; i++) {
+            assertThat(map.get(PACKAGE_NAME + i, -1)).isEqualTo(i % 2 == 0 ? -1 : i);
+        }
+    }
+}
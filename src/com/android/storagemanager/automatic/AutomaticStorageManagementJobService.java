@@ -16,23 +16,41 @@
 
 package com.android.storagemanager.automatic;
 
+import android.Manifest;
 import android.app.job.JobParameters;
 import android.app.job.JobService;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.storage.StorageManager;
 import android.provider.Settings;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.DumpUtils;
 import com.android.settingslib.Utils;
 import com.android.settingslib.deviceinfo.PrivateStorageInfo;
 import com.android.settingslib.deviceinfo.StorageManagerVolumeProvider;
 import com.android.settingslib.deviceinfo.StorageVolumeProvider;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader;
+import com.android.storagemanager.deletionhelper.CandidateSnapshot;
+import com.android.storagemanager.deletionhelper.DeletionPlanner;
+import com.android.storagemanager.deletionhelper.ReclaimLog;
 import com.android.storagemanager.overlay.FeatureFactory;
 import com.android.storagemanager.overlay.StorageManagementJobProvider;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 /**
  * {@link JobService} class to start automatic storage clearing jobs to free up space. The job only
  * starts if the device is under a certain percent of free storage.
@@ -41,10 +59,16 @@ public class AutomaticStorageManagementJobService extends JobService {
     private static final String TAG = "AsmJobService";
 
     private static final long DEFAULT_LOW_FREE_PERCENT = 15;
+    private static final String DUMP_PLAN_ARG = "plan";
+    // Dumpsys gives up on a service after ten seconds.
+    private static final long DUMP_PLAN_TIMEOUT_MILLIS = 5 * DateUtils.SECOND_IN_MILLIS;
 
     private StorageManagementJobProvider mProvider;
     private StorageVolumeProvider mVolumeProvider;
     private Clock mClock;
+    private Executor mSnapshotExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    // The job waiting for the candidate snapshot to be written, if any.
+    private JobParameters mSnapshotJob;
 
     @Override
     public boolean onStartJob(JobParameters args) {
@@ -78,20 +102,26 @@ public class AutomaticStorageManagementJobService extends JobService {
             maybeShowNotificationIntent.setClass(getApplicationContext(),
                     NotificationController.class);
             getApplicationContext().sendBroadcast(maybeShowNotificationIntent);
-            jobFinished(args, false);
-            return false;
+            return refreshCandidateSnapshot(args);
         }
 
         if (mProvider != null) {
             return mProvider.onStartJob(this, args, getDaysToRetain());
         }
 
-        jobFinished(args, false);
-        return false;
+        return refreshCandidateSnapshot(args);
     }
 
     @Override
     public boolean onStopJob(JobParameters args) {
+        synchronized (this) {
+            if (mSnapshotJob == args) {
+                // The snapshot is only a head start for the deletion helper; the next idle
+                // window writes it if this one could not.
+                mSnapshotJob = null;
+                return false;
+            }
+        }
         if (mProvider != null) {
             return mProvider.onStopJob(this, args);
         }
@@ -99,6 +129,98 @@ public class AutomaticStorageManagementJobService extends JobService {
         return false;
     }
 
+    /**
+     * Prints the log of past deletion runs. With the "plan" argument, scans every category and
+     * prints what a deletion would remove instead, without deleting anything.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (!DumpUtils.checkDumpPermission(this, TAG, pw)) {
+            return;
+        }
+        if (args != null && args.length > 0 && DUMP_PLAN_ARG.equals(args[0])) {
+            dumpPlan(pw);
+            return;
+        }
+        ReclaimLog.getInstance(this).dump(pw);
+    }
+
+    /**
+     * Prints the deletion plan. The dump is called on the main thread, so the scan runs on the
+     * snapshot executor and is only waited on for a bounded time.
+     */
+    private void dumpPlan(PrintWriter pw) {
+        final Context context = getApplicationContext();
+        final StringWriter plan = new StringWriter();
+        FutureTask<Void> task =
+                new FutureTask<>(
+                        () -> {
+                            PrintWriter planWriter = new PrintWriter(plan);
+                            new DeletionPlanner(context)
+                                    .dump(planWriter, AppsAsyncLoader.NORMAL_THRESHOLD);
+                            planWriter.flush();
+                        },
+                        null);
+        mSnapshotExecutor.execute(task);
+        try {
+            task.get(DUMP_PLAN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            pw.print(plan);
+        } catch (TimeoutException e) {
+            pw.println("Timed out computing the deletion plan.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pw.println("Interrupted computing the deletion plan.");
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to compute the deletion plan", e.getCause());
+            pw.println("Failed to compute the deletion plan: " + e.getCause());
+        }
+    }
+
+    /**
+     * Saves what the deletion helper would offer while the device is idle and charging, so that
+     * the helper can show it at once when it is opened. This only runs when storage is low and
+     * nothing is going to delete automatically, which is when the helper is likely to be opened
+     * next. The job keeps running until the snapshot is written, and the snapshot is only
+     * computed again once it has aged.
+     *
+     * @return Whether the job is still running, as {@link #onStartJob(JobParameters)} returns.
+     */
+    private boolean refreshCandidateSnapshot(JobParameters args) {
+        final Context context = getApplicationContext();
+        final long now = getClock().currentTimeMillis();
+        final boolean readDownloads =
+                context.checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
+                        == PackageManager.PERMISSION_GRANTED;
+        synchronized (this) {
+            mSnapshotJob = args;
+        }
+        mSnapshotExecutor.execute(
+                () -> {
+                    try {
+                        writeCandidateSnapshot(context, now, readDownloads);
+                    } finally {
+                        onCandidateSnapshotWritten(args);
+                    }
+                });
+        return true;
+    }
+
+    @VisibleForTesting
+    void writeCandidateSnapshot(Context context, long now, boolean readDownloads) {
+        CandidateSnapshot.refresh(context, now, readDownloads);
+    }
+
+    private void onCandidateSnapshotWritten(JobParameters args) {
+        synchronized (this) {
+            if (mSnapshotJob != args) {
+                // The job was stopped in the meantime.
+                return;
+            }
+            mSnapshotJob = null;
+        }
+        jobFinished(args, false);
+    }
+
     void setStorageVolumeProvider(StorageVolumeProvider storageProvider) {
         mVolumeProvider = storageProvider;
     }
@@ -174,6 +296,11 @@ public class AutomaticStorageManagementJobService extends JobService {
         mClock = clock;
     }
 
+    @VisibleForTesting
+    void setSnapshotExecutor(Executor executor) {
+        mSnapshotExecutor = executor;
+    }
+
     /** Clock provides the current time. */
     protected static class Clock {
         /** Returns the current time in milliseconds. */
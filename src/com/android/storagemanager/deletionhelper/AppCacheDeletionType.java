@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import androidx.annotation.Nullable;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The AppCacheDeletionType lists the apps which have cached data, largest cache first, and clears
+ * the caches of the checked ones. Unlike uninstalling an app, clearing its cache loses nothing the
+ * app cannot rebuild, but the app is slower until it does, so no cache is checked by default.
+ *
+ * <p>The apps come from the {@link AppDeletionType}, which already measured their caches, rather
+ * than from a scan of their own. An app's size includes its cache, so the cache of an app which is
+ * checked for uninstall is neither cleared nor counted here.
+ */
+public class AppCacheDeletionType implements DeletionType, AppDeletionType.AppListener {
+    public static final String EXTRA_CHECKED_CACHES = "checkedCaches";
+
+    /** Orders apps by their cache size, largest first. */
+    public static final Comparator<PackageInfo> CACHE_SIZE_COMPARATOR =
+            new Comparator<PackageInfo>() {
+                @Override
+                public int compare(PackageInfo object1, PackageInfo object2) {
+                    int compareResult = Long.compare(object2.cacheBytes, object1.cacheBytes);
+                    if (compareResult != 0) {
+                        return compareResult;
+                    }
+                    compareResult = object1.packageName.compareTo(object2.packageName);
+                    if (compareResult != 0) {
+                        return compareResult;
+                    }
+                    return object1.userId - object2.userId;
+                }
+            };
+
+    private FreeableChangedListener mListener;
+    @Nullable private AppDeletionType mUninstalledApps;
+    private List<PackageInfo> mApps;
+    private final HashSet<String> mCheckedApps = new HashSet<>();
+    private long mTotalBytes;
+    private int mLoadingStatus;
+
+    /**
+     * @param checkedApps The {@link PackageInfo#getKey() keys} of the apps whose caches were
+     *     checked before the state was saved, or null.
+     */
+    public AppCacheDeletionType(@Nullable String[] checkedApps) {
+        mLoadingStatus = LoadingStatus.LOADING;
+        if (checkedApps != null) {
+            Collections.addAll(mCheckedApps, checkedApps);
+        }
+    }
+
+    /** Sets the apps which may be uninstalled, whose checked caches are left out. */
+    public void setUninstalledApps(@Nullable AppDeletionType uninstalledApps) {
+        mUninstalledApps = uninstalledApps;
+    }
+
+    @Override
+    public void registerFreeableChangedListener(FreeableChangedListener listener) {
+        mListener = listener;
+        if (mApps != null) {
+            maybeUpdateListener();
+        }
+    }
+
+    @Override
+    public void onResume() {}
+
+    @Override
+    public void onPause() {}
+
+    @Override
+    public void onSaveInstanceStateBundle(Bundle savedInstanceState) {
+        savedInstanceState.putStringArray(
+                EXTRA_CHECKED_CACHES, mCheckedApps.toArray(new String[mCheckedApps.size()]));
+    }
+
+    /** Clears the caches of the checked apps. */
+    @Override
+    public void clearFreeableData(Activity activity) {
+        clearFreeableData(activity, null);
+    }
+
+    @Override
+    public void clearFreeableData(Context context, @Nullable ClearListener listener) {
+        new DeletionPlanner(context).execute(createPlan(), listener);
+    }
+
+    @Override
+    public boolean requiresActivity() {
+        return false;
+    }
+
+    /**
+     * Returns a plan which clears the caches of the checked apps, apart from the apps which are
+     * uninstalled anyway.
+     */
+    @Override
+    public DeletionPlan createPlan() {
+        ArrayList<PackageInfo> apps = new ArrayList<>();
+        final List<PackageInfo> allApps = getApps();
+        for (int i = 0, size = allApps.size(); i < size; i++) {
+            PackageInfo app = allApps.get(i);
+            if (isChecked(app.getKey()) && !isUninstalled(app.getKey(), false)) {
+                apps.add(app);
+            }
+        }
+        return DeletionPlanner.createAppCachesPlan(apps);
+    }
+
+    @Override
+    public int getContentCount() {
+        return mApps != null ? mApps.size() : 0;
+    }
+
+    @Override
+    public int getLoadingStatus() {
+        return mLoadingStatus;
+    }
+
+    @Override
+    public void setLoadingStatus(@LoadingStatus int loadingStatus) {
+        mLoadingStatus = loadingStatus;
+    }
+
+    /**
+     * Lists the apps with cached data out of every app the {@link AppDeletionType} loaded.
+     *
+     * @param apps Every loaded app, before the threshold is applied.
+     */
+    @Override
+    public void onAppRebuild(List<PackageInfo> apps) {
+        mApps = getAppsWithCache(apps);
+        mTotalBytes = 0;
+        for (int i = 0, size = mApps.size(); i < size; i++) {
+            mTotalBytes += mApps.get(i).cacheBytes;
+        }
+        updateLoadingStatus();
+        maybeUpdateListener();
+    }
+
+    /** Returns the apps with cached data, ordered from the largest cache to the smallest. */
+    public List<PackageInfo> getApps() {
+        if (mApps == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(mApps);
+    }
+
+    /**
+     * Sets whether the cache of an app should be cleared.
+     *
+     * @param key The {@link PackageInfo#getKey() key} of the app.
+     */
+    public void setChecked(String key, boolean checked) {
+        if (checked) {
+            mCheckedApps.add(key);
+        } else {
+            mCheckedApps.remove(key);
+        }
+    }
+
+    /**
+     * Returns whether the cache of an app is slated to be cleared.
+     *
+     * @param key The {@link PackageInfo#getKey() key} of the app.
+     */
+    public boolean isChecked(String key) {
+        return mCheckedApps.contains(key);
+    }
+
+    /**
+     * Returns the size of the caches which would be cleared, leaving out the caches of the apps
+     * which the {@link #setUninstalledApps(AppDeletionType) uninstalled apps} already count.
+     *
+     * @param countUnchecked If unchecked caches, and unchecked apps to uninstall, should be
+     *     counted.
+     */
+    public long getFreeableBytes(boolean countUnchecked) {
+        if (countUnchecked && mUninstalledApps == null) {
+            return mTotalBytes;
+        }
+        long freeableBytes = 0;
+        final List<PackageInfo> apps = getApps();
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            PackageInfo app = apps.get(i);
+            final String key = app.getKey();
+            if ((countUnchecked || isChecked(key)) && !isUninstalled(key, countUnchecked)) {
+                freeableBytes += app.cacheBytes;
+            }
+        }
+        return freeableBytes;
+    }
+
+    private boolean isUninstalled(String key, boolean countUnchecked) {
+        return mUninstalledApps != null && mUninstalledApps.isCounted(key, countUnchecked);
+    }
+
+    /** Returns the apps which have cached data, ordered from the largest cache to the smallest. */
+    public static ArrayList<PackageInfo> getAppsWithCache(List<PackageInfo> apps) {
+        ArrayList<PackageInfo> appsWithCache = new ArrayList<>();
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            PackageInfo app = apps.get(i);
+            if (app.cacheBytes > 0) {
+                appsWithCache.add(app);
+            }
+        }
+        appsWithCache.sort(CACHE_SIZE_COMPARATOR);
+        return appsWithCache;
+    }
+
+    private void maybeUpdateListener() {
+        if (mListener != null) {
+            mListener.onFreeableChanged(mApps.size(), mTotalBytes);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+
+/**
+ * Preference item for an app with a switch to signify if its cached data should be cleared. This
+ * shows the name and icon of the app along with the size of its cache.
+ */
+public class AppCachePreference extends NestedDeletionPreference {
+    private PackageInfo mApp;
+
+    public AppCachePreference(Context context, PackageInfo app) {
+        super(context);
+        mApp = app;
+        setKey(app.getKey());
+        setIcon(app.icon);
+        setTitle(app.label);
+        setItemSize(app.cacheBytes);
+        setPersistent(false);
+    }
+
+    /** Returns the package name for the app that this preference represents. */
+    public String getPackageName() {
+        return mApp.packageName;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.text.format.Formatter;
+import android.util.AttributeSet;
+import androidx.preference.Preference;
+import com.android.storagemanager.R;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.utils.PreferenceListCache;
+
+import java.util.List;
+
+/**
+ * AppCachesDeletionPreferenceGroup is a collapsible checkbox preference group which lists the
+ * apps with cached data in the Deletion Helper, largest cache first. Clearing a cache slows the
+ * app down until it is rebuilt, so nothing is checked by default.
+ */
+public class AppCachesDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGroup
+        implements DeletionType.FreeableChangedListener, Preference.OnPreferenceChangeListener {
+    private static final int ORDER_OFFSET = 100;
+    private AppCacheDeletionType mDeletionType;
+    private DeletionType.FreeableChangedListener mListener;
+
+    public AppCachesDeletionPreferenceGroup(Context context) {
+        this(context, null);
+    }
+
+    public AppCachesDeletionPreferenceGroup(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        setChecked(false);
+        setTitle(R.string.deletion_helper_app_caches_title);
+        setSummary(R.string.deletion_helper_photos_loading_summary);
+        setOnPreferenceChangeListener(this);
+    }
+
+    /**
+     * Set up a deletion type to get info for the preference group.
+     * @param type A {@link AppCacheDeletionType}.
+     */
+    public void registerDeletionService(AppCacheDeletionType type) {
+        mDeletionType = type;
+        mDeletionType.registerFreeableChangedListener(this);
+    }
+
+    /**
+     * Registers a callback to be called when the amount of freeable space updates.
+     * @param listener The callback listener.
+     */
+    public void registerFreeableChangedListener(DeletionType.FreeableChangedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void onFreeableChanged(int numItems, long freeableBytes) {
+        Context context = getContext();
+        setSummary(
+                context.getString(
+                        R.string.deletion_helper_app_caches_summary,
+                        Formatter.formatFileSize(context, freeableBytes)));
+        switchSpinnerToCheckboxOrDisablePreference(freeableBytes, mDeletionType.getLoadingStatus());
+        updateApps();
+        maybeUpdateListener();
+    }
+
+    @Override
+    public boolean onPreferenceChange(Preference preference, Object newValue) {
+        boolean checked = (boolean) newValue;
+
+        // If we have no deletion type, we have no caches to toggle.
+        if (mDeletionType == null) {
+            return true;
+        }
+
+        // If the group checkbox changed, we need to toggle every child preference.
+        if (preference == this) {
+            for (int i = 0; i < getPreferenceCount(); i++) {
+                AppCachePreference p = (AppCachePreference) getPreference(i);
+                p.setOnPreferenceChangeListener(null);
+                mDeletionType.setChecked(p.getKey(), checked);
+                p.setChecked(checked);
+                p.setOnPreferenceChangeListener(this);
+            }
+            maybeUpdateListener();
+            return true;
+        }
+
+        // If a single app changed, we need to toggle just itself.
+        mDeletionType.setChecked(preference.getKey(), checked);
+        if (!checked) {
+            // Temporarily stop listening to avoid propagating the checked change to children.
+            setOnPreferenceChangeListener(null);
+            setChecked(false);
+            setOnPreferenceChangeListener(this);
+        }
+        maybeUpdateListener();
+        return true;
+    }
+
+    /**
+     * Updates the app checkboxes after the checked caches of the deletion type were changed
+     * without going through this group, and reports the new freeable size.
+     */
+    public void refreshCheckedApps() {
+        if (mDeletionType == null) {
+            return;
+        }
+
+        boolean allChecked = getPreferenceCount() > 0;
+        for (int i = 0; i < getPreferenceCount(); i++) {
+            AppCachePreference p = (AppCachePreference) getPreference(i);
+            boolean checked = mDeletionType.isChecked(p.getKey());
+            p.setOnPreferenceChangeListener(null);
+            p.setChecked(checked);
+            p.setOnPreferenceChangeListener(this);
+            allChecked &= checked;
+        }
+        setOnPreferenceChangeListener(null);
+        setChecked(allChecked);
+        setOnPreferenceChangeListener(this);
+        maybeUpdateListener();
+    }
+
+    /** Returns the size of the caches which would be cleared. */
+    public long getFreeableBytes(boolean countUnchecked) {
+        return mDeletionType != null ? mDeletionType.getFreeableBytes(countUnchecked) : 0;
+    }
+
+    private void updateApps() {
+        PreferenceListCache cache = new PreferenceListCache(this);
+        List<PackageInfo> apps = mDeletionType.getApps();
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            PackageInfo app = apps.get(i);
+            final String key = app.getKey();
+            AppCachePreference preference = (AppCachePreference) cache.getCachedPreference(key);
+            if (preference == null) {
+                preference = new AppCachePreference(getContext(), app);
+                preference.setOnPreferenceChangeListener(this);
+            }
+            preference.setChecked(mDeletionType.isChecked(key));
+            preference.setOrder(i + ORDER_OFFSET);
+            addPreference(preference);
+        }
+        cache.removeCachedPrefs();
+    }
+
+    private void maybeUpdateListener() {
+        if (mListener != null && mDeletionType != null) {
+            mListener.onFreeableChanged(
+                    mDeletionType.getContentCount(),
+                    mDeletionType.getFreeableBytes(DeletionHelperSettings.COUNT_CHECKED_ONLY));
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package com.android.storagemanager.deletionhelper;
 
 import android.content.Context;
+import android.os.storage.StorageManager;
+import android.os.storage.VolumeInfo;
 import androidx.annotation.VisibleForTesting;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
@@ -27,6 +29,7 @@ import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.storagemanager.R;
 import com.android.storagemanager.utils.PreferenceListCache;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AppDeletionPreferenceGroup is a collapsible checkbox preference group which contains many
@@ -52,25 +55,19 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
     @Override
     public void onAppRebuild(List<AppsAsyncLoader.PackageInfo> apps) {
         int appCount = apps.size();
-        int currentUserId = getContext().getUserId();
         PreferenceListCache cache = new PreferenceListCache(this);
         for (int i = 0; i < appCount; i++) {
             AppsAsyncLoader.PackageInfo app = apps.get(i);
-
-            if (app.userId != currentUserId) {
-                continue;
-            }
-
-            final String packageName = app.packageName;
+            final String key = app.getKey();
             AppDeletionPreference preference =
-                    (AppDeletionPreference) cache.getCachedPreference(packageName);
+                    (AppDeletionPreference) cache.getCachedPreference(key);
             if (preference == null) {
                 preference = new AppDeletionPreference(getContext(), app);
-                preference.setKey(packageName);
+                preference.setKey(key);
                 preference.setOnPreferenceChangeListener(this);
             }
             addThresholdDependentPreference(preference, isNoThreshold());
-            preference.setChecked(mBackend.isChecked(packageName));
+            preference.setChecked(mBackend.isChecked(key));
             preference.setOrder(i + ORDER_OFFSET);
             preference.updateSummary();
         }
@@ -113,7 +110,7 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
                 AppDeletionPreference p = (AppDeletionPreference) getPreference(i);
                 p.setOnPreferenceChangeListener(null);
                 p.setChecked(isChecked);
-                mBackend.setChecked(p.getPackageName(), isChecked);
+                mBackend.setChecked(p.getKey(), isChecked);
                 p.setOnPreferenceChangeListener(this);
             }
             updateText();
@@ -124,7 +121,7 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
 
         // If a single preference changed, we need to toggle just itself.
         AppDeletionPreference p = (AppDeletionPreference) preference;
-        mBackend.setChecked(p.getPackageName(), isChecked);
+        mBackend.setChecked(p.getKey(), isChecked);
         logAppToggle(isChecked, p.getPackageName());
         updateText();
         return true;
@@ -148,7 +145,7 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
 
     private void updateText() {
         long freeableBytes = 0;
-        long deletionThreshold = AppsAsyncLoader.UNUSED_DAYS_DELETION_THRESHOLD;
+        long deletionThreshold = AppsAsyncLoader.FILTER_USAGE_STATS.getUnusedDaysThreshold();
         if (mBackend != null) {
             freeableBytes =
                     mBackend.getTotalAppsFreeableSpace(DeletionHelperSettings.COUNT_UNCHECKED);
@@ -157,6 +154,16 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
         }
         Context app = getContext();
         setTitle(app.getString(R.string.deletion_helper_apps_group_title));
+        if (mBackend != null) {
+            Map<String, Long> bytesByVolume =
+                    mBackend.getTotalAppsFreeableSpaceByVolume(
+                            DeletionHelperSettings.COUNT_UNCHECKED);
+            // Apps on adopted storage are broken out so each volume can be managed separately.
+            if (bytesByVolume.size() > 1) {
+                setSummary(getVolumeSummary(bytesByVolume));
+                return;
+            }
+        }
         setSummary(
                 app.getString(
                         R.string.deletion_helper_apps_group_summary,
@@ -164,6 +171,34 @@ public class AppDeletionPreferenceGroup extends CollapsibleCheckboxPreferenceGro
                         deletionThreshold));
     }
 
+    private CharSequence getVolumeSummary(Map<String, Long> bytesByVolume) {
+        Context context = getContext();
+        StorageManager storageManager = context.getSystemService(StorageManager.class);
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<String, Long> entry : bytesByVolume.entrySet()) {
+            final String volumeUuid = entry.getKey();
+            VolumeInfo volume =
+                    volumeUuid == null
+                            ? storageManager.findVolumeById(VolumeInfo.ID_PRIVATE_INTERNAL)
+                            : storageManager.findVolumeByUuid(volumeUuid);
+            String description =
+                    volume != null ? storageManager.getBestVolumeDescription(volume) : null;
+            if (description == null) {
+                description = context.getString(R.string.deletion_helper_unknown_volume);
+            }
+
+            if (summary.length() > 0) {
+                summary.append('\n');
+            }
+            summary.append(
+                    context.getString(
+                            R.string.deletion_helper_apps_group_volume_summary,
+                            Formatter.formatFileSize(context, entry.getValue()),
+                            description));
+        }
+        return summary;
+    }
+
     private void logAppToggle(boolean checked, String packageName) {
         if (checked) {
             MetricsLogger.action(
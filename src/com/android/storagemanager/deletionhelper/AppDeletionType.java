@@ -18,21 +18,33 @@ package com.android.storagemanager.deletionhelper;
 
 import android.app.Activity;
 import android.app.LoaderManager;
-import android.app.usage.UsageStatsManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
+import android.content.pm.ChangedPackages;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
-import android.os.storage.VolumeInfo;
-import android.util.ArraySet;
-import android.util.Log;
-import com.android.internal.logging.MetricsLogger;
-import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.storagemanager.deletionhelper.AppsAsyncLoader.AppFilter;
 import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.overlay.FeatureFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * AppDeletionType provides a list of apps which have not been used for a while on the system. It
@@ -43,21 +55,73 @@ public class AppDeletionType
     public static final String EXTRA_CHECKED_SET = "checkedSet";
     private static final String TAG = "AppDeletionType";
     private static final int LOADER_ID = 25;
-    public static final String THRESHOLD_TYPE_KEY = "threshold_type";
-    public static final int BUNDLE_CAPACITY = 1;
+    private static final int UNKNOWN_SEQUENCE = -1;
 
     private FreeableChangedListener mListener;
     private AppListener mAppListener;
+    private AppListener mLoadedAppsListener;
     private HashSet<String> mCheckedApplications;
     private Context mContext;
     private int mThresholdType;
-    private List<PackageInfo> mApps;
+    private List<PackageInfo> mLoadedApps;
+    private ArrayList<PackageInfo> mApps;
     private int mLoadingStatus;
+    private AppsAsyncLoader mLoader;
+    private Handler mHandler;
+    private boolean mReceiverRegistered;
+    private int mChangedPackagesSequence = UNKNOWN_SEQUENCE;
+    private PackageDeletionTask.Callback mDeletionCallback;
+    private final HashMap<String, PackageInfo> mAppsByKey = new HashMap<>();
+    // The latest change to each package, so that a reload which finishes after a later change to
+    // the same package is dropped instead of undoing it.
+    private final HashMap<String, Integer> mPackageGenerations = new HashMap<>();
+    private long mTotalBytes;
+    private long mCheckedBytes;
+    private DeletionHelperResults mResults;
+    private boolean mShowingSnapshot;
+
+    private final BroadcastReceiver mPackageReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    Uri data = intent.getData();
+                    if (data == null) {
+                        return;
+                    }
+
+                    final String packageName = data.getSchemeSpecificPart();
+                    final int userId = getSendingUserId();
+                    final boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+                    if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+                        // A replaced package is reloaded when its ACTION_PACKAGE_ADDED arrives.
+                        if (!replacing) {
+                            removePackage(packageName, userId);
+                        }
+                        return;
+                    }
+                    reloadPackage(packageName, userId);
+                }
+            };
 
     public AppDeletionType(
             DeletionHelperSettings fragment,
             HashSet<String> checkedApplications,
             int thresholdType) {
+        this(fragment, checkedApplications, thresholdType, null);
+    }
+
+    /**
+     * Creates the deletion type, showing the apps retained in the results if there are any, and
+     * loading them otherwise. Every eligible app is loaded whatever the threshold, so that the
+     * threshold can be changed with {@link #setThresholdType(int)} without loading again.
+     *
+     * @param results The results retained by the activity, or null if nothing is retained.
+     */
+    public AppDeletionType(
+            DeletionHelperSettings fragment,
+            HashSet<String> checkedApplications,
+            int thresholdType,
+            @Nullable DeletionHelperResults results) {
         mLoadingStatus = LoadingStatus.LOADING;
         mThresholdType = thresholdType;
         mContext = fragment.getContext();
@@ -66,11 +130,45 @@ public class AppDeletionType
         } else {
             mCheckedApplications = new HashSet<>();
         }
-        Bundle bundle = new Bundle(BUNDLE_CAPACITY);
-        bundle.putInt(THRESHOLD_TYPE_KEY, mThresholdType);
-        // NOTE: This is not responsive to package changes. Bug filed for seeing if feature is
-        // necessary b/35065979
-        fragment.getLoaderManager().initLoader(LOADER_ID, bundle, this);
+        mHandler = new Handler(Looper.getMainLooper());
+        mResults = results;
+        final List<PackageInfo> retainedApps = results != null ? results.getApps() : null;
+        if (retainedApps != null) {
+            // The views are notified once they have registered, as they would be after a load.
+            // Package changes from here on are patched into the list as usual.
+            mLoadedApps = retainedApps;
+            filterApps();
+            mChangedPackagesSequence = results.getChangedPackagesSequence();
+            mHandler.post(this::notifyAppsChanged);
+            return;
+        }
+        if (results != null
+                && results.whenAppsLoaded(
+                        new DeletionHelperResults.AppsListener() {
+                            // The fragment may have been replaced while the apps were loading.
+                            @Override
+                            public void onStaleApps(List<PackageInfo> apps) {
+                                if (fragment.isAdded() && mLoadedApps == null) {
+                                    mShowingSnapshot = true;
+                                    showApps(apps);
+                                }
+                            }
+
+                            @Override
+                            public void onApps(List<PackageInfo> apps) {
+                                if (fragment.isAdded()
+                                        && (mLoadedApps == null || mShowingSnapshot)) {
+                                    mShowingSnapshot = false;
+                                    onLoadFinished(null, apps);
+                                }
+                            }
+                        })) {
+            // The activity is already loading the apps.
+            return;
+        }
+        // Package changes after the load are patched into the list by mPackageReceiver rather
+        // than restarting the loader.
+        fragment.getLoaderManager().initLoader(LOADER_ID, null, this);
     }
 
     @Override
@@ -80,12 +178,62 @@ public class AppDeletionType
 
     @Override
     public void onResume() {
+        if (mReceiverRegistered) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        // Apps of every profile are listed, so listen for package changes in all of them.
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter, null, null);
+        mReceiverRegistered = true;
 
+        // Catch up on anything which changed while we were not listening. The first resume only
+        // establishes the baseline, since the loader has not seen any older changes either way.
+        // The sequence only covers the current user, so changes to other profiles while paused
+        // are picked up by the next full load.
+        ChangedPackages changed =
+                mContext.getPackageManager()
+                        .getChangedPackages(Math.max(mChangedPackagesSequence, 0));
+        if (changed == null) {
+            if (mChangedPackagesSequence == UNKNOWN_SEQUENCE) {
+                mChangedPackagesSequence = 0;
+            }
+            return;
+        }
+
+        if (mChangedPackagesSequence != UNKNOWN_SEQUENCE && mApps != null) {
+            List<String> packageNames = changed.getPackageNames();
+            for (int i = 0, size = packageNames.size(); i < size; i++) {
+                reloadPackage(packageNames.get(i), UserHandle.myUserId());
+            }
+        }
+        mChangedPackagesSequence = changed.getSequenceNumber();
     }
 
     @Override
     public void onPause() {
+        if (!mReceiverRegistered) {
+            return;
+        }
 
+        mContext.unregisterReceiver(mPackageReceiver);
+        mReceiverRegistered = false;
+
+        // Changes up to now were delivered to the receiver, so the next resume only needs to catch
+        // up from here.
+        ChangedPackages changed =
+                mContext.getPackageManager()
+                        .getChangedPackages(Math.max(mChangedPackagesSequence, 0));
+        if (changed != null) {
+            mChangedPackagesSequence = changed.getSequenceNumber();
+        }
+        if (mResults != null && mLoadedApps != null) {
+            mResults.setChangedPackagesSequence(mChangedPackagesSequence);
+        }
     }
 
     @Override
@@ -95,33 +243,43 @@ public class AppDeletionType
 
     @Override
     public void clearFreeableData(Activity activity) {
-        if (mApps == null) {
-            return;
-        }
+        clearFreeableData(activity, null);
+    }
 
-        ArraySet<String> apps = new ArraySet<>();
-        for (PackageInfo app : mApps) {
-            final String packageName = app.packageName;
-            if (mCheckedApplications.contains(packageName)) {
-                apps.add(packageName);
+    @Override
+    public void clearFreeableData(Context context, @Nullable ClearListener listener) {
+        DeletionPlanner planner = new DeletionPlanner(context);
+        planner.setAppDeletionCallback(mDeletionCallback);
+        planner.execute(createPlan(), listener);
+    }
+
+    /** Uninstalls go through the package manager, which only needs the application context. */
+    @Override
+    public boolean requiresActivity() {
+        return false;
+    }
+
+    /** Returns a plan which uninstalls the checked apps, each as the profile it belongs to. */
+    @Override
+    public DeletionPlan createPlan() {
+        ArrayList<PackageInfo> apps = new ArrayList<>();
+        if (mApps != null) {
+            for (int i = 0, size = mApps.size(); i < size; i++) {
+                PackageInfo app = mApps.get(i);
+                if (mCheckedApplications.contains(app.getKey())) {
+                    apps.add(app);
+                }
             }
         }
-        // TODO: If needed, add an action on the callback.
-        PackageDeletionTask task = new PackageDeletionTask(activity.getPackageManager(), apps,
-                new PackageDeletionTask.Callback() {
-                    @Override
-                    public void onSuccess() {
-                    }
-
-                    @Override
-                    public void onError() {
-                        Log.e(TAG, "An error occurred while uninstalling packages.");
-                        MetricsLogger.action(activity,
-                                MetricsEvent.ACTION_DELETION_HELPER_APPS_DELETION_FAIL);
-                    }
-                });
+        return DeletionPlanner.createAppsPlan(apps);
+    }
 
-        task.run();
+    /**
+     * Sets a callback to receive the progress and the aggregated result of the uninstalls started
+     * by {@link #clearFreeableData(Activity)}. It may be called on any thread.
+     */
+    public void setDeletionCallback(PackageDeletionTask.Callback callback) {
+        mDeletionCallback = callback;
     }
 
     /**
@@ -131,34 +289,76 @@ public class AppDeletionType
         mAppListener = preference;
     }
 
+    /**
+     * Registers a listener which receives every loaded app whenever the app list changes, before
+     * the threshold is applied. If the apps are already loaded, it receives them right away.
+     */
+    public void registerLoadedAppsListener(AppListener listener) {
+        mLoadedAppsListener = listener;
+        if (mLoadedApps != null) {
+            listener.onAppRebuild(mLoadedApps);
+        }
+    }
+
     /**
      * Set a package to be checked for deletion, if the apps are cleared.
-     * @param packageName The name of the package to potentially delete.
+     * @param key The {@link PackageInfo#getKey() key} of the app to potentially delete.
      * @param isChecked Whether or not the package should be deleted.
      */
-    public void setChecked(String packageName, boolean isChecked) {
-        if (isChecked) {
-            mCheckedApplications.add(packageName);
-        } else {
-            mCheckedApplications.remove(packageName);
+    public void setChecked(String key, boolean isChecked) {
+        final boolean changed =
+                isChecked ? mCheckedApplications.add(key) : mCheckedApplications.remove(key);
+        if (changed) {
+            final PackageInfo app = mAppsByKey.get(key);
+            if (app != null && app.size > 0) {
+                mCheckedBytes += isChecked ? app.size : -app.size;
+            }
         }
         maybeNotifyListener();
     }
 
+    /**
+     * Replaces the checked apps with the given ones and rebuilds the app list, so that the views
+     * show the new selection.
+     * @param keys The {@link PackageInfo#getKey() keys} of the apps to check.
+     */
+    public void setCheckedApps(Collection<String> keys) {
+        mCheckedApplications.clear();
+        mCheckedApplications.addAll(keys);
+        if (mApps != null) {
+            notifyAppsChanged();
+        }
+    }
+
+    /** Returns the apps shown for the threshold, or null if they have not been loaded yet. */
+    @Nullable
+    public List<PackageInfo> getApps() {
+        return mApps;
+    }
+
     /**
      * Returns an amount of clearable app data.
      * @param countUnchecked If unchecked applications should be counted for size purposes.
      */
     public long getTotalAppsFreeableSpace(boolean countUnchecked) {
-        long freeableSpace = 0;
+        return countUnchecked ? mTotalBytes : mCheckedBytes;
+    }
+
+    /**
+     * Returns the amount of clearable app data on each volume, keyed by volume UUID. Internal
+     * storage has a null UUID.
+     * @param countUnchecked If unchecked applications should be counted for size purposes.
+     */
+    public Map<String, Long> getTotalAppsFreeableSpaceByVolume(boolean countUnchecked) {
+        ArrayMap<String, Long> freeableSpace = new ArrayMap<>();
         if (mApps != null) {
             for (int i = 0, size = mApps.size(); i < size; i++) {
                 final PackageInfo app = mApps.get(i);
-                long appSize = app.size;
-                final String packageName = app.packageName;
-                // If the appSize is negative, it is either an unknown size or an error occurred.
-                if ((countUnchecked || mCheckedApplications.contains(packageName)) && appSize > 0) {
-                    freeableSpace += appSize;
+                if ((countUnchecked || mCheckedApplications.contains(app.getKey()))
+                        && app.size > 0) {
+                    Long volumeSpace = freeableSpace.get(app.volumeUuid);
+                    freeableSpace.put(
+                            app.volumeUuid, (volumeSpace != null ? volumeSpace : 0) + app.size);
                 }
             }
         }
@@ -168,18 +368,31 @@ public class AppDeletionType
 
     /**
      * Returns if a given package is slated for deletion.
-     * @param packageName The name of the package to check.
+     * @param key The {@link PackageInfo#getKey() key} of the app to check.
      */
-    public boolean isChecked(String packageName) {
-        return mCheckedApplications.contains(packageName);
+    public boolean isChecked(String key) {
+        return mCheckedApplications.contains(key);
     }
 
-    private AppFilter getFilter(int mThresholdType) {
-        switch (mThresholdType) {
+    /**
+     * Returns if the size of a given app, which includes its cache, is part of
+     * {@link #getTotalAppsFreeableSpace(boolean)}.
+     * @param key The {@link PackageInfo#getKey() key} of the app to check.
+     * @param countUnchecked If unchecked applications should be counted for size purposes.
+     */
+    public boolean isCounted(String key, boolean countUnchecked) {
+        final PackageInfo app = mAppsByKey.get(key);
+        return app != null && app.size > 0
+                && (countUnchecked || mCheckedApplications.contains(key));
+    }
+
+    static AppFilter getFilter(Context context, int thresholdType) {
+        switch (thresholdType) {
             case AppsAsyncLoader.NO_THRESHOLD:
                 return AppsAsyncLoader.FILTER_NO_THRESHOLD;
             case AppsAsyncLoader.NORMAL_THRESHOLD:
             default:
+                AppsAsyncLoader.FILTER_USAGE_STATS.configure(context);
                 return AppsAsyncLoader.FILTER_USAGE_STATS;
         }
     }
@@ -192,6 +405,21 @@ public class AppDeletionType
         }
     }
 
+    /**
+     * Changes the threshold the apps are shown for. The loaded apps are filtered again in memory,
+     * so this is cheap enough to follow a slider.
+     */
+    public void setThresholdType(int thresholdType) {
+        if (thresholdType == mThresholdType) {
+            return;
+        }
+        mThresholdType = thresholdType;
+        if (mLoadedApps != null) {
+            filterApps();
+            notifyAppsChanged();
+        }
+    }
+
     public long getDeletionThreshold() {
         switch (mThresholdType) {
             case AppsAsyncLoader.NO_THRESHOLD:
@@ -200,7 +428,7 @@ public class AppDeletionType
                 return 0;
             case AppsAsyncLoader.NORMAL_THRESHOLD:
             default:
-                return AppsAsyncLoader.UNUSED_DAYS_DELETION_THRESHOLD;
+                return AppsAsyncLoader.FILTER_USAGE_STATS.getUnusedDaysThreshold();
         }
     }
 
@@ -221,25 +449,207 @@ public class AppDeletionType
 
     @Override
     public Loader<List<PackageInfo>> onCreateLoader(int id, Bundle args) {
-        return new AppsAsyncLoader.Builder(mContext)
+        mLoader = createLoader(mContext);
+        return mLoader;
+    }
+
+    /** Creates a loader for every eligible app, which {@link #filterApps()} narrows down. */
+    static AppsAsyncLoader createLoader(Context context) {
+        return new AppsAsyncLoader.Builder(context)
                 .setUid(UserHandle.myUserId())
-                .setUuid(VolumeInfo.ID_PRIVATE_INTERNAL)
-                .setStorageStatsSource(new StorageStatsSource(mContext))
-                .setPackageManager(mContext.getPackageManager())
-                .setUsageStatsManager(
-                        (UsageStatsManager) mContext.getSystemService(Context.USAGE_STATS_SERVICE))
-                .setFilter(
-                        getFilter(
-                                args.getInt(THRESHOLD_TYPE_KEY, AppsAsyncLoader.NORMAL_THRESHOLD)))
+                .setProfileIds(
+                        context.getSystemService(UserManager.class)
+                                .getEnabledProfileIds(UserHandle.myUserId()))
+                .setStorageStatsSource(new StorageStatsSource(context))
+                .setPackageManager(context.getPackageManager())
+                .setLastUsedStore(LastUsedStore.getInstance(context))
+                .setScorer(FeatureFactory.getFactory(context).getAppScorer())
+                .setFilter(AppsAsyncLoader.FILTER_NO_THRESHOLD)
                 .build();
     }
 
     @Override
     public void onLoadFinished(Loader<List<PackageInfo>> loader, List<PackageInfo> data) {
-        mApps = data;
+        if (loader instanceof AppsAsyncLoader) {
+            mLoader = (AppsAsyncLoader) loader;
+        }
+        if (mResults != null) {
+            mResults.setApps(data);
+        }
+        showApps(data);
+    }
+
+    private void showApps(List<PackageInfo> apps) {
+        mLoadedApps = apps;
+        filterApps();
+        notifyAppsChanged();
+    }
+
+    /**
+     * Returns whether the apps shown are from the last {@link CandidateSnapshot}, and may be out
+     * of date, while the fresh apps load.
+     */
+    public boolean isShowingSnapshot() {
+        return mShowingSnapshot;
+    }
+
+    /**
+     * Reloads a single package in the background and patches the result into the app list.
+     *
+     * @param packageName The package which was added or changed.
+     * @param userId The user the package changed for.
+     */
+    private void reloadPackage(String packageName, int userId) {
+        if (mLoadedApps == null) {
+            // A load is still in flight and will see the change.
+            return;
+        }
+        if (mLoader == null) {
+            // The apps were retained from an earlier load, so there is no loader to ask yet.
+            mLoader = createLoader(mContext);
+        }
+        final AppsAsyncLoader loader = mLoader;
+        final int generation = nextPackageGeneration(packageName, userId);
+
+        AsyncTask.execute(
+                () -> {
+                    final PackageInfo app = loader.loadApp(packageName, userId);
+                    mHandler.post(() -> onPackageReloaded(packageName, userId, app, generation));
+                });
+    }
+
+    /** Drops a removed package from the app list, along with any reload of it in flight. */
+    @VisibleForTesting
+    void removePackage(String packageName, int userId) {
+        nextPackageGeneration(packageName, userId);
+        patchPackage(packageName, userId, null);
+    }
+
+    /**
+     * Patches a reloaded package into the app list, unless the package changed again after the
+     * reload started.
+     *
+     * @param generation The generation of the package when the reload started.
+     */
+    @VisibleForTesting
+    void onPackageReloaded(String packageName, int userId, PackageInfo app, int generation) {
+        final Integer current = mPackageGenerations.get(PackageInfo.getKey(packageName, userId));
+        if (current == null || current != generation) {
+            return;
+        }
+        patchPackage(packageName, userId, app);
+    }
+
+    /** Records a change to a package, and returns the generation it started. */
+    @VisibleForTesting
+    int nextPackageGeneration(String packageName, int userId) {
+        final String key = PackageInfo.getKey(packageName, userId);
+        final Integer current = mPackageGenerations.get(key);
+        final int generation = current != null ? current + 1 : 0;
+        mPackageGenerations.put(key, generation);
+        return generation;
+    }
+
+    /**
+     * Replaces the entry for a package in the loaded app list and notifies the listeners once.
+     * The list is copied rather than changed in place, since the loader and the retained results
+     * may still hold the old one.
+     *
+     * @param packageName The package which changed.
+     * @param userId The user the package changed for.
+     * @param app The reloaded package, or null if the package is gone or no longer eligible.
+     */
+    @VisibleForTesting
+    void patchPackage(String packageName, int userId, PackageInfo app) {
+        if (mLoadedApps == null) {
+            return;
+        }
+
+        final ArrayList<PackageInfo> loadedApps = new ArrayList<>(mLoadedApps);
+        boolean changed = false;
+        for (int i = loadedApps.size() - 1; i >= 0; i--) {
+            PackageInfo oldApp = loadedApps.get(i);
+            if (oldApp.userId == userId && oldApp.packageName.equals(packageName)) {
+                loadedApps.remove(i);
+                changed = true;
+            }
+        }
+
+        if (app != null) {
+            int index =
+                    Collections.binarySearch(
+                            loadedApps, app, AppsAsyncLoader.PACKAGE_INFO_COMPARATOR);
+            loadedApps.add(index < 0 ? -index - 1 : index, app);
+            changed = true;
+        } else {
+            mCheckedApplications.remove(PackageInfo.getKey(packageName, userId));
+        }
+
+        if (changed) {
+            mLoadedApps = loadedApps;
+            if (mResults != null && !mShowingSnapshot) {
+                mResults.setApps(loadedApps);
+            }
+            filterApps();
+            notifyAppsChanged();
+        }
+    }
+
+    /**
+     * Narrows the loaded apps down to the ones shown for the threshold. The loaded apps are
+     * sorted, so the shown apps are too.
+     */
+    private void filterApps() {
+        final AppFilter filter = getFilter(mContext, mThresholdType);
+        filter.init();
+        if (mApps == null) {
+            mApps = new ArrayList<>(mLoadedApps.size());
+        } else {
+            mApps.clear();
+        }
+        for (int i = 0, size = mLoadedApps.size(); i < size; i++) {
+            final PackageInfo app = mLoadedApps.get(i);
+            // Every field of a loaded app is known.
+            if (filter.filterStorage(app)) {
+                mApps.add(app);
+            }
+        }
+    }
+
+    private void notifyAppsChanged() {
+        rebuildTotals();
         updateLoadingStatus();
         maybeNotifyListener();
         mAppListener.onAppRebuild(mApps);
+        if (mLoadedAppsListener != null) {
+            mLoadedAppsListener.onAppRebuild(mLoadedApps);
+        }
+    }
+
+    /**
+     * Rebuilds the lookup from key to app and the byte totals from the app list. Toggling an app
+     * only adjusts the totals, so this is needed only when the app list changes.
+     */
+    private void rebuildTotals() {
+        mAppsByKey.clear();
+        mTotalBytes = 0;
+        mCheckedBytes = 0;
+        if (mApps == null) {
+            return;
+        }
+
+        for (int i = 0, size = mApps.size(); i < size; i++) {
+            final PackageInfo app = mApps.get(i);
+            final String key = app.getKey();
+            mAppsByKey.put(key, app);
+            // If the size is negative, it is either an unknown size or an error occurred.
+            if (app.size > 0) {
+                mTotalBytes += app.size;
+                if (mCheckedApplications.contains(key)) {
+                    mCheckedBytes += app.size;
+                }
+            }
+        }
     }
 
     @Override
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.AppFilter;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+
+/**
+ * AppPredicate describes which apps the deletion helper offers, as comparisons on the fields of a
+ * {@link PackageInfo} combined with and, or and not. A predicate is {@link #compile() compiled}
+ * into an {@link AppFilter} which evaluates it as a flat loop over the fields, so new policies
+ * need no new filter code.
+ *
+ * <p>The loader asks its filter about an app before every field is known. A comparison on a
+ * field which is not known yet is treated as unknown, and an app is only rejected early if the
+ * predicate is false whatever the unknown fields turn out to be.
+ */
+public class AppPredicate {
+    /** The {@link android.content.pm.ApplicationInfo} flags. Known before anything else. */
+    public static final int FIELD_FLAGS = 0;
+    /** The user the app belongs to. */
+    public static final int FIELD_USER_ID = 1;
+    /** The days since the app was last used. Negative if unknown. */
+    public static final int FIELD_DAYS_SINCE_LAST_USE = 2;
+    /** The days since the app was installed. Negative if unknown. */
+    public static final int FIELD_DAYS_SINCE_FIRST_INSTALL = 3;
+    /** The days since the app was last used or installed, whichever is more recent. */
+    public static final int FIELD_DAYS_UNUSED = 4;
+    /** The size of the app. Known once its storage has been queried. */
+    public static final int FIELD_SIZE = 5;
+    /** The cache size of the app. Known once its storage has been queried. */
+    public static final int FIELD_CACHE_BYTES = 6;
+    /**
+     * How likely the app is to be used again, in thousandths, as estimated by the {@link
+     * ReuseModel}.
+     */
+    public static final int FIELD_REUSE_PERMILLE = 7;
+
+    private static final int KNOWN_FLAGS = 1 << FIELD_FLAGS;
+    private static final int KNOWN_USAGE =
+            KNOWN_FLAGS
+                    | 1 << FIELD_USER_ID
+                    | 1 << FIELD_DAYS_SINCE_LAST_USE
+                    | 1 << FIELD_DAYS_SINCE_FIRST_INSTALL
+                    | 1 << FIELD_DAYS_UNUSED
+                    | 1 << FIELD_REUSE_PERMILLE;
+    private static final int KNOWN_ALL = KNOWN_USAGE | 1 << FIELD_SIZE | 1 << FIELD_CACHE_BYTES;
+
+    private static final int OP_TRUE = 0;
+    private static final int OP_AT_LEAST = 1;
+    private static final int OP_AT_MOST = 2;
+    private static final int OP_EQUALS = 3;
+    private static final int OP_ANY_FLAGS = 4;
+    private static final int OP_NO_FLAGS = 5;
+    private static final int OP_NOT = 6;
+    private static final int OP_AND = 7;
+    private static final int OP_OR = 8;
+
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte UNKNOWN = 2;
+
+    /** A predicate which accepts every app. */
+    public static final AppPredicate ALWAYS = new AppPredicate(OP_TRUE, 0, 0, null);
+
+    private final int mOp;
+    private final int mField;
+    private final long mValue;
+    private final AppPredicate[] mOperands;
+
+    private AppPredicate(int op, int field, long value, AppPredicate[] operands) {
+        mOp = op;
+        mField = field;
+        mValue = value;
+        mOperands = operands;
+    }
+
+    /** Accepts apps whose field is at least the given value. */
+    public static AppPredicate atLeast(int field, long value) {
+        return new AppPredicate(OP_AT_LEAST, field, value, null);
+    }
+
+    /** Accepts apps whose field is at most the given value. */
+    public static AppPredicate atMost(int field, long value) {
+        return new AppPredicate(OP_AT_MOST, field, value, null);
+    }
+
+    /** Accepts apps whose field is the given value. */
+    public static AppPredicate equalTo(int field, long value) {
+        return new AppPredicate(OP_EQUALS, field, value, null);
+    }
+
+    /** Accepts apps which have any of the given {@link #FIELD_FLAGS flags}. */
+    public static AppPredicate hasAnyFlags(int flags) {
+        return new AppPredicate(OP_ANY_FLAGS, FIELD_FLAGS, flags, null);
+    }
+
+    /** Accepts apps which have none of the given {@link #FIELD_FLAGS flags}. */
+    public static AppPredicate hasNoFlags(int flags) {
+        return new AppPredicate(OP_NO_FLAGS, FIELD_FLAGS, flags, null);
+    }
+
+    /** Accepts apps which every one of the predicates accepts. */
+    public static AppPredicate and(AppPredicate... predicates) {
+        return new AppPredicate(OP_AND, 0, 0, predicates.clone());
+    }
+
+    /** Accepts apps which any of the predicates accepts. */
+    public static AppPredicate or(AppPredicate... predicates) {
+        return new AppPredicate(OP_OR, 0, 0, predicates.clone());
+    }
+
+    /** Accepts apps which the predicate rejects. */
+    public static AppPredicate not(AppPredicate predicate) {
+        return new AppPredicate(OP_NOT, 0, 0, new AppPredicate[] {predicate});
+    }
+
+    /** Compiles the predicate into a filter for the {@link AppsAsyncLoader}. */
+    public AppFilter compile() {
+        final int length = countInstructions();
+        Program program = new Program(length);
+        emit(program);
+        return new CompiledFilter(program);
+    }
+
+    private int countInstructions() {
+        int count = 1;
+        if (mOperands != null) {
+            for (AppPredicate operand : mOperands) {
+                count += operand.countInstructions();
+            }
+        }
+        return count;
+    }
+
+    /** Writes the predicate to the program in postfix order, so it can run without recursion. */
+    private int emit(Program program) {
+        int depth = 0;
+        if (mOperands != null) {
+            for (int i = 0; i < mOperands.length; i++) {
+                depth = Math.max(depth, i + mOperands[i].emit(program));
+            }
+        }
+        final int index = program.size++;
+        program.ops[index] = mOp;
+        program.fields[index] = mField;
+        program.values[index] = mValue;
+        program.arities[index] = mOperands != null ? mOperands.length : 0;
+        program.maxDepth = Math.max(program.maxDepth, Math.max(depth, 1));
+        return Math.max(depth, 1);
+    }
+
+    /** The instructions of a compiled predicate, as parallel primitive arrays. */
+    private static class Program {
+        final int[] ops;
+        final int[] fields;
+        final long[] values;
+        final int[] arities;
+        int size;
+        int maxDepth;
+
+        Program(int length) {
+            ops = new int[length];
+            fields = new int[length];
+            values = new long[length];
+            arities = new int[length];
+        }
+    }
+
+    private static class CompiledFilter implements AppFilter {
+        private final Program mProgram;
+        // Filters are evaluated from several loader threads at once, so each gets its own stack.
+        private final ThreadLocal<byte[]> mStack;
+
+        CompiledFilter(Program program) {
+            mProgram = program;
+            mStack = ThreadLocal.withInitial(() -> new byte[program.maxDepth]);
+        }
+
+        @Override
+        public void init() {}
+
+        @Override
+        public boolean filterFlags(int flags) {
+            return evaluate(null, flags, KNOWN_FLAGS) != FALSE;
+        }
+
+        @Override
+        public boolean filterApp(PackageInfo info) {
+            return info != null && evaluate(info, info.flags, KNOWN_USAGE) != FALSE;
+        }
+
+        @Override
+        public boolean filterStorage(PackageInfo info) {
+            return info != null && evaluate(info, info.flags, KNOWN_ALL) == TRUE;
+        }
+
+        /**
+         * Runs the program with three-valued logic, where comparisons on fields outside of the
+         * known fields are {@link #UNKNOWN}.
+         */
+        private byte evaluate(PackageInfo info, int flags, int knownFields) {
+            final Program program = mProgram;
+            final byte[] stack = mStack.get();
+            int top = 0;
+            for (int i = 0; i < program.size; i++) {
+                final int op = program.ops[i];
+                final int field = program.fields[i];
+                final long value = program.values[i];
+                byte result;
+                switch (op) {
+                    case OP_TRUE:
+                        result = TRUE;
+                        break;
+                    case OP_NOT:
+                        result = stack[--top];
+                        if (result != UNKNOWN) {
+                            result = result == TRUE ? FALSE : TRUE;
+                        }
+                        break;
+                    case OP_AND:
+                    case OP_OR:
+                        {
+                            final byte dominant = op == OP_AND ? FALSE : TRUE;
+                            result = op == OP_AND ? TRUE : FALSE;
+                            for (int j = program.arities[i]; j > 0; j--) {
+                                final byte operand = stack[--top];
+                                if (operand == dominant) {
+                                    result = dominant;
+                                } else if (operand == UNKNOWN && result != dominant) {
+                                    result = UNKNOWN;
+                                }
+                            }
+                            break;
+                        }
+                    default:
+                        if ((knownFields & (1 << field)) == 0) {
+                            result = UNKNOWN;
+                            break;
+                        }
+                        final long actual = getField(info, flags, field);
+                        final boolean matches;
+                        switch (op) {
+                            case OP_AT_LEAST:
+                                matches = actual >= value;
+                                break;
+                            case OP_AT_MOST:
+                                matches = actual <= value;
+                                break;
+                            case OP_EQUALS:
+                                matches = actual == value;
+                                break;
+                            case OP_ANY_FLAGS:
+                                matches = (actual & value) != 0;
+                                break;
+                            default:
+                                matches = (actual & value) == 0;
+                                break;
+                        }
+                        result = matches ? TRUE : FALSE;
+                        break;
+                }
+                stack[top++] = result;
+            }
+            return stack[0];
+        }
+
+        private static long getField(PackageInfo info, int flags, int field) {
+            switch (field) {
+                case FIELD_FLAGS:
+                    return flags;
+                case FIELD_USER_ID:
+                    return info.userId;
+                case FIELD_DAYS_SINCE_LAST_USE:
+                    return info.daysSinceLastUse;
+                case FIELD_DAYS_SINCE_FIRST_INSTALL:
+                    return info.daysSinceFirstInstall;
+                case FIELD_DAYS_UNUSED:
+                    // If the app has never been used, daysSinceLastUse is Long.MAX_VALUE, so the
+                    // first install is always the most recent use.
+                    return Math.min(info.daysSinceFirstInstall, info.daysSinceLastUse);
+                case FIELD_SIZE:
+                    return info.size;
+                case FIELD_CACHE_BYTES:
+                    return info.cacheBytes;
+                case FIELD_REUSE_PERMILLE:
+                    return Math.round(info.reuseProbability * 1000);
+                default:
+                    throw new IllegalArgumentException("Unknown field " + field);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+/**
+ * Scores the apps offered for deletion, so that the apps most worth removing are listed first.
+ * OEMs can provide their own scorer through {@link
+ * com.android.storagemanager.overlay.FeatureFactory#getAppScorer()}.
+ */
+public interface AppScorer {
+    /**
+     * The default scorer ranks an app by its size, weighted up to twice for apps which have not
+     * been used for a year. A 1.9 GB app untouched for a year ranks above a 2 GB app used
+     * yesterday. Apps which are likely to be used again have their score reduced by up to half.
+     */
+    AppScorer DEFAULT =
+            new AppScorer() {
+                private static final long MAX_SCORED_DAYS = 365;
+
+                @Override
+                public long score(long size, long daysSinceLastUse, long daysSinceFirstInstall) {
+                    if (size <= 0) {
+                        return size;
+                    }
+                    // As when filtering, an app which was never used was last used at install.
+                    final long days =
+                            Math.max(
+                                    0,
+                                    Math.min(
+                                            Math.min(daysSinceLastUse, daysSinceFirstInstall),
+                                            MAX_SCORED_DAYS));
+                    return size + size / MAX_SCORED_DAYS * days;
+                }
+
+                @Override
+                public long score(
+                        long size,
+                        long daysSinceLastUse,
+                        long daysSinceFirstInstall,
+                        float reuseProbability) {
+                    final long score = score(size, daysSinceLastUse, daysSinceFirstInstall);
+                    if (score <= 0) {
+                        return score;
+                    }
+                    final float reuse = Math.max(0f, Math.min(1f, reuseProbability));
+                    return (long) (score * (1 - reuse / 2.0));
+                }
+            };
+
+    /**
+     * Returns the score of an app. Apps with higher scores are listed first. This is called once
+     * per app on a loader thread, possibly for several apps at the same time.
+     *
+     * @param size The size of the app, or a negative value if it is unknown.
+     * @param daysSinceLastUse The days since the app was last used, or {@link
+     *     AppsAsyncLoader#NEVER_USED}.
+     * @param daysSinceFirstInstall The days since the app was installed.
+     */
+    long score(long size, long daysSinceLastUse, long daysSinceFirstInstall);
+
+    /**
+     * Returns the score of an app, given how likely it is to be used again. Scorers which do not
+     * override this ignore the probability.
+     *
+     * @param reuseProbability The probability that the app is used again, from 0 to 1, as
+     *     estimated by the {@link ReuseModel}.
+     */
+    default long score(
+            long size, long daysSinceLastUse, long daysSinceFirstInstall, float reuseProbability) {
+        return score(size, daysSinceLastUse, daysSinceFirstInstall);
+    }
+}
@@ -15,24 +15,20 @@
  */
 package com.android.storagemanager.deletionhelper;
 
-import android.app.usage.UsageStats;
-import android.app.usage.UsageStatsManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.os.SystemProperties;
 import android.os.UserHandle;
-import android.text.format.DateUtils;
 import android.util.Log;
 import com.android.storagemanager.deletionhelper.AppStateBaseBridge.Callback;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 import com.android.settingslib.applications.ApplicationsState.AppFilter;
+import com.android.storagemanager.utils.PackageLongMap;
 
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -41,7 +37,6 @@ import java.util.concurrent.TimeUnit;
 public class AppStateUsageStatsBridge extends AppStateBaseBridge {
     private static final String TAG = "AppStateUsageStatsBridge";
 
-    private static final String DEBUG_APP_UNUSED_OVERRIDE = "debug.asm.app_unused_limit";
     public static final long NEVER_USED = Long.MAX_VALUE;
     public static final long UNKNOWN_LAST_USE = -1;
     public static final long UNUSED_DAYS_DELETION_THRESHOLD = 90;
@@ -50,8 +45,10 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
     public static final int NORMAL_THRESHOLD = 0;
     public static final int NO_THRESHOLD = 1;
 
-    private UsageStatsManager mUsageStatsManager;
     private PackageManager mPm;
+    // The store which provides the last time each package was used. It is shared with the
+    // AppsAsyncLoader, but can be replaced for test purposes.
+    protected LastUsedStore mLastUsedStore;
     // This clock is used to provide the time. By default, it uses the system clock, but can be
     // replaced for test purposes.
     protected Clock mClock;
@@ -59,10 +56,10 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
     public AppStateUsageStatsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(appState, callback);
-        mUsageStatsManager =
-                (UsageStatsManager) context.getSystemService(Context.USAGE_STATS_SERVICE);
+        mLastUsedStore = LastUsedStore.getInstance(context);
         mPm = context.getPackageManager();
         mClock = new Clock();
+        AppsAsyncLoader.FILTER_USAGE_STATS.configure(context);
     }
 
     @Override
@@ -70,29 +67,34 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
         ArrayList<AppEntry> apps = mAppSession.getAllApps();
         if (apps == null) return;
 
-        final Map<String, UsageStats> map = getAggregatedUsageStats();
+        final PackageLongMap lastUsed = mLastUsedStore.refresh(mClock.getCurrentTime());
+        final PackageLongMap installTimes =
+                AppsAsyncLoader.getFirstInstallTimes(mPm.getInstalledPackages(0));
         for (AppEntry entry : apps) {
-            UsageStats usageStats = map.get(entry.info.packageName);
-            entry.extraInfo = new UsageStatsState(getDaysSinceLastUse(usageStats),
-                    getDaysSinceInstalled(entry.info.packageName),
+            entry.extraInfo = new UsageStatsState(
+                    getDaysSinceLastUse(
+                            lastUsed.get(entry.info.packageName, LastUsedStore.NO_USAGE_RECORDED)),
+                    getDaysSinceInstalled(
+                            installTimes.get(
+                                    entry.info.packageName, AppsAsyncLoader.NOT_INSTALLED)),
                     UserHandle.getUserId(entry.info.uid));
         }
     }
 
     @Override
     protected void updateExtraInfo(AppEntry app, String pkg, int uid) {
-        Map<String, UsageStats> map = getAggregatedUsageStats();
-        UsageStats usageStats = map.get(app.info.packageName);
-        app.extraInfo = new UsageStatsState(getDaysSinceLastUse(usageStats),
-                getDaysSinceInstalled(app.info.packageName),
+        PackageLongMap lastUsed = mLastUsedStore.refresh(mClock.getCurrentTime());
+        app.extraInfo = new UsageStatsState(
+                getDaysSinceLastUse(
+                        lastUsed.get(app.info.packageName, LastUsedStore.NO_USAGE_RECORDED)),
+                getDaysSinceInstalled(getFirstInstallTime(app.info.packageName)),
                 UserHandle.getUserId(app.info.uid));
     }
 
-    private long getDaysSinceLastUse(UsageStats stats) {
-        if (stats == null) {
+    private long getDaysSinceLastUse(long lastUsed) {
+        if (lastUsed == LastUsedStore.NO_USAGE_RECORDED) {
             return NEVER_USED;
         }
-        long lastUsed = stats.getLastTimeUsed();
         // Sometimes, a usage is recorded without a time and we don't know when the use was.
         if (lastUsed <= 0) {
             return UNKNOWN_LAST_USE;
@@ -106,24 +108,21 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
         return days;
     }
 
-    private long getDaysSinceInstalled(String packageName) {
-        PackageInfo pi = null;
+    private long getFirstInstallTime(String packageName) {
         try {
-            pi = mPm.getPackageInfo(packageName, 0);
+            PackageInfo pi = mPm.getPackageInfo(packageName, 0);
+            return pi.firstInstallTime;
         } catch (PackageManager.NameNotFoundException e) {
             Log.e(TAG, packageName + " was not found.");
         }
+        return AppsAsyncLoader.NOT_INSTALLED;
+    }
 
-        if (pi == null) {
+    private long getDaysSinceInstalled(long firstInstallTime) {
+        if (firstInstallTime == AppsAsyncLoader.NOT_INSTALLED) {
             return UNKNOWN_LAST_USE;
         }
-        return (TimeUnit.MILLISECONDS.toDays(mClock.getCurrentTime() - pi.firstInstallTime));
-    }
-
-    private Map<String, UsageStats> getAggregatedUsageStats() {
-        long now = mClock.getCurrentTime();
-        long startTime = now - DateUtils.YEAR_IN_MILLIS;
-        return mUsageStatsManager.queryAndAggregateUsageStats(startTime, now);
+        return (TimeUnit.MILLISECONDS.toDays(mClock.getCurrentTime() - firstInstallTime));
     }
 
     private static boolean isBundled(AppEntry info) {
@@ -171,8 +170,8 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
             };
 
     /**
-     * Filters only non-system apps which haven't been used in the last 60 days. If an app's last
-     * usage is unknown, it is skipped.
+     * Filters only non-system apps which haven't been used for the threshold of {@link
+     * AppsAsyncLoader#FILTER_USAGE_STATS}. If an app's last usage is unknown, it is skipped.
      */
     public static final AppFilter FILTER_USAGE_STATS =
             new AppFilter() {
@@ -180,9 +179,10 @@ public class AppStateUsageStatsBridge extends AppStateBaseBridge {
 
                 @Override
                 public void init() {
+                    // Picks up the debug override in the same way as the deletion helper.
+                    AppsAsyncLoader.FILTER_USAGE_STATS.init();
                     mUnusedDaysThreshold =
-                            SystemProperties.getLong(
-                                    DEBUG_APP_UNUSED_OVERRIDE, UNUSED_DAYS_DELETION_THRESHOLD);
+                            AppsAsyncLoader.FILTER_USAGE_STATS.getUnusedDaysThreshold();
                 }
 
                 @Override
@@ -16,35 +16,43 @@
 
 package com.android.storagemanager.deletionhelper;
 
-import android.app.usage.UsageStats;
-import android.app.usage.UsageStatsManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
-import androidx.annotation.VisibleForTesting;
-import android.text.format.DateUtils;
+import android.os.storage.VolumeInfo;
 import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.util.IntArray;
 import android.util.Log;
+import android.util.SparseArray;
+import androidx.annotation.VisibleForTesting;
+import com.android.internal.util.ArrayUtils;
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.applications.StorageStatsSource.AppStorageStats;
+import com.android.storagemanager.R;
 import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
 import com.android.storagemanager.utils.AsyncLoader;
+import com.android.storagemanager.utils.PackageLongMap;
 
 import java.io.IOException;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
-import java.util.Collections;
-import java.util.stream.Collectors;
+import java.util.function.IntConsumer;
 
 /**
  * AppsAsyncLoader is a Loader which loads app storage information and categories it by the app's
@@ -63,32 +71,47 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
     public static final int NO_THRESHOLD = 1;
     private static final String DEBUG_APP_UNUSED_OVERRIDE = "debug.asm.app_unused_limit";
     private static final long DAYS_IN_A_TYPICAL_YEAR = 365;
+    // Marks packages which are missing from the install time table.
+    static final long NOT_INSTALLED = Long.MIN_VALUE;
 
     protected Clock mClock;
     protected AppsAsyncLoader.AppFilter mFilter;
     private int mUserId;
+    private int[] mProfileIds;
     private String mUuid;
+    // The volume to load apps from, where null is internal storage, unless mLoadAllVolumes is set.
+    private String mVolumeUuid;
+    private boolean mLoadAllVolumes;
     private StorageStatsSource mStatsManager;
     private PackageManager mPackageManager;
 
-    private UsageStatsManager mUsageStatsManager;
+    private LastUsedStore mLastUsedStore;
+    private AppScorer mScorer;
+    private volatile LoadStats mLastLoadStats;
+    private volatile SparseArray<LoadStats> mLastProfileLoadStats;
 
     private AppsAsyncLoader(
             Context context,
             int userId,
+            int[] profileIds,
             String uuid,
             StorageStatsSource source,
             PackageManager pm,
-            UsageStatsManager um,
-            AppsAsyncLoader.AppFilter filter) {
+            LastUsedStore lastUsedStore,
+            AppsAsyncLoader.AppFilter filter,
+            AppScorer scorer) {
         super(context);
         mUserId = userId;
+        mProfileIds = profileIds;
         mUuid = uuid;
+        mLoadAllVolumes = uuid == null;
+        mVolumeUuid = VolumeInfo.ID_PRIVATE_INTERNAL.equals(uuid) ? null : uuid;
         mStatsManager = source;
         mPackageManager = pm;
-        mUsageStatsManager = um;
+        mLastUsedStore = lastUsedStore;
         mClock = new Clock();
         mFilter = filter;
+        mScorer = scorer;
     }
 
     @Override
@@ -96,142 +119,354 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
         return loadApps();
     }
 
+    /**
+     * Loads the apps of every profile and merges them into a single sorted list. Each profile is
+     * loaded on its own thread with its own usage lookups, so the load takes about as long as the
+     * slowest profile rather than the sum of all of them.
+     */
     private List<PackageInfo> loadApps() {
-        ArraySet<Integer> seenUid = new ArraySet<>(); // some apps share a uid
-
-        long now = mClock.getCurrentTime();
-        long startTime = now - DateUtils.YEAR_IN_MILLIS;
-        final Map<String, UsageStats> map =
-                mUsageStatsManager.queryAndAggregateUsageStats(startTime, now);
-        final Map<String, UsageStats> alternateMap =
-                getLatestUsageStatsByPackageName(startTime, now);
-
-        List<ApplicationInfo> applicationInfos =
-                mPackageManager.getInstalledApplicationsAsUser(0, mUserId);
-        List<PackageInfo> stats = new ArrayList<>();
-        int size = applicationInfos.size();
         mFilter.init();
-        for (int i = 0; i < size; i++) {
-            ApplicationInfo app = applicationInfos.get(i);
-            if (seenUid.contains(app.uid)) {
+
+        final int profileCount = mProfileIds.length;
+        final LoadStats[] profileLoadStats = new LoadStats[profileCount];
+        final ArrayList<List<PackageInfo>> results =
+                new ArrayList<>(Collections.nCopies(profileCount, null));
+        runInParallel(
+                profileCount,
+                profile -> {
+                    profileLoadStats[profile] = new LoadStats();
+                    results.set(
+                            profile,
+                            loadProfile(mProfileIds[profile], profileLoadStats[profile]));
+                });
+
+        ArrayList<PackageInfo> stats = new ArrayList<>();
+        final LoadStats mergedLoadStats = new LoadStats();
+        SparseArray<LoadStats> lastProfileLoadStats = new SparseArray<>(profileCount);
+        for (int i = 0; i < profileCount; i++) {
+            if (results.get(i) == null) {
+                Log.w(TAG, "Failed to load the apps of user " + mProfileIds[i]);
                 continue;
             }
+            stats.addAll(results.get(i));
+            mergedLoadStats.add(profileLoadStats[i]);
+            lastProfileLoadStats.put(mProfileIds[i], profileLoadStats[i]);
+        }
+        stats.sort(PACKAGE_INFO_COMPARATOR);
 
-            UsageStats usageStats = map.get(app.packageName);
-            UsageStats alternateUsageStats = alternateMap.get(app.packageName);
+        mLastProfileLoadStats = lastProfileLoadStats;
+        mLastLoadStats = mergedLoadStats;
+        Log.i(TAG, mergedLoadStats.toString());
+        return stats;
+    }
 
-            final AppStorageStats appSpace;
-            try {
-                appSpace = mStatsManager.getStatsForUid(app.volumeUuid, app.uid);
-            } catch (IOException e) {
-                Log.w(TAG, e);
+    /**
+     * Loads the apps of a single profile in stages ordered by cost. Each stage only sees the
+     * candidates which survived the previous one, so the expensive storage stats and presentation
+     * lookups are only done for apps which will actually be shown.
+     */
+    private List<PackageInfo> loadProfile(int userId, LoadStats loadStats) {
+        return loadApps(
+                userId,
+                mPackageManager.getInstalledApplicationsAsUser(0, userId),
+                null,
+                loadStats);
+    }
+
+    /**
+     * Loads a single package through the same stages as a full load. This is used to patch an
+     * already loaded app list when a package changes. Must be called on a background thread.
+     *
+     * @param packageName The package to load.
+     * @param userId The user the package changed for.
+     * @return The PackageInfo for the package, or null if it is not installed, is filtered out or
+     *     belongs to a user which this loader does not load.
+     */
+    public PackageInfo loadApp(String packageName, int userId) {
+        if (!ArrayUtils.contains(mProfileIds, userId)) {
+            return null;
+        }
+
+        final android.content.pm.PackageInfo pi;
+        try {
+            pi = mPackageManager.getPackageInfoAsUser(packageName, 0, userId);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        if (pi.applicationInfo == null) {
+            return null;
+        }
+
+        mFilter.init();
+        List<PackageInfo> result =
+                loadApps(
+                        userId,
+                        Collections.singletonList(pi.applicationInfo),
+                        getFirstInstallTimes(Collections.singletonList(pi)),
+                        new LoadStats());
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * @param userId The user the apps belong to.
+     * @param applicationInfos The apps to consider.
+     * @param installTimes The first install times of the apps, or null to query them for all of
+     *     the user's packages.
+     * @param loadStats Receives the counters and timings of each stage.
+     */
+    private List<PackageInfo> loadApps(
+            int userId,
+            List<ApplicationInfo> applicationInfos,
+            PackageLongMap installTimes,
+            LoadStats loadStats) {
+        // Flags: drop shared uids and apps which the filter rejects by their flags alone.
+        long stageStart = SystemClock.elapsedRealtimeNanos();
+        ArraySet<Integer> seenUid = new ArraySet<>(); // some apps share a uid
+        ArrayList<ApplicationInfo> apps = new ArrayList<>(applicationInfos.size());
+        for (int i = 0, size = applicationInfos.size(); i < size; i++) {
+            ApplicationInfo app = applicationInfos.get(i);
+            if (seenUid.contains(app.uid)) {
                 continue;
             }
-
+            seenUid.add(app.uid);
+            if (mLoadAllVolumes || Objects.equals(app.volumeUuid, mVolumeUuid)) {
+                if (mFilter.filterFlags(app.flags)) {
+                    apps.add(app);
+                }
+            }
+        }
+        loadStats.record(LoadStats.STAGE_FLAGS, applicationInfos.size(), apps.size(), stageStart);
+
+        // Usage: fill in the days since last use and install, then run the filter.
+        stageStart = SystemClock.elapsedRealtimeNanos();
+        final LastUsedStore lastUsedStore = getLastUsedStore(userId);
+        final PackageLongMap lastUsed = lastUsedStore.refresh(mClock.getCurrentTime());
+        final ReuseModel reuseModel = lastUsedStore.getReuseModel(mClock.getCurrentTime());
+        if (installTimes == null) {
+            installTimes =
+                    getFirstInstallTimes(mPackageManager.getInstalledPackagesAsUser(0, userId));
+        }
+        int candidates = apps.size();
+        ArrayList<PackageInfo> stats = new ArrayList<>(candidates);
+        int kept = 0;
+        for (int i = 0; i < candidates; i++) {
+            ApplicationInfo app = apps.get(i);
             PackageInfo extraInfo =
                     new PackageInfo.Builder()
                             .setDaysSinceLastUse(
                                     getDaysSinceLastUse(
-                                            getGreaterUsageStats(
+                                            lastUsed.get(
                                                     app.packageName,
-                                                    usageStats,
-                                                    alternateUsageStats)))
-                            .setDaysSinceFirstInstall(getDaysSinceInstalled(app.packageName))
+                                                    LastUsedStore.NO_USAGE_RECORDED)))
+                            .setDaysSinceFirstInstall(
+                                    getDaysSinceInstalled(
+                                            installTimes.get(app.packageName, NOT_INSTALLED)))
+                            .setReuseProbability(reuseModel.getReuseProbability(app.packageName))
                             .setUserId(UserHandle.getUserId(app.uid))
                             .setPackageName(app.packageName)
-                            .setSize(appSpace.getTotalBytes())
                             .setFlags(app.flags)
-                            .setIcon(
-                                    mPackageManager.getUserBadgedIcon(
-                                            mPackageManager.loadUnbadgedItemIcon(app, app),
-                                            new UserHandle(UserHandle.getUserId(app.uid))))
-                            .setLabel(app.loadLabel(mPackageManager))
+                            .setVolumeUuid(app.volumeUuid)
                             .build();
-            seenUid.add(app.uid);
-            if (mFilter.filterApp(extraInfo) && !isDefaultLauncher(mPackageManager, extraInfo)) {
+            if (mFilter.filterApp(extraInfo)) {
+                apps.set(kept++, app);
                 stats.add(extraInfo);
             }
         }
-        stats.sort(PACKAGE_INFO_COMPARATOR);
+        truncate(apps, kept);
+        loadStats.record(LoadStats.STAGE_USAGE, candidates, kept, stageStart);
+
+        // Launcher: the default launcher is never offered for deletion.
+        stageStart = SystemClock.elapsedRealtimeNanos();
+        final String launcherPackage = getDefaultLauncherPackage(mPackageManager);
+        candidates = apps.size();
+        kept = 0;
+        for (int i = 0; i < candidates; i++) {
+            if (!stats.get(i).packageName.equals(launcherPackage)) {
+                apps.set(kept, apps.get(i));
+                stats.set(kept++, stats.get(i));
+            }
+        }
+        truncate(apps, kept);
+        truncate(stats, kept);
+        loadStats.record(LoadStats.STAGE_LAUNCHER, candidates, kept, stageStart);
+
+        // Storage: query the size of each remaining app. Each volume is queried on its own
+        // thread, so a slow adopted card does not hold up the internal storage lookups.
+        stageStart = SystemClock.elapsedRealtimeNanos();
+        candidates = apps.size();
+        ArrayMap<String, IntArray> appsByVolume = new ArrayMap<>();
+        for (int i = 0; i < candidates; i++) {
+            final String volumeUuid = apps.get(i).volumeUuid;
+            IntArray volumeApps = appsByVolume.get(volumeUuid);
+            if (volumeApps == null) {
+                volumeApps = new IntArray();
+                appsByVolume.put(volumeUuid, volumeApps);
+            }
+            volumeApps.add(i);
+        }
+        final boolean[] measured = new boolean[candidates];
+        runInParallel(
+                appsByVolume.size(),
+                volume ->
+                        loadVolumeSizes(
+                                appsByVolume.keyAt(volume),
+                                appsByVolume.valueAt(volume),
+                                apps,
+                                stats,
+                                measured));
+        kept = 0;
+        for (int i = 0; i < candidates; i++) {
+            if (measured[i] && mFilter.filterStorage(stats.get(i))) {
+                apps.set(kept, apps.get(i));
+                stats.set(kept++, stats.get(i));
+            }
+        }
+        truncate(apps, kept);
+        truncate(stats, kept);
+        // Score each app once here, so that sorting only compares the precomputed scores.
+        for (int i = 0; i < kept; i++) {
+            PackageInfo extraInfo = stats.get(i);
+            extraInfo.score =
+                    mScorer.score(
+                            extraInfo.size,
+                            extraInfo.daysSinceLastUse,
+                            extraInfo.daysSinceFirstInstall,
+                            extraInfo.reuseProbability);
+        }
+        loadStats.record(LoadStats.STAGE_STORAGE, candidates, kept, stageStart);
+
+        // Presentation: load the icon and label, and the keys to sort them by. Collators are not
+        // thread-safe, so each load uses its own.
+        stageStart = SystemClock.elapsedRealtimeNanos();
+        candidates = apps.size();
+        final Collator collator = Collator.getInstance();
+        for (int i = 0; i < candidates; i++) {
+            ApplicationInfo app = apps.get(i);
+            PackageInfo extraInfo = stats.get(i);
+            extraInfo.icon =
+                    mPackageManager.getUserBadgedIcon(
+                            mPackageManager.loadUnbadgedItemIcon(app, app),
+                            new UserHandle(extraInfo.userId));
+            extraInfo.label = app.loadLabel(mPackageManager);
+            extraInfo.updateSortKeys(collator);
+        }
+        loadStats.record(LoadStats.STAGE_PRESENTATION, candidates, candidates, stageStart);
         return stats;
     }
 
-    @VisibleForTesting
-    UsageStats getGreaterUsageStats(String packageName, UsageStats primary, UsageStats alternate) {
-        long primaryLastUsed = primary != null ? primary.getLastTimeUsed() : 0;
-        long alternateLastUsed = alternate != null ? alternate.getLastTimeUsed() : 0;
+    /**
+     * Returns the stage counters and timings of the most recent load, summed over every profile,
+     * or null if none ran.
+     */
+    public LoadStats getLastLoadStats() {
+        return mLastLoadStats;
+    }
+
+    /**
+     * Returns the stage counters and timings of the given profile in the most recent load, or null
+     * if the profile was not loaded.
+     */
+    public LoadStats getLastLoadStats(int userId) {
+        SparseArray<LoadStats> profileLoadStats = mLastProfileLoadStats;
+        return profileLoadStats != null ? profileLoadStats.get(userId) : null;
+    }
 
-        if (primaryLastUsed != alternateLastUsed) {
-            Log.w(
-                    TAG,
-                    new StringBuilder("Usage stats mismatch for ")
-                            .append(packageName)
-                            .append(" ")
-                            .append(primaryLastUsed)
-                            .append(" ")
-                            .append(alternateLastUsed)
-                            .toString());
+    /**
+     * Queries the size of the given apps on a single volume.
+     *
+     * @param volumeUuid The volume the apps live on.
+     * @param indices The indices of the apps to query.
+     * @param apps The candidate apps.
+     * @param stats The candidate PackageInfos, whose sizes are filled in.
+     * @param measured Set for each app whose size was found.
+     */
+    private void loadVolumeSizes(
+            String volumeUuid,
+            IntArray indices,
+            List<ApplicationInfo> apps,
+            List<PackageInfo> stats,
+            boolean[] measured) {
+        for (int i = 0, size = indices.size(); i < size; i++) {
+            final int index = indices.get(i);
+            final AppStorageStats appSpace;
+            try {
+                appSpace = mStatsManager.getStatsForUid(volumeUuid, apps.get(index).uid);
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                continue;
+            }
+            PackageInfo extraInfo = stats.get(index);
+            extraInfo.size = appSpace.getTotalBytes();
+            extraInfo.codeBytes = appSpace.getCodeBytes();
+            extraInfo.dataBytes = appSpace.getDataBytes();
+            extraInfo.cacheBytes = appSpace.getCacheBytes();
+            measured[index] = true;
         }
+    }
 
-        return (primaryLastUsed > alternateLastUsed) ? primary : alternate;
+    /**
+     * Runs the given number of tasks in parallel and waits for all of them. The calling thread
+     * runs the first task itself, and then every task which no pool thread has picked up yet, so
+     * it only ever waits for tasks that are already running. This keeps nested calls, such as the
+     * volumes of each profile, from deadlocking when the pool is full of threads waiting.
+     */
+    private static void runInParallel(int count, IntConsumer task) {
+        ArrayList<FutureTask<Void>> tasks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            FutureTask<Void> futureTask = new FutureTask<>(() -> task.accept(index), null);
+            tasks.add(futureTask);
+            if (i > 0) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(futureTask);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            FutureTask<Void> futureTask = tasks.get(i);
+            // Does nothing if a pool thread already started the task.
+            futureTask.run();
+            try {
+                futureTask.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Parallel load failed", e);
+            }
+        }
+    }
+
+    private LastUsedStore getLastUsedStore(int userId) {
+        if (userId == mUserId) {
+            return mLastUsedStore;
+        }
+        return LastUsedStore.getInstance(getContext(), userId);
     }
 
-    private Map<String, UsageStats> getLatestUsageStatsByPackageName(long startTime, long endTime) {
-        List<UsageStats> usageStats =
-                mUsageStatsManager.queryUsageStats(
-                        UsageStatsManager.INTERVAL_YEARLY, startTime, endTime);
-        Map<String, List<UsageStats>> groupedByPackageName =
-                usageStats.stream().collect(Collectors.groupingBy(UsageStats::getPackageName));
-
-        ArrayMap<String, UsageStats> latestStatsByPackageName = new ArrayMap<>();
-        groupedByPackageName
-                .entrySet()
-                .stream()
-                .forEach(
-                        // Flattens the list of UsageStats to only have the latest by
-                        // getLastTimeUsed, retaining the package name as the key.
-                        (Map.Entry<String, List<UsageStats>> item) -> {
-                            latestStatsByPackageName.put(
-                                    item.getKey(),
-                                    Collections.max(
-                                            item.getValue(),
-                                            (UsageStats o1, UsageStats o2) ->
-                                                    Long.compare(
-                                                            o1.getLastTimeUsed(),
-                                                            o2.getLastTimeUsed())));
-                        });
-
-        return latestStatsByPackageName;
+    private static void truncate(List<?> list, int size) {
+        list.subList(size, list.size()).clear();
     }
 
     @Override
     protected void onDiscardResult(List<PackageInfo> result) {}
 
-    private static boolean isDefaultLauncher(PackageManager packageManager, PackageInfo info) {
+    private static String getDefaultLauncherPackage(PackageManager packageManager) {
         if (packageManager == null) {
-            return false;
+            return null;
         }
 
         final List<ResolveInfo> homeActivities = new ArrayList<>();
         ComponentName defaultActivity = packageManager.getHomeActivities(homeActivities);
-        if (defaultActivity != null) {
-            String packageName = defaultActivity.getPackageName();
-            return packageName == null
-                    ? false
-                    : defaultActivity.getPackageName().equals(info.packageName);
-        }
-
-        return false;
+        return defaultActivity != null ? defaultActivity.getPackageName() : null;
     }
 
     public static class Builder {
         private Context mContext;
         private int mUid;
+        private int[] mProfileIds;
         private String mUuid;
         private StorageStatsSource mStorageStatsSource;
         private PackageManager mPackageManager;
-        private UsageStatsManager mUsageStatsManager;
+        private LastUsedStore mLastUsedStore;
         private AppsAsyncLoader.AppFilter mFilter;
+        private AppScorer mScorer;
 
         public Builder(Context context) {
             mContext = context;
@@ -242,6 +477,19 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
             return this;
         }
 
+        /**
+         * Sets the profiles whose apps are loaded. If unset, only the apps of the user set with
+         * {@link #setUid(int)} are loaded.
+         */
+        public Builder setProfileIds(int[] profileIds) {
+            this.mProfileIds = profileIds;
+            return this;
+        }
+
+        /**
+         * Restricts the load to the apps on a single volume. {@link VolumeInfo#ID_PRIVATE_INTERNAL}
+         * selects internal storage. If unset, the apps of every volume are loaded.
+         */
         public Builder setUuid(String uuid) {
             this.mUuid = uuid;
             return this;
@@ -257,8 +505,12 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
             return this;
         }
 
-        public Builder setUsageStatsManager(UsageStatsManager usageStatsManager) {
-            this.mUsageStatsManager = usageStatsManager;
+        /**
+         * Sets the store to read the last time each app was used from. If unset, the persisted
+         * store of the user set with {@link #setUid(int)} is used.
+         */
+        public Builder setLastUsedStore(LastUsedStore lastUsedStore) {
+            this.mLastUsedStore = lastUsedStore;
             return this;
         }
 
@@ -267,36 +519,66 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
             return this;
         }
 
+        /** Sets the scorer which orders the apps. If unset, {@link AppScorer#DEFAULT} is used. */
+        public Builder setScorer(AppScorer scorer) {
+            this.mScorer = scorer;
+            return this;
+        }
+
         public AppsAsyncLoader build() {
+            if (mLastUsedStore == null) {
+                mLastUsedStore = LastUsedStore.getInstance(mContext, mUid);
+            }
+            if (mProfileIds == null || mProfileIds.length == 0) {
+                mProfileIds = new int[] {mUid};
+            }
+            if (mScorer == null) {
+                mScorer = AppScorer.DEFAULT;
+            }
             return new AppsAsyncLoader(
                     mContext,
                     mUid,
+                    mProfileIds,
                     mUuid,
                     mStorageStatsSource,
                     mPackageManager,
-                    mUsageStatsManager,
-                    mFilter);
+                    mLastUsedStore,
+                    mFilter,
+                    mScorer);
         }
     }
 
     /**
      * Comparator that checks PackageInfo to see if it describes the same app based on the name and
      * user it belongs to. This comparator does NOT fulfill the standard java equality contract
-     * because it only checks a few fields.
+     * because it only checks a few fields. Apps are ordered by their precomputed {@link
+     * PackageInfo#score}, and only apps with the same score are compared any further. Labels and
+     * package names are compared by the collation keys the loader computed, so the comparator is
+     * cheap and may be used from any thread.
      */
     public static final Comparator<PackageInfo> PACKAGE_INFO_COMPARATOR =
             new Comparator<PackageInfo>() {
-                private final Collator sCollator = Collator.getInstance();
-
                 @Override
                 public int compare(PackageInfo object1, PackageInfo object2) {
+                    if (object1.score < object2.score) return 1;
+                    if (object1.score > object2.score) return -1;
                     if (object1.size < object2.size) return 1;
                     if (object1.size > object2.size) return -1;
-                    int compareResult = sCollator.compare(object1.label, object2.label);
+                    int compareResult =
+                            compareSortKeys(
+                                    object1.mLabelKey,
+                                    object2.mLabelKey,
+                                    object1.label,
+                                    object2.label);
                     if (compareResult != 0) {
                         return compareResult;
                     }
-                    compareResult = sCollator.compare(object1.packageName, object2.packageName);
+                    compareResult =
+                            compareSortKeys(
+                                    object1.mPackageNameKey,
+                                    object2.mPackageNameKey,
+                                    object1.packageName,
+                                    object2.packageName);
                     if (compareResult != 0) {
                         return compareResult;
                     }
@@ -304,84 +586,154 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
                 }
             };
 
-    public static final AppFilter FILTER_NO_THRESHOLD =
-            new AppFilter() {
-                @Override
-                public void init() {}
+    /**
+     * The collator for apps which have no sort keys. Collators are not thread-safe, so it is only
+     * used while holding its lock.
+     */
+    private static final Collator FALLBACK_COLLATOR = Collator.getInstance();
 
-                @Override
-                public boolean filterApp(PackageInfo info) {
-                    if (info == null) {
-                        return false;
-                    }
-                    return !isBundled(info)
-                            && !isPersistentProcess(info)
-                            && isExtraInfoValid(info, MIN_DELETION_THRESHOLD);
-                }
-            };
+    /**
+     * Compares two collation keys, or the strings they were computed from if either of them has
+     * no key yet. The fallback only applies to apps which did not come from a loader.
+     */
+    private static int compareSortKeys(
+            CollationKey key1, CollationKey key2, CharSequence string1, CharSequence string2) {
+        if (key1 != null && key2 != null) {
+            return key1.compareTo(key2);
+        }
+        synchronized (FALLBACK_COLLATOR) {
+            return FALLBACK_COLLATOR.compare(toSortString(string1), toSortString(string2));
+        }
+    }
+
+    private static String toSortString(CharSequence string) {
+        return string != null ? string.toString() : "";
+    }
 
     /**
-     * Filters only non-system apps which haven't been used in the last 60 days. If an app's last
-     * usage is unknown, it is skipped.
+     * Apps which can be offered for deletion at all: neither system nor persistent apps, and only
+     * apps whose usage is known. If we are missing information, let's be conservative and not
+     * show it.
      */
-    public static final AppFilter FILTER_USAGE_STATS =
-            new AppFilter() {
-                private long mUnusedDaysThreshold;
+    private static final AppPredicate ELIGIBLE_APPS =
+            AppPredicate.and(
+                    AppPredicate.hasNoFlags(
+                            ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_PERSISTENT),
+                    AppPredicate.atLeast(AppPredicate.FIELD_DAYS_SINCE_LAST_USE, 0),
+                    AppPredicate.atLeast(AppPredicate.FIELD_DAYS_SINCE_FIRST_INSTALL, 0));
 
-                @Override
-                public void init() {
-                    mUnusedDaysThreshold =
-                            SystemProperties.getLong(
-                                    DEBUG_APP_UNUSED_OVERRIDE, UNUSED_DAYS_DELETION_THRESHOLD);
-                }
+    public static final AppFilter FILTER_NO_THRESHOLD = ELIGIBLE_APPS.compile();
 
-                @Override
-                public boolean filterApp(PackageInfo info) {
-                    if (info == null) {
-                        return false;
-                    }
-                    return !isBundled(info)
-                            && !isPersistentProcess(info)
-                            && isExtraInfoValid(info, mUnusedDaysThreshold);
+    /**
+     * Filters only non-system apps which haven't been used in the last 90 days, or however many
+     * days the device configures. If an app's last usage is unknown, it is skipped.
+     */
+    public static final UsageStatsFilter FILTER_USAGE_STATS = new UsageStatsFilter();
+
+    /**
+     * UsageStatsFilter filters eligible apps by how many days they went unused. The threshold is
+     * {@link #UNUSED_DAYS_DELETION_THRESHOLD} until {@link #configure(Context)} reads {@code
+     * config_app_unused_days_threshold}, which devices can overlay, or the debug override. Both
+     * are only read once per process, so initializing the filter before a scan is free.
+     */
+    public static class UsageStatsFilter implements AppFilter {
+        private volatile boolean mConfigured;
+        // The threshold of the device, which the debug property overrides.
+        private volatile long mConfiguredUnusedDaysThreshold = UNUSED_DAYS_DELETION_THRESHOLD;
+        private volatile long mUnusedDaysThreshold = UNUSED_DAYS_DELETION_THRESHOLD;
+        private volatile AppFilter mFilter;
+
+        private UsageStatsFilter() {}
+
+        /** Reads the threshold of the device, unless it has been read already. */
+        public void configure(Context context) {
+            if (mConfigured) {
+                return;
+            }
+            final long unusedDaysThreshold =
+                    context.getResources().getInteger(R.integer.config_app_unused_days_threshold);
+            synchronized (this) {
+                if (!mConfigured) {
+                    setUnusedDaysThreshold(unusedDaysThreshold);
                 }
-            };
+            }
+        }
 
-    private static boolean isBundled(PackageInfo info) {
-        return (info.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-    }
+        /**
+         * Returns how many days an app must go unused before it is filtered in, as of the last
+         * {@link #init()}.
+         */
+        public long getUnusedDaysThreshold() {
+            return mUnusedDaysThreshold;
+        }
 
-    private static boolean isPersistentProcess(PackageInfo info) {
-        return (info.flags & ApplicationInfo.FLAG_PERSISTENT) != 0;
-    }
+        @VisibleForTesting
+        synchronized void setUnusedDaysThreshold(long unusedDaysThreshold) {
+            mConfiguredUnusedDaysThreshold = unusedDaysThreshold;
+            mUnusedDaysThreshold = unusedDaysThreshold;
+            mFilter = compile(unusedDaysThreshold);
+            mConfigured = true;
+        }
+
+        /**
+         * Reads the debug property again, so that it can be changed while the process runs. The
+         * filter is only compiled again when the threshold changed.
+         */
+        @Override
+        public void init() {
+            final long unusedDaysThreshold =
+                    SystemProperties.getLong(
+                            DEBUG_APP_UNUSED_OVERRIDE, mConfiguredUnusedDaysThreshold);
+            if (unusedDaysThreshold == mUnusedDaysThreshold && mFilter != null) {
+                return;
+            }
+            synchronized (this) {
+                mFilter = compile(unusedDaysThreshold);
+                mUnusedDaysThreshold = unusedDaysThreshold;
+            }
+        }
+
+        @Override
+        public boolean filterFlags(int flags) {
+            return getFilter().filterFlags(flags);
+        }
 
-    private static boolean isExtraInfoValid(Object extraInfo, long unusedDaysThreshold) {
-        if (extraInfo == null || !(extraInfo instanceof PackageInfo)) {
-            return false;
+        @Override
+        public boolean filterApp(PackageInfo info) {
+            return getFilter().filterApp(info);
         }
 
-        PackageInfo state = (PackageInfo) extraInfo;
+        @Override
+        public boolean filterStorage(PackageInfo info) {
+            return getFilter().filterStorage(info);
+        }
 
-        // If we are missing information, let's be conservative and not show it.
-        if (state.daysSinceFirstInstall == UNKNOWN_LAST_USE
-                || state.daysSinceLastUse == UNKNOWN_LAST_USE) {
-            Log.w(TAG, "Missing information. Skipping app");
-            return false;
+        private AppFilter getFilter() {
+            AppFilter filter = mFilter;
+            if (filter == null) {
+                synchronized (this) {
+                    if (mFilter == null) {
+                        mFilter = compile(mUnusedDaysThreshold);
+                    }
+                    filter = mFilter;
+                }
+            }
+            return filter;
         }
 
-        // If the app has never been used, daysSinceLastUse is Long.MAX_VALUE, so the first
-        // install is always the most recent use.
-        long mostRecentUse = Math.min(state.daysSinceFirstInstall, state.daysSinceLastUse);
-        if (mostRecentUse >= unusedDaysThreshold) {
-            Log.i(TAG, "Accepting " + state.packageName + " with a minimum of " + mostRecentUse);
+        private static AppFilter compile(long unusedDaysThreshold) {
+            return AppPredicate.and(
+                            ELIGIBLE_APPS,
+                            AppPredicate.atLeast(
+                                    AppPredicate.FIELD_DAYS_UNUSED, unusedDaysThreshold))
+                    .compile();
         }
-        return mostRecentUse >= unusedDaysThreshold;
     }
 
-    private long getDaysSinceLastUse(UsageStats stats) {
-        if (stats == null) {
+    private long getDaysSinceLastUse(long lastUsed) {
+        if (lastUsed == LastUsedStore.NO_USAGE_RECORDED) {
             return NEVER_USED;
         }
-        long lastUsed = stats.getLastTimeUsed();
         // Sometimes, a usage is recorded without a time and we don't know when the use was.
         if (lastUsed <= 0) {
             return UNKNOWN_LAST_USE;
@@ -395,18 +747,29 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
         return days;
     }
 
-    private long getDaysSinceInstalled(String packageName) {
-        android.content.pm.PackageInfo pi = null;
-        try {
-            pi = mPackageManager.getPackageInfo(packageName, 0);
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(TAG, packageName + " was not found.");
+    private long getDaysSinceInstalled(long firstInstallTime) {
+        if (firstInstallTime == NOT_INSTALLED) {
+            return UNKNOWN_LAST_USE;
         }
+        return (TimeUnit.MILLISECONDS.toDays(mClock.getCurrentTime() - firstInstallTime));
+    }
 
-        if (pi == null) {
-            return UNKNOWN_LAST_USE;
+    /**
+     * Collects the first install time of each package so that it can be looked up without a
+     * binder call per app. Packages missing from the list are absent from the returned map.
+     */
+    static PackageLongMap getFirstInstallTimes(List<android.content.pm.PackageInfo> packages) {
+        if (packages == null) {
+            return new PackageLongMap();
         }
-        return (TimeUnit.MILLISECONDS.toDays(mClock.getCurrentTime() - pi.firstInstallTime));
+
+        final int size = packages.size();
+        PackageLongMap installTimes = new PackageLongMap(size);
+        for (int i = 0; i < size; i++) {
+            android.content.pm.PackageInfo pi = packages.get(i);
+            installTimes.put(pi.packageName, pi.firstInstallTime);
+        }
+        return installTimes;
     }
 
     public interface AppFilter {
@@ -422,12 +785,37 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
         }
 
         /**
-         * Returns true or false depending on whether the app should be filtered or not.
+         * Cheap pre-check which is run on the {@link ApplicationInfo} flags before any usage,
+         * storage or presentation information is loaded for the app.
+         *
+         * @param flags the {@link ApplicationInfo} flags of the app in question.
+         * @return true if the app may be included, false if it should be filtered out.
+         */
+        default boolean filterFlags(int flags) {
+            return true;
+        }
+
+        /**
+         * Returns true or false depending on whether the app should be filtered or not. This is
+         * called before the size, icon and label of the app are loaded, so it should only rely on
+         * the flags, user, package name and usage fields.
          *
          * @param info the PackageInfo for the app in question.
          * @return true if the app should be included, false if it should be filtered out.
          */
         boolean filterApp(PackageInfo info);
+
+        /**
+         * Returns true or false depending on whether the app should be filtered or not, once its
+         * size is known as well. This is called after {@link #filterApp(PackageInfo)} and before
+         * the icon and label of the app are loaded.
+         *
+         * @param info the PackageInfo for the app in question.
+         * @return true if the app should be included, false if it should be filtered out.
+         */
+        default boolean filterStorage(PackageInfo info) {
+            return true;
+        }
     }
 
     /** PackageInfo contains all the information needed to present apps for deletion to users. */
@@ -435,6 +823,8 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
 
         public long daysSinceLastUse;
         public long daysSinceFirstInstall;
+        /** How likely the app is to be used again, from 0 to 1, as estimated by the model. */
+        public float reuseProbability;
         public int userId;
         public String packageName;
         public long size;
@@ -445,22 +835,69 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
          * special like a system app.
          */
         public int flags;
+        /** The UUID of the volume the app lives on, or null if it is on internal storage. */
+        public String volumeUuid;
+        /** The part of {@link #size} taken by the app's code, such as its APKs. */
+        public long codeBytes;
+        /** The part of {@link #size} taken by the app's data, including {@link #cacheBytes}. */
+        public long dataBytes;
+        /** The part of {@link #dataBytes} which is cache and can be cleared on its own. */
+        public long cacheBytes;
+        /**
+         * The score the {@link AppScorer} gave the app when it was loaded. Apps with higher scores
+         * are listed first.
+         */
+        public long score;
+        private CollationKey mLabelKey;
+        private CollationKey mPackageNameKey;
+
+        /**
+         * Returns a key which identifies the app among the apps of every profile, since the same
+         * package may be installed in more than one profile.
+         */
+        public String getKey() {
+            return getKey(packageName, userId);
+        }
+
+        /**
+         * Computes the keys the app is sorted by from its label and package name. This must be
+         * called again if either of them changes.
+         */
+        void updateSortKeys(Collator collator) {
+            mLabelKey = collator.getCollationKey(toSortString(label));
+            mPackageNameKey = collator.getCollationKey(toSortString(packageName));
+        }
+
+        /** Returns the key of the given package in the given user. */
+        public static String getKey(String packageName, int userId) {
+            return userId + "/" + packageName;
+        }
 
         private PackageInfo(
                 long daysSinceLastUse,
                 long daysSinceFirstInstall,
+                float reuseProbability,
                 int userId,
                 String packageName,
                 long size,
+                long codeBytes,
+                long dataBytes,
+                long cacheBytes,
                 int flags,
+                String volumeUuid,
                 Drawable icon,
                 CharSequence label) {
             this.daysSinceLastUse = daysSinceLastUse;
             this.daysSinceFirstInstall = daysSinceFirstInstall;
+            this.reuseProbability = reuseProbability;
             this.userId = userId;
             this.packageName = packageName;
             this.size = size;
+            this.codeBytes = codeBytes;
+            this.dataBytes = dataBytes;
+            this.cacheBytes = cacheBytes;
             this.flags = flags;
+            this.volumeUuid = volumeUuid;
             this.icon = icon;
             this.label = label;
         }
@@ -468,10 +905,15 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
         public static class Builder {
             private long mDaysSinceLastUse;
             private long mDaysSinceFirstInstall;
+            private float mReuseProbability;
             private int mUserId;
             private String mPackageName;
             private long mSize;
+            private long mCodeBytes;
+            private long mDataBytes;
+            private long mCacheBytes;
             private int mFlags;
+            private String mVolumeUuid;
             private Drawable mIcon;
             private CharSequence mLabel;
 
@@ -485,6 +927,11 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
                 return this;
             }
 
+            public Builder setReuseProbability(float reuseProbability) {
+                this.mReuseProbability = reuseProbability;
+                return this;
+            }
+
             public Builder setUserId(int userId) {
                 this.mUserId = userId;
                 return this;
@@ -500,11 +947,31 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
                 return this;
             }
 
+            public Builder setCodeBytes(long codeBytes) {
+                this.mCodeBytes = codeBytes;
+                return this;
+            }
+
+            public Builder setDataBytes(long dataBytes) {
+                this.mDataBytes = dataBytes;
+                return this;
+            }
+
+            public Builder setCacheBytes(long cacheBytes) {
+                this.mCacheBytes = cacheBytes;
+                return this;
+            }
+
             public Builder setFlags(int flags) {
                 this.mFlags = flags;
                 return this;
             }
 
+            public Builder setVolumeUuid(String volumeUuid) {
+                this.mVolumeUuid = volumeUuid;
+                return this;
+            }
+
             public Builder setIcon(Drawable icon) {
                 this.mIcon = icon;
                 return this;
@@ -519,16 +986,88 @@ public class AppsAsyncLoader extends AsyncLoader<List<PackageInfo>> {
                 return new PackageInfo(
                         mDaysSinceLastUse,
                         mDaysSinceFirstInstall,
+                        mReuseProbability,
                         mUserId,
                         mPackageName,
                         mSize,
+                        mCodeBytes,
+                        mDataBytes,
+                        mCacheBytes,
                         mFlags,
+                        mVolumeUuid,
                         mIcon,
                         mLabel);
             }
         }
     }
 
+    /** LoadStats records how many candidates each loading stage kept and how long it took. */
+    public static class LoadStats {
+        public static final int STAGE_FLAGS = 0;
+        public static final int STAGE_USAGE = 1;
+        public static final int STAGE_LAUNCHER = 2;
+        public static final int STAGE_STORAGE = 3;
+        public static final int STAGE_PRESENTATION = 4;
+        public static final int STAGE_COUNT = 5;
+        private static final String[] STAGE_NAMES = {
+            "flags", "usage", "launcher", "storage", "presentation"
+        };
+
+        private final int[] mInputCounts = new int[STAGE_COUNT];
+        private final int[] mOutputCounts = new int[STAGE_COUNT];
+        private final long[] mDurationsNanos = new long[STAGE_COUNT];
+
+        void record(int stage, int inputCount, int outputCount, long startNanos) {
+            mInputCounts[stage] = inputCount;
+            mOutputCounts[stage] = outputCount;
+            mDurationsNanos[stage] = SystemClock.elapsedRealtimeNanos() - startNanos;
+        }
+
+        /**
+         * Adds the counters of a load which ran in parallel with this one. Counts are summed, while
+         * durations take the slowest of the two since the loads overlapped.
+         */
+        void add(LoadStats other) {
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                mInputCounts[i] += other.mInputCounts[i];
+                mOutputCounts[i] += other.mOutputCounts[i];
+                mDurationsNanos[i] = Math.max(mDurationsNanos[i], other.mDurationsNanos[i]);
+            }
+        }
+
+        /** Returns how many candidates entered the given stage. */
+        public int getInputCount(int stage) {
+            return mInputCounts[stage];
+        }
+
+        /** Returns how many candidates survived the given stage. */
+        public int getOutputCount(int stage) {
+            return mOutputCounts[stage];
+        }
+
+        /** Returns how long the given stage took, in nanoseconds. */
+        public long getDurationNanos(int stage) {
+            return mDurationsNanos[stage];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("Loaded apps:");
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                builder.append(' ')
+                        .append(STAGE_NAMES[i])
+                        .append('=')
+                        .append(mInputCounts[i])
+                        .append("->")
+                        .append(mOutputCounts[i])
+                        .append('/')
+                        .append(TimeUnit.NANOSECONDS.toMillis(mDurationsNanos[i]))
+                        .append("ms");
+            }
+            return builder.toString();
+        }
+    }
+
     /** Clock provides the current time. */
     static class Clock {
         public long getCurrentTime() {
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.os.Environment;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.deletionhelper.FetchDownloadsLoader.DownloadsResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CandidateSnapshot is a compact, persisted copy of what the deletion helper would offer: every
+ * eligible app with its size and usage, and the totals of the old downloads. The automatic storage
+ * management job computes it during idle maintenance, so that the deletion helper can show it at
+ * once while a fresh load revalidates it.
+ *
+ * <p>A snapshot is stale by nature. The days since each app was used are as of {@link
+ * #timeMillis}, and apps may have been removed since, so it is only shown until the fresh load
+ * finishes.
+ */
+public class CandidateSnapshot {
+    private static final String TAG = "CandidateSnapshot";
+    private static final String FILE_NAME = "candidate_snapshot";
+    private static final int FILE_VERSION = 1;
+
+    /** How old a snapshot may get before the job computes it again. */
+    public static final long MAX_AGE_MILLIS = 12 * DateUtils.HOUR_IN_MILLIS;
+
+    /** When the snapshot was computed, in milliseconds since the epoch. */
+    public final long timeMillis;
+    /** Every eligible app, whatever the threshold, sorted as the loader sorts them. */
+    public final List<PackageInfo> apps;
+    /** The number of old files in the Downloads directory. */
+    public final int downloadsCount;
+    /** The total size of the old files in the Downloads directory. */
+    public final long downloadsBytes;
+
+    public CandidateSnapshot(
+            long timeMillis, List<PackageInfo> apps, int downloadsCount, long downloadsBytes) {
+        this.timeMillis = timeMillis;
+        this.apps = Collections.unmodifiableList(new ArrayList<>(apps));
+        this.downloadsCount = downloadsCount;
+        this.downloadsBytes = downloadsBytes;
+    }
+
+    /** Returns the file the snapshot of the current user is kept in. */
+    public static File getFile(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Computes a new snapshot and persists it, unless the persisted one is younger than {@link
+     * #MAX_AGE_MILLIS}.
+     *
+     * @param readDownloads Whether the Downloads directory can be read.
+     */
+    @WorkerThread
+    public static void refresh(Context context, long now, boolean readDownloads) {
+        final File file = getFile(context);
+        final CandidateSnapshot old = read(file);
+        if (old != null && now >= old.timeMillis && now - old.timeMillis < MAX_AGE_MILLIS) {
+            return;
+        }
+
+        List<PackageInfo> apps = AppDeletionType.createLoader(context).loadInBackground();
+        int downloadsCount = 0;
+        long downloadsBytes = 0;
+        if (readDownloads) {
+            DownloadsResult downloads =
+                    FetchDownloadsLoader.collectFiles(
+                            Environment.getExternalStoragePublicDirectory(
+                                    Environment.DIRECTORY_DOWNLOADS),
+                            false /* loadThumbnails */);
+            downloadsCount = downloads.files.size();
+            downloadsBytes = downloads.totalSize;
+        }
+        new CandidateSnapshot(now, apps, downloadsCount, downloadsBytes).write(file);
+        Log.i(TAG, "Saved " + apps.size() + " apps and " + downloadsCount + " downloads");
+    }
+
+    /** Reads the persisted snapshot, or returns null if there is none. */
+    @WorkerThread
+    @Nullable
+    public static CandidateSnapshot read(File file) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(atomicFile.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            final long timeMillis = in.readLong();
+            final int downloadsCount = in.readInt();
+            final long downloadsBytes = in.readLong();
+            final int size = in.readInt();
+            final Collator collator = Collator.getInstance();
+            ArrayList<PackageInfo> apps = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                PackageInfo app =
+                        new PackageInfo.Builder()
+                                .setPackageName(in.readUTF())
+                                .setUserId(in.readInt())
+                                .setLabel(in.readUTF())
+                                .setFlags(in.readInt())
+                                .setVolumeUuid(in.readBoolean() ? in.readUTF() : null)
+                                .setSize(in.readLong())
+                                .setCodeBytes(in.readLong())
+                                .setDataBytes(in.readLong())
+                                .setCacheBytes(in.readLong())
+                                .setDaysSinceLastUse(in.readLong())
+                                .setDaysSinceFirstInstall(in.readLong())
+                                .setReuseProbability(in.readFloat())
+                                .build();
+                app.score = in.readLong();
+                app.updateSortKeys(collator);
+                apps.add(app);
+            }
+            return new CandidateSnapshot(timeMillis, apps, downloadsCount, downloadsBytes);
+        } catch (FileNotFoundException e) {
+            // Nothing has been persisted yet.
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the candidate snapshot", e);
+            return null;
+        }
+    }
+
+    /** Persists the snapshot, replacing the one in the file. */
+    @WorkerThread
+    public void write(File file) {
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream stream = null;
+        try {
+            stream = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FILE_VERSION);
+            out.writeLong(timeMillis);
+            out.writeInt(downloadsCount);
+            out.writeLong(downloadsBytes);
+            out.writeInt(apps.size());
+            for (int i = 0, size = apps.size(); i < size; i++) {
+                PackageInfo app = apps.get(i);
+                out.writeUTF(app.packageName);
+                out.writeInt(app.userId);
+                out.writeUTF(app.label != null ? app.label.toString() : app.packageName);
+                out.writeInt(app.flags);
+                out.writeBoolean(app.volumeUuid != null);
+                if (app.volumeUuid != null) {
+                    out.writeUTF(app.volumeUuid);
+                }
+                out.writeLong(app.size);
+                out.writeLong(app.codeBytes);
+                out.writeLong(app.dataBytes);
+                out.writeLong(app.cacheBytes);
+                out.writeLong(app.daysSinceLastUse);
+                out.writeLong(app.daysSinceFirstInstall);
+                out.writeFloat(app.reuseProbability);
+                out.writeLong(app.score);
+            }
+            out.flush();
+            atomicFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the candidate snapshot", e);
+            if (stream != null) {
+                atomicFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * DeletionCommandProvider lets the shell queue a headless deletion, which it cannot start on the
+ * {@link HeadlessDeletionService} directly:
+ *
+ * <pre>
+ * adb shell content call --uri content://com.android.storagemanager.deletion --method run \
+ *         --arg "[--dry-run] [--bytes N] [--all-apps] category..."
+ * </pre>
+ *
+ * <p>Only the shell and root may call it. The run is started on the service, which stays in the
+ * foreground until it is done; the result is logged and printed by dumping the service.
+ */
+public class DeletionCommandProvider extends ContentProvider {
+    private static final String TAG = "DeletionCommandProvider";
+
+    public static final String AUTHORITY = "com.android.storagemanager.deletion";
+    /** The method which queues a run. Its argument holds the options, separated by spaces. */
+    public static final String METHOD_RUN = "run";
+    /** The policy which was queued, as a string in the returned bundle. */
+    public static final String KEY_POLICY = "policy";
+
+    private static final String USAGE =
+            "Usage: run [--dry-run] [--bytes N] [--all-apps] category...\n"
+                    + "  Categories: " + DeletionPolicy.SUPPORTED_CATEGORIES;
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        final int uid = Binder.getCallingUid();
+        if (uid != Process.SHELL_UID && uid != Process.ROOT_UID) {
+            throw new SecurityException("Only the shell can run deletions");
+        }
+        if (!METHOD_RUN.equals(method)) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        final String options = arg != null ? arg.trim() : "";
+        final String[] args =
+                options.isEmpty()
+                        ? new String[] {method}
+                        : (method + " " + options).split("\\s+");
+        final DeletionPolicy policy = HeadlessDeletionService.parsePolicy(args);
+        if (policy == null) {
+            throw new IllegalArgumentException(USAGE);
+        }
+
+        Log.i(TAG, "Queueing " + policy + " for the shell");
+        final long token = Binder.clearCallingIdentity();
+        try {
+            getContext()
+                    .startForegroundService(
+                            HeadlessDeletionService.createIntent(getContext(), policy));
+        } finally {
+            Binder.restoreCallingIdentity(token);
+        }
+        final Bundle result = new Bundle();
+        result.putString(KEY_POLICY, policy.toString());
+        return result;
+    }
+
+    @Override
+    public Cursor query(
+            Uri uri,
+            String[] projection,
+            String selection,
+            String[] selectionArgs,
+            String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("Deletions are queued through call()");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Deletions are queued through call()");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("Deletions are queued through call()");
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.storagemanager.deletionhelper;
 
 import android.app.Activity;
-import android.app.Fragment;
 import android.app.FragmentManager;
 import android.os.Bundle;
 import android.provider.Settings;
@@ -48,10 +47,19 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
     private Button mNextButton, mSkipButton;
     private DeletionHelperSettings mFragment;
     private boolean mIsShowingInterstitial;
+    private DeletionHelperResults mResults;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // Results loaded before a configuration change are shown again rather than reloaded.
+        mResults = (DeletionHelperResults) getLastNonConfigurationInstance();
+        if (mResults == null) {
+            mResults = new DeletionHelperResults();
+        }
+        // Start loading before any UI is built. The fragment waits for these loads rather than
+        // starting its own once its preferences are inflated.
+        mResults.prefetch(this);
         setContentView(R.layout.settings_main_prefs);
 
         setIsEmptyState(false /* isEmptyState */);
@@ -61,6 +69,10 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
             FragmentManager manager = getFragmentManager();
             mFragment = DeletionHelperSettings.newInstance(AppsAsyncLoader.NORMAL_THRESHOLD);
             manager.beginTransaction().replace(R.id.main_content, mFragment).commit();
+        } else {
+            mFragment =
+                    (DeletionHelperSettings)
+                            getFragmentManager().findFragmentById(R.id.main_content);
         }
         SpannableString linkText =
                 new SpannableString(
@@ -76,6 +88,16 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
         getActionBar().setDisplayHomeAsUpEnabled(true);
     }
 
+    @Override
+    public Object onRetainNonConfigurationInstance() {
+        return mResults;
+    }
+
+    /** Returns the load results which the fragments of this activity share. */
+    public DeletionHelperResults getResults() {
+        return mResults;
+    }
+
     @Override
     public void onRequestPermissionsResult(
             int requestCode, String permissions[], int[] grantResults) {
@@ -147,7 +169,6 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-        FragmentManager manager = getFragmentManager();
         int thresholdType;
         switch (item.getItemId()) {
             case R.id.no_threshold:
@@ -160,11 +181,25 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
                 return super.onOptionsItemSelected(item);
         }
 
-        mFragment = DeletionHelperSettings.newInstance(thresholdType);
-        manager.beginTransaction().replace(R.id.main_content, mFragment).commit();
+        setThresholdType(thresholdType);
         return true;
     }
 
+    /**
+     * Shows the items for the given threshold, such as {@link AppsAsyncLoader#NO_THRESHOLD}. The
+     * fragment switches in place, so the apps are not loaded again.
+     */
+    void setThresholdType(int thresholdType) {
+        if (mFragment == null) {
+            mFragment =
+                    (DeletionHelperSettings)
+                            getFragmentManager().findFragmentById(R.id.main_content);
+        }
+        if (mFragment != null) {
+            mFragment.setThresholdType(thresholdType);
+        }
+    }
+
     @Override
     public boolean onNavigateUp() {
         finish();
@@ -181,9 +216,7 @@ public class DeletionHelperActivity extends Activity implements ButtonBarProvide
 
         @Override
         public void onClick(View widget) {
-            FragmentManager manager = mParent.getFragmentManager();
-            Fragment fragment = DeletionHelperSettings.newInstance(AppsAsyncLoader.NO_THRESHOLD);
-            manager.beginTransaction().replace(R.id.main_content, fragment).commit();
+            mParent.setThresholdType(AppsAsyncLoader.NO_THRESHOLD);
             mParent.setIsEmptyState(false);
         }
 
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.deletionhelper.FetchDownloadsLoader.DownloadsResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.Consumer;
+
+/**
+ * DeletionHelperResults keeps the results of the deletion helper loads for as long as the {@link
+ * DeletionHelperActivity} lives, including across configuration changes. A new {@link
+ * DeletionHelperSettings}, such as the one created when switching thresholds, shows the retained
+ * results at once instead of loading them again.
+ *
+ * <p>The apps are loaded once for every threshold, and each {@link AppDeletionType} filters them
+ * for its own. The list is shared with the deletion types showing it, which keep it up to date as
+ * packages change.
+ *
+ * <p>The activity {@link #prefetch(Context) prefetches} the results as it is created, so that the
+ * loads run while the UI is built. Deletion types which are created while a load is in flight wait
+ * for it with {@link #whenAppsLoaded} and {@link #whenDownloadsLoaded} rather than starting their
+ * own. While the apps load, the {@link CandidateSnapshot} saved during idle maintenance is handed
+ * out first, so that there is something to show at once. Apart from the loads themselves, this is
+ * only used on the main thread.
+ */
+public class DeletionHelperResults {
+    private static final String TAG = "DeletionHelperResults";
+    private static final int UNKNOWN_SEQUENCE = -1;
+
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private List<PackageInfo> mApps;
+    private int mChangedPackagesSequence = UNKNOWN_SEQUENCE;
+    private DownloadsResult mDownloads;
+    // Non-null while the corresponding prefetch is in flight.
+    private ArrayList<AppsListener> mAppsListeners;
+    // The apps of the snapshot, while the prefetch which read it is in flight.
+    private List<PackageInfo> mStaleApps;
+    private ArrayList<Consumer<DownloadsResult>> mDownloadsConsumers;
+
+    public DeletionHelperResults() {
+        this(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    DeletionHelperResults(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts loading the apps and the downloads in parallel, unless they are already loaded or
+     * loading. The downloads are only loaded if they can be read.
+     */
+    public void prefetch(Context context) {
+        // The results outlive the activity, so the loads must not hold on to it.
+        final Context appContext = context.getApplicationContext();
+        if (mApps == null && mAppsListeners == null) {
+            mAppsListeners = new ArrayList<>();
+            mExecutor.execute(
+                    new PrefetchTask<>(
+                            () -> {
+                                final CandidateSnapshot snapshot =
+                                        CandidateSnapshot.read(
+                                                CandidateSnapshot.getFile(appContext));
+                                if (snapshot != null) {
+                                    mHandler.post(() -> onSnapshotRead(snapshot));
+                                }
+                                return AppDeletionType.createLoader(appContext)
+                                        .loadInBackground();
+                            },
+                            this::onAppsPrefetched));
+        }
+        if (mDownloads == null
+                && mDownloadsConsumers == null
+                && appContext.checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
+                        == PackageManager.PERMISSION_GRANTED) {
+            mDownloadsConsumers = new ArrayList<>();
+            mExecutor.execute(
+                    new PrefetchTask<>(
+                            () ->
+                                    new FetchDownloadsLoader(
+                                                    appContext,
+                                                    Environment.getExternalStoragePublicDirectory(
+                                                            Environment.DIRECTORY_DOWNLOADS))
+                                            .loadInBackground(),
+                            this::onDownloadsPrefetched));
+        }
+    }
+
+    /**
+     * Delivers the apps to the listener on the main thread once the prefetch loading them
+     * finishes, and the apps of the snapshot before that if there is one.
+     *
+     * @return Whether the apps are being prefetched. If not, the caller needs to load them.
+     */
+    public boolean whenAppsLoaded(AppsListener listener) {
+        if (mAppsListeners == null) {
+            return false;
+        }
+        mAppsListeners.add(listener);
+        final List<PackageInfo> staleApps = mStaleApps;
+        if (staleApps != null) {
+            mHandler.post(() -> listener.onStaleApps(staleApps));
+        }
+        return true;
+    }
+
+    /**
+     * Delivers the downloads to the consumer on the main thread once the prefetch loading them
+     * finishes.
+     *
+     * @return Whether the downloads are being prefetched. If not, the caller needs to load them.
+     */
+    public boolean whenDownloadsLoaded(Consumer<DownloadsResult> consumer) {
+        if (mDownloadsConsumers == null) {
+            return false;
+        }
+        mDownloadsConsumers.add(consumer);
+        return true;
+    }
+
+    private void onSnapshotRead(CandidateSnapshot snapshot) {
+        if (mAppsListeners == null) {
+            // The fresh apps are already here.
+            return;
+        }
+        // Deletion types patch the apps they show, so they get a copy of the snapshot.
+        final List<PackageInfo> staleApps = new ArrayList<>(snapshot.apps);
+        mStaleApps = staleApps;
+        for (int i = 0, size = mAppsListeners.size(); i < size; i++) {
+            mAppsListeners.get(i).onStaleApps(staleApps);
+        }
+    }
+
+    private void onAppsPrefetched(@Nullable List<PackageInfo> apps) {
+        final ArrayList<AppsListener> listeners = mAppsListeners;
+        mAppsListeners = null;
+        mStaleApps = null;
+        if (apps != null) {
+            mApps = apps;
+        } else {
+            // A failed load is not retained, so that the next deletion type loads again.
+            apps = new ArrayList<>();
+        }
+        for (int i = 0, size = listeners.size(); i < size; i++) {
+            listeners.get(i).onApps(apps);
+        }
+    }
+
+    private void onDownloadsPrefetched(@Nullable DownloadsResult downloads) {
+        final ArrayList<Consumer<DownloadsResult>> consumers = mDownloadsConsumers;
+        mDownloadsConsumers = null;
+        if (downloads != null) {
+            mDownloads = downloads;
+        } else {
+            downloads = new DownloadsResult();
+        }
+        for (int i = 0, size = consumers.size(); i < size; i++) {
+            consumers.get(i).accept(downloads);
+        }
+    }
+
+    /**
+     * Returns every app eligible for deletion, whatever the threshold, or null if they have not
+     * been loaded.
+     */
+    @Nullable
+    public List<PackageInfo> getApps() {
+        return mApps;
+    }
+
+    /** Retains every app eligible for deletion, whatever the threshold. */
+    public void setApps(List<PackageInfo> apps) {
+        mApps = apps;
+    }
+
+    /**
+     * Returns the sequence number of the last package change applied to the retained apps, or -1
+     * if it is unknown.
+     */
+    public int getChangedPackagesSequence() {
+        return mChangedPackagesSequence;
+    }
+
+    /** Records the sequence number of the last package change applied to the retained apps. */
+    public void setChangedPackagesSequence(int sequence) {
+        mChangedPackagesSequence = sequence;
+    }
+
+    /** Returns the loaded downloads, or null if they have not been loaded. */
+    @Nullable
+    public DownloadsResult getDownloads() {
+        return mDownloads;
+    }
+
+    /** Retains the loaded downloads. */
+    public void setDownloads(DownloadsResult downloads) {
+        mDownloads = downloads;
+    }
+
+    /** Receives the apps of a prefetch on the main thread. */
+    public interface AppsListener {
+        /**
+         * Called with the apps of the last snapshot while the apps are loading. They may be out
+         * of date, and should be ignored once the fresh apps have arrived.
+         */
+        void onStaleApps(List<PackageInfo> apps);
+
+        /** Called with the freshly loaded apps. */
+        void onApps(List<PackageInfo> apps);
+    }
+
+    /** Runs a load in the background, and hands its result or null to the main thread. */
+    private class PrefetchTask<T> extends FutureTask<T> {
+        private final Consumer<T> mCallback;
+
+        PrefetchTask(Callable<T> load, Consumer<T> callback) {
+            super(load);
+            mCallback = callback;
+        }
+
+        @Override
+        protected void done() {
+            T result = null;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.w(TAG, "Prefetch failed", e);
+            }
+            final T finalResult = result;
+            mHandler.post(() -> mCallback.accept(finalResult));
+        }
+    }
+}
@@ -28,6 +28,8 @@ import androidx.preference.PreferenceFragment;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceScreen;
 import android.text.format.Formatter;
+import android.util.ArraySet;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -41,28 +43,35 @@ import com.android.settingslib.HelpUtils;
 import com.android.settingslib.applications.AppUtils;
 import com.android.storagemanager.ButtonBarProvider;
 import com.android.storagemanager.R;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.deletionhelper.RequestedBytesSelector.Candidate;
 import com.android.storagemanager.overlay.DeletionHelperFeatureProvider;
 import com.android.storagemanager.overlay.FeatureFactory;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Settings screen for the deletion helper, which manually removes data which is not recently used.
  */
 public class DeletionHelperSettings extends PreferenceFragment
         implements DeletionType.FreeableChangedListener, View.OnClickListener {
+    private static final String TAG = "DeletionHelperSettings";
     public static final boolean COUNT_UNCHECKED = true;
     public static final boolean COUNT_CHECKED_ONLY = false;
 
     protected static final String APPS_KEY = "apps_group";
     protected static final String KEY_DOWNLOADS_PREFERENCE = "delete_downloads";
     protected static final String KEY_PHOTOS_VIDEOS_PREFERENCE = "delete_photos";
+    protected static final String KEY_APP_CACHES_PREFERENCE = "delete_app_caches";
     protected static final String KEY_GAUGE_PREFERENCE = "deletion_gauge";
 
     private static final String THRESHOLD_KEY = "threshold_key";
     private static final int DOWNLOADS_LOADER_ID = 1;
-    private static final int NUM_DELETION_TYPES = 3;
+    private static final int NUM_DELETION_TYPES = 4;
     private static final long UNSET = -1;
 
     private List<DeletionType> mDeletableContentList;
@@ -70,6 +79,11 @@ public class DeletionHelperSettings extends PreferenceFragment
     @VisibleForTesting AppDeletionType mAppBackend;
     @VisibleForTesting DownloadsDeletionPreferenceGroup mDownloadsPreference;
     private DownloadsDeletionType mDownloadsDeletion;
+    // The downloads hidden by the empty state, shown again if the threshold is switched back.
+    private DownloadsDeletionPreferenceGroup mHiddenDownloadsPreference;
+    private DownloadsDeletionType mHiddenDownloadsDeletion;
+    @VisibleForTesting AppCachesDeletionPreferenceGroup mAppCachesPreference;
+    private AppCacheDeletionType mAppCachesDeletion;
     private PhotosDeletionPreference mPhotoPreference;
     private Preference mGaugePreference;
     private DeletionType mPhotoVideoDeletion;
@@ -77,8 +91,10 @@ public class DeletionHelperSettings extends PreferenceFragment
     private DeletionHelperFeatureProvider mProvider;
     private int mThresholdType;
     @VisibleForTesting long mBytesToFree = UNSET;
+    private boolean mRequestedBytesSelected;
     private int mResult;
     private LoadingSpinnerController mLoadingController;
+    private DeletionHelperResults mResults;
 
     public static DeletionHelperSettings newInstance(int thresholdType) {
         DeletionHelperSettings instance = new DeletionHelperSettings();
@@ -95,7 +111,9 @@ public class DeletionHelperSettings extends PreferenceFragment
         mApps = (AppDeletionPreferenceGroup) findPreference(APPS_KEY);
         mPhotoPreference = (PhotosDeletionPreference) findPreference(KEY_PHOTOS_VIDEOS_PREFERENCE);
         mProvider = FeatureFactory.getFactory(getActivity()).getDeletionHelperFeatureProvider();
-        mLoadingController = new LoadingSpinnerController((DeletionHelperActivity) getActivity());
+        DeletionHelperActivity activity = (DeletionHelperActivity) getActivity();
+        mLoadingController = new LoadingSpinnerController(activity);
+        mResults = activity != null ? activity.getResults() : null;
         if (mProvider != null) {
             mPhotoVideoDeletion =
                     mProvider.createPhotoVideoDeletionType(getContext(), mThresholdType);
@@ -103,19 +121,29 @@ public class DeletionHelperSettings extends PreferenceFragment
 
         HashSet<String> checkedApplications = null;
         if (savedInstanceState != null) {
+            // Keep the selection the user already made rather than selecting for them again.
+            mRequestedBytesSelected = true;
             checkedApplications =
                     (HashSet<String>) savedInstanceState.getSerializable(
                             AppDeletionType.EXTRA_CHECKED_SET);
         }
-        mAppBackend = new AppDeletionType(this, checkedApplications, mThresholdType);
+        mAppBackend = new AppDeletionType(this, checkedApplications, mThresholdType, mResults);
         mAppBackend.registerView(mApps);
         mAppBackend.registerFreeableChangedListener(this);
+        mAppBackend.setDeletionCallback(
+                new PackageDeletionTask.Callback() {
+                    @Override
+                    public void onComplete(PackageDeletionTask.BatchResult result) {
+                        Log.i(TAG, "Uninstalled " + (result.getResults().size()
+                                - result.getFailureCount()) + " apps, freeing "
+                                + result.getFreedBytes() + " bytes");
+                    }
+                });
         mApps.setDeletionType(mAppBackend);
 
         mDeletableContentList = new ArrayList<>(NUM_DELETION_TYPES);
 
         mGaugePreference = findPreference(KEY_GAUGE_PREFERENCE);
-        Activity activity = getActivity();
         if (activity != null && mGaugePreference != null) {
             Intent intent = activity.getIntent();
             if (intent != null) {
@@ -185,10 +213,26 @@ public class DeletionHelperSettings extends PreferenceFragment
         }
         mDownloadsPreference =
                 (DownloadsDeletionPreferenceGroup) findPreference(KEY_DOWNLOADS_PREFERENCE);
-        mDownloadsDeletion = new DownloadsDeletionType(getActivity(), uncheckedFiles);
+        mDownloadsDeletion = new DownloadsDeletionType(getActivity(), uncheckedFiles, mResults);
         mDownloadsPreference.registerFreeableChangedListener(this);
         mDownloadsPreference.registerDeletionService(mDownloadsDeletion);
         mDeletableContentList.add(mDownloadsDeletion);
+
+        // Caches are listed ahead of the apps, since clearing them does not uninstall anything.
+        // Their sizes come from the same load as the apps.
+        String[] checkedCaches = null;
+        if (savedInstanceState != null) {
+            checkedCaches =
+                    savedInstanceState.getStringArray(AppCacheDeletionType.EXTRA_CHECKED_CACHES);
+        }
+        mAppCachesPreference =
+                (AppCachesDeletionPreferenceGroup) findPreference(KEY_APP_CACHES_PREFERENCE);
+        mAppCachesDeletion = new AppCacheDeletionType(checkedCaches);
+        mAppCachesPreference.registerFreeableChangedListener(this);
+        mAppCachesPreference.registerDeletionService(mAppCachesDeletion);
+        mAppCachesDeletion.setUninstalledApps(mAppBackend);
+        mAppBackend.registerLoadedAppsListener(mAppCachesDeletion);
+        mDeletableContentList.add(mAppCachesDeletion);
         if (isEmptyState()) {
             setupEmptyState();
         }
@@ -207,15 +251,81 @@ public class DeletionHelperSettings extends PreferenceFragment
 
         // Nulling out the downloads preferences means we won't accidentally delete what isn't
         // visible.
+        mHiddenDownloadsDeletion = mDownloadsDeletion;
+        mHiddenDownloadsPreference = mDownloadsPreference;
         mDownloadsDeletion = null;
         mDownloadsPreference = null;
     }
 
+    private void leaveEmptyState() {
+        final PreferenceScreen screen = getPreferenceScreen();
+        screen.addPreference(mApps);
+        if (mHiddenDownloadsPreference == null) {
+            return;
+        }
+        mDownloadsPreference = mHiddenDownloadsPreference;
+        mDownloadsDeletion = mHiddenDownloadsDeletion;
+        mHiddenDownloadsPreference = null;
+        mHiddenDownloadsDeletion = null;
+        screen.addPreference(mDownloadsPreference);
+        if (isResumed()
+                && getActivity().checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
+                        == PackageManager.PERMISSION_GRANTED) {
+            loadDownloads();
+        }
+    }
+
     private boolean isEmptyState() {
         // We know we are in the empty state if our loader is not using a threshold.
         return mThresholdType == AppsAsyncLoader.NO_THRESHOLD;
     }
 
+    /**
+     * Switches the threshold the items are shown for, such as {@link
+     * AppsAsyncLoader#NO_THRESHOLD}. The apps already loaded are filtered again in place rather
+     * than loaded again by a new fragment.
+     */
+    public void setThresholdType(int thresholdType) {
+        if (thresholdType == mThresholdType) {
+            return;
+        }
+        final boolean wasEmptyState = isEmptyState();
+        mThresholdType = thresholdType;
+        // The fragment is recreated with the threshold it last showed.
+        getArguments().putInt(THRESHOLD_KEY, thresholdType);
+        mAppBackend.setThresholdType(thresholdType);
+        if (mProvider != null && mPhotoVideoDeletion != null) {
+            replacePhotoVideoDeletion();
+        }
+        if (isEmptyState() && !wasEmptyState) {
+            setupEmptyState();
+        } else if (wasEmptyState && !isEmptyState()) {
+            leaveEmptyState();
+        }
+        updateFreeButtonText();
+    }
+
+    /** The photos and videos are scanned by the provider, which only takes a threshold up front. */
+    private void replacePhotoVideoDeletion() {
+        final int index = mDeletableContentList.indexOf(mPhotoVideoDeletion);
+        if (isResumed()) {
+            mPhotoVideoDeletion.onPause();
+        }
+        mPhotoVideoDeletion = mProvider.createPhotoVideoDeletionType(getContext(), mThresholdType);
+        if (mPhotoVideoDeletion == null) {
+            mDeletableContentList.remove(index);
+            getPreferenceScreen().removePreference(mPhotoPreference);
+            mPhotoPreference.setEnabled(false);
+            return;
+        }
+        mDeletableContentList.set(index, mPhotoVideoDeletion);
+        mPhotoPreference.setDaysToKeep(mProvider.getDaysToKeep(mThresholdType));
+        mPhotoPreference.registerDeletionService(mPhotoVideoDeletion);
+        if (isResumed()) {
+            mPhotoVideoDeletion.onResume();
+        }
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -229,7 +339,7 @@ public class DeletionHelperSettings extends PreferenceFragment
         if (mDownloadsDeletion != null
                 && getActivity().checkSelfPermission(Manifest.permission.READ_EXTERNAL_STORAGE)
                         == PackageManager.PERMISSION_GRANTED) {
-            getLoaderManager().initLoader(DOWNLOADS_LOADER_ID, new Bundle(), mDownloadsDeletion);
+            loadDownloads();
         }
     }
 
@@ -260,8 +370,13 @@ public class DeletionHelperSettings extends PreferenceFragment
         // bytesFreeable is the number of bytes freed by a single deletion type. If it is non-zero,
         // there is stuff to free and we can enable it. If it is zero, though, we still need to get
         // getTotalFreeableSpace to check all deletion types.
+        // Nothing is freed based on a stale snapshot of the apps; it is only shown until the fresh
+        // apps arrive.
         if (mFree != null) {
-            mFree.setEnabled(bytesFreeable != 0 || getTotalFreeableSpace(COUNT_CHECKED_ONLY) != 0);
+            mFree.setEnabled(
+                    !isShowingSnapshot()
+                            && (bytesFreeable != 0
+                                    || getTotalFreeableSpace(COUNT_CHECKED_ONLY) != 0));
         }
         updateFreeButtonText();
 
@@ -270,11 +385,156 @@ public class DeletionHelperSettings extends PreferenceFragment
         if (allTypesEmpty() && !isEmptyState()) {
             startEmptyState();
         }
+
+        maybeSelectRequestedBytes();
+    }
+
+    /**
+     * Once every category has loaded, checks the smallest selection which frees the space the
+     * calling app asked for, so that the user does not have to work it out. This only happens
+     * once; the user can change the selection afterwards.
+     */
+    private void maybeSelectRequestedBytes() {
+        if (mBytesToFree <= 0 || mRequestedBytesSelected || !allTypesLoaded()) {
+            return;
+        }
+        mRequestedBytesSelected = true;
+
+        List<Candidate> selection =
+                RequestedBytesSelector.select(getSelectionCandidates(), mBytesToFree);
+        Log.i(TAG, "Selected " + selection.size() + " items to free " + mBytesToFree + " bytes");
+        applySelection(selection);
+    }
+
+    /** Returns every item the user could check, across all categories. */
+    @VisibleForTesting
+    List<Candidate> getSelectionCandidates() {
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        if (mAppCachesPreference != null && mAppCachesDeletion != null) {
+            // Caches hold nothing the user would miss, so they rank as if unused for the longest.
+            List<PackageInfo> caches = mAppCachesDeletion.getApps();
+            for (int i = 0, size = caches.size(); i < size; i++) {
+                PackageInfo app = caches.get(i);
+                candidates.add(
+                        new Candidate(
+                                MeasuredDeletion.CATEGORY_APP_CACHES,
+                                app.getKey(),
+                                app.cacheBytes,
+                                RequestedBytesSelector.MAX_RANKED_DAYS));
+            }
+        }
+        if (mPhotoPreference != null && mPhotoVideoDeletion != null && mProvider != null) {
+            // Only photos and videos older than the days to keep are freeable.
+            candidates.add(
+                    new Candidate(
+                            MeasuredDeletion.CATEGORY_PHOTOS,
+                            MeasuredDeletion.CATEGORY_PHOTOS,
+                            mPhotoPreference.getFreeableBytes(COUNT_UNCHECKED),
+                            mProvider.getDaysToKeep(mThresholdType)));
+        }
+        if (mDownloadsPreference != null && mDownloadsDeletion != null) {
+            Set<File> files = mDownloadsDeletion.getFiles();
+            if (files != null) {
+                final long now = System.currentTimeMillis();
+                for (File file : files) {
+                    candidates.add(
+                            new Candidate(
+                                    MeasuredDeletion.CATEGORY_DOWNLOADS,
+                                    file.getPath(),
+                                    file.length(),
+                                    TimeUnit.MILLISECONDS.toDays(now - file.lastModified())));
+                }
+            }
+        }
+        List<PackageInfo> apps = mAppBackend != null ? mAppBackend.getApps() : null;
+        if (apps != null) {
+            // The cache of an app is offered above, so the app only adds the rest of its size.
+            final boolean cachesOffered =
+                    mAppCachesPreference != null && mAppCachesDeletion != null;
+            for (int i = 0, size = apps.size(); i < size; i++) {
+                PackageInfo app = apps.get(i);
+                candidates.add(
+                        new Candidate(
+                                MeasuredDeletion.CATEGORY_APPS,
+                                app.getKey(),
+                                cachesOffered
+                                        ? RequestedBytesSelector.getBytesWithoutCache(
+                                                app.size, app.cacheBytes)
+                                        : app.size,
+                                app.daysSinceLastUse));
+            }
+        }
+        return candidates;
+    }
+
+    /** Checks exactly the given items, and unchecks everything else. */
+    @VisibleForTesting
+    void applySelection(List<Candidate> selection) {
+        HashSet<String> apps = new HashSet<>();
+        ArraySet<String> files = new ArraySet<>();
+        ArraySet<String> caches = new ArraySet<>();
+        boolean photos = false;
+        for (int i = 0, size = selection.size(); i < size; i++) {
+            Candidate candidate = selection.get(i);
+            switch (candidate.category) {
+                case MeasuredDeletion.CATEGORY_APPS:
+                    apps.add(candidate.key);
+                    break;
+                case MeasuredDeletion.CATEGORY_DOWNLOADS:
+                    files.add(candidate.key);
+                    break;
+                case MeasuredDeletion.CATEGORY_APP_CACHES:
+                    caches.add(candidate.key);
+                    break;
+                case MeasuredDeletion.CATEGORY_PHOTOS:
+                    photos = true;
+                    break;
+            }
+        }
+
+        if (mAppCachesPreference != null && mAppCachesDeletion != null) {
+            List<PackageInfo> cacheApps = mAppCachesDeletion.getApps();
+            for (int i = 0, size = cacheApps.size(); i < size; i++) {
+                final String key = cacheApps.get(i).getKey();
+                mAppCachesDeletion.setChecked(key, caches.contains(key));
+            }
+            mAppCachesPreference.refreshCheckedApps();
+        }
+        if (mPhotoPreference != null && mPhotoVideoDeletion != null) {
+            mPhotoPreference.setChecked(photos);
+        }
+        if (mDownloadsPreference != null && mDownloadsDeletion != null
+                && mDownloadsDeletion.getFiles() != null) {
+            for (File file : mDownloadsDeletion.getFiles()) {
+                mDownloadsDeletion.setFileChecked(file, files.contains(file.getPath()));
+            }
+            mDownloadsPreference.refreshCheckedFiles();
+        }
+        // Rebuilding the app list reports the new freeable size, which updates the free button.
+        mAppBackend.setCheckedApps(apps);
+    }
+
+    private boolean isShowingSnapshot() {
+        return mAppBackend != null && mAppBackend.isShowingSnapshot();
+    }
+
+    private boolean allTypesLoaded() {
+        return !isShowingSnapshot()
+                && isLoaded(mAppBackend)
+                && isLoaded(mDownloadsDeletion)
+                && isLoaded(mAppCachesDeletion)
+                && isLoaded(mPhotoVideoDeletion);
+    }
+
+    private static boolean isLoaded(DeletionType type) {
+        return type == null || type.getLoadingStatus() != DeletionType.LoadingStatus.LOADING;
     }
 
     private boolean allTypesEmpty() {
         return mAppBackend.isEmpty()
+                && !mAppBackend.isShowingSnapshot()
                 && (mDownloadsDeletion == null || mDownloadsDeletion.isEmpty())
+                && (mAppCachesDeletion == null || mAppCachesDeletion.isEmpty())
                 && (mPhotoVideoDeletion == null || mPhotoVideoDeletion.isEmpty());
     }
 
@@ -292,19 +552,39 @@ public class DeletionHelperSettings extends PreferenceFragment
             setResultCode(Activity.RESULT_OK);
         }
 
-        // This should be fine as long as there is only one extra deletion feature.
-        // In the future, this should be done in an async queue in order to not
-        // interfere with the simultaneous PackageDeletionTask.
+        // The deletion types clear their data through the activity.
         Activity activity = getActivity();
+        if (activity == null) {
+            return;
+        }
+
+        // The deletion types are queued on the process-wide orchestrator, which runs them one after
+        // another so that they do not compete with the uninstalls for I/O, and keeps running them
+        // once this screen is closed. Clearing caches is quick and loses nothing, so it goes first;
+        // uninstalls are the slowest and go last.
+        MeasuredDeletion deletion =
+                new MeasuredDeletion(activity, ReclaimLog.getInstance(activity));
         if (mPhotoPreference != null && mPhotoPreference.isChecked()) {
-            mPhotoVideoDeletion.clearFreeableData(activity);
+            deletion.add(MeasuredDeletion.CATEGORY_PHOTOS, mPhotoVideoDeletion,
+                    DeletionOrchestrator.PRIORITY_DEFAULT,
+                    mPhotoPreference.getFreeableBytes(COUNT_CHECKED_ONLY));
         }
         if (mDownloadsPreference != null) {
-            mDownloadsDeletion.clearFreeableData(activity);
+            deletion.add(MeasuredDeletion.CATEGORY_DOWNLOADS, mDownloadsDeletion,
+                    DeletionOrchestrator.PRIORITY_DEFAULT,
+                    mDownloadsDeletion.getFreeableBytes(COUNT_CHECKED_ONLY));
+        }
+        if (mAppCachesPreference != null) {
+            deletion.add(MeasuredDeletion.CATEGORY_APP_CACHES, mAppCachesDeletion,
+                    DeletionOrchestrator.PRIORITY_HIGH,
+                    mAppCachesPreference.getFreeableBytes(COUNT_CHECKED_ONLY));
         }
         if (mAppBackend != null) {
-            mAppBackend.clearFreeableData(activity);
+            deletion.add(MeasuredDeletion.CATEGORY_APPS, mAppBackend,
+                    DeletionOrchestrator.PRIORITY_LOW,
+                    mAppBackend.getTotalAppsFreeableSpace(COUNT_CHECKED_ONLY));
         }
+        deletion.run(activity);
     }
 
     @Override
@@ -328,12 +608,32 @@ public class DeletionHelperSettings extends PreferenceFragment
         if (requestCode == 0) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 mDownloadsDeletion.onResume();
-                getLoaderManager().initLoader(DOWNLOADS_LOADER_ID, new Bundle(),
-                        mDownloadsDeletion);
+                loadDownloads();
             }
         }
     }
 
+    /**
+     * Shows the downloads retained by the activity, waits for the activity to finish loading them,
+     * or loads them if the activity has not.
+     */
+    private void loadDownloads() {
+        if (mDownloadsDeletion.attachRetainedResult()) {
+            return;
+        }
+        final DownloadsDeletionType downloadsDeletion = mDownloadsDeletion;
+        if (mResults != null
+                && mResults.whenDownloadsLoaded(
+                        downloads -> {
+                            if (isAdded()) {
+                                downloadsDeletion.attachResult(downloads);
+                            }
+                        })) {
+            return;
+        }
+        getLoaderManager().initLoader(DOWNLOADS_LOADER_ID, new Bundle(), mDownloadsDeletion);
+    }
+
     @Override
     public void onCreateOptionsMenu(Menu menu, MenuInflater menuInflater) {
         Activity activity = getActivity();
@@ -393,6 +693,9 @@ public class DeletionHelperSettings extends PreferenceFragment
         if (mDownloadsPreference != null) {
             freeableSpace += mDownloadsDeletion.getFreeableBytes(countUnchecked);
         }
+        if (mAppCachesPreference != null) {
+            freeableSpace += mAppCachesPreference.getFreeableBytes(countUnchecked);
+        }
         return freeableSpace;
     }
 
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * DeletionOrchestrator runs deletion jobs from a process-wide priority queue. Only a bounded number
+ * of jobs run at once, so that the deletion types do not compete with each other for I/O. Jobs are
+ * not tied to the screen which queued them and run to completion after it finishes, unless they
+ * are cancelled. A job whose deletion type throws, or stops reporting for {@link
+ * #JOB_TIMEOUT_MILLIS}, is finished anyway so that it does not hold up the queue.
+ */
+public class DeletionOrchestrator {
+    private static final String TAG = "DeletionOrchestrator";
+
+    /** Jobs which are cheap and lose nothing the user cares about, such as cached data. */
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    /** Jobs which are slow or remove things the user may miss, such as apps. */
+    public static final int PRIORITY_LOW = 2;
+
+    /**
+     * The default number of jobs which may run at the same time. A single job at a time keeps the
+     * free space measured around each job attributable to it.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 1;
+
+    /**
+     * How long a running job may go without reporting progress before it is considered stuck and
+     * finished. Uninstalls report each app, so this only needs to cover the slowest single item.
+     */
+    public static final long JOB_TIMEOUT_MILLIS = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final Comparator<Job> JOB_ORDER =
+            new Comparator<Job>() {
+                @Override
+                public int compare(Job job1, Job job2) {
+                    int compareResult = Integer.compare(job1.priority, job2.priority);
+                    if (compareResult != 0) {
+                        return compareResult;
+                    }
+                    return Long.compare(job1.mSequence, job2.mSequence);
+                }
+            };
+
+    private static DeletionOrchestrator sInstance;
+
+    private final Object mLock = new Object();
+    private final PriorityQueue<Job> mQueue = new PriorityQueue<>(11, JOB_ORDER);
+    private final ArrayList<Job> mRunning = new ArrayList<>();
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Handler mTimeoutHandler;
+    private int mMaxConcurrentJobs = DEFAULT_MAX_CONCURRENT_JOBS;
+    private long mNextSequence;
+
+    /** Returns the process-wide orchestrator, creating it if needed. */
+    public static synchronized DeletionOrchestrator getInstance() {
+        if (sInstance == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sInstance =
+                    new DeletionOrchestrator(
+                            AsyncTask.THREAD_POOL_EXECUTOR, handler::post, handler);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param backgroundExecutor Runs the job listeners, which may do I/O.
+     * @param mainExecutor Starts each deletion type, since they expect to be used on the main
+     *     thread.
+     * @param timeoutHandler Finishes the jobs which stop reporting.
+     */
+    @VisibleForTesting
+    DeletionOrchestrator(
+            Executor backgroundExecutor, Executor mainExecutor, Handler timeoutHandler) {
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mTimeoutHandler = timeoutHandler;
+    }
+
+    /** Sets how many jobs may run at the same time. */
+    public void setMaxConcurrentJobs(int maxConcurrentJobs) {
+        synchronized (mLock) {
+            mMaxConcurrentJobs = Math.max(1, maxConcurrentJobs);
+        }
+        schedule();
+    }
+
+    /**
+     * Queues a deletion type to be cleared. Jobs with a lower priority value run first; jobs with
+     * the same priority run in the order they were queued.
+     *
+     * @param activity The activity the deletion type clears its data through. Only deletion types
+     *     which {@link DeletionType#requiresActivity() require} it hold it until the job finishes;
+     *     the others are given the application context.
+     * @param name The name of the job, such as {@link MeasuredDeletion#CATEGORY_APPS}.
+     * @param type The deletion type to clear.
+     * @param priority The priority of the job, such as {@link #PRIORITY_DEFAULT}.
+     * @param estimatedBytes The freeable size the deletion type reports for the checked items.
+     * @param listener Receives the progress of the job on a background thread.
+     */
+    public Job enqueue(
+            Activity activity,
+            String name,
+            DeletionType type,
+            int priority,
+            long estimatedBytes,
+            @Nullable Listener listener) {
+        final Job job;
+        synchronized (mLock) {
+            job =
+                    new Job(
+                            type.requiresActivity() ? activity : activity.getApplicationContext(),
+                            name,
+                            type,
+                            priority,
+                            estimatedBytes,
+                            listener,
+                            mNextSequence++);
+            mQueue.add(job);
+        }
+        schedule();
+        return job;
+    }
+
+    /**
+     * Cancels a job. A queued job never starts. A running job stops as soon as its deletion type
+     * notices, which may be only once it is done. Either way, the listener is told when the job
+     * finishes.
+     *
+     * @return Whether the job had not finished yet.
+     */
+    public boolean cancel(Job job) {
+        final boolean wasQueued;
+        synchronized (mLock) {
+            if (job.mState == Job.STATE_FINISHED) {
+                return false;
+            }
+            job.mCancelled = true;
+            wasQueued = mQueue.remove(job);
+            if (wasQueued) {
+                job.mState = Job.STATE_FINISHED;
+                job.mContext = null;
+            }
+        }
+        if (wasQueued && job.mListener != null) {
+            mBackgroundExecutor.execute(() -> job.mListener.onJobFinished(job));
+        }
+        return true;
+    }
+
+    /** Returns the jobs which are queued or running, in no particular order. */
+    public List<Job> getPendingJobs() {
+        synchronized (mLock) {
+            ArrayList<Job> jobs = new ArrayList<>(mRunning.size() + mQueue.size());
+            jobs.addAll(mRunning);
+            jobs.addAll(mQueue);
+            return jobs;
+        }
+    }
+
+    private void schedule() {
+        while (true) {
+            final Job job;
+            synchronized (mLock) {
+                if (mRunning.size() >= mMaxConcurrentJobs || mQueue.isEmpty()) {
+                    return;
+                }
+                job = mQueue.poll();
+                job.mState = Job.STATE_RUNNING;
+                mRunning.add(job);
+            }
+            mBackgroundExecutor.execute(() -> start(job));
+        }
+    }
+
+    private void start(Job job) {
+        if (job.mListener != null) {
+            job.mListener.onJobStarted(job);
+        }
+        job.restartTimeout();
+        mMainExecutor.execute(
+                () -> {
+                    try {
+                        job.mType.clearFreeableData(job.mContext, job.mClearListener);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to clear " + job.name, e);
+                        job.mClearListener.onCleared();
+                    }
+                });
+    }
+
+    private void finish(Job job) {
+        synchronized (mLock) {
+            mRunning.remove(job);
+            job.mState = Job.STATE_FINISHED;
+        }
+        if (job.mListener != null) {
+            job.mListener.onJobFinished(job);
+        }
+        job.mContext = null;
+        schedule();
+    }
+
+    /** A deletion type queued to be cleared. */
+    public class Job {
+        public static final int STATE_QUEUED = 0;
+        public static final int STATE_RUNNING = 1;
+        public static final int STATE_FINISHED = 2;
+
+        public final String name;
+        public final int priority;
+        public final long estimatedBytes;
+
+        private final DeletionType mType;
+        private final Listener mListener;
+        private final long mSequence;
+        private Context mContext;
+        private volatile int mState = STATE_QUEUED;
+        private volatile boolean mCancelled;
+        private volatile int mCompleted;
+        private volatile int mTotal;
+        private boolean mCleared;
+
+        private final Runnable mTimeout =
+                () -> {
+                    Log.w(TAG, "Finishing " + name + ", which stopped reporting");
+                    mClearListener.onCleared();
+                };
+
+        private final DeletionType.ClearListener mClearListener =
+                new DeletionType.ClearListener() {
+                    @Override
+                    public void onCleared() {
+                        synchronized (mLock) {
+                            if (mCleared) {
+                                return;
+                            }
+                            mCleared = true;
+                        }
+                        mTimeoutHandler.removeCallbacks(mTimeout);
+                        mBackgroundExecutor.execute(() -> finish(Job.this));
+                    }
+
+                    @Override
+                    public void onProgress(int completed, int total) {
+                        mCompleted = completed;
+                        mTotal = total;
+                        restartTimeout();
+                        if (mListener != null) {
+                            mListener.onJobProgress(Job.this, completed, total);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return mCancelled;
+                    }
+                };
+
+        private Job(
+                Context context,
+                String name,
+                DeletionType type,
+                int priority,
+                long estimatedBytes,
+                Listener listener,
+                long sequence) {
+            mContext = context;
+            this.name = name;
+            mType = type;
+            this.priority = priority;
+            this.estimatedBytes = estimatedBytes;
+            mListener = listener;
+            mSequence = sequence;
+        }
+
+        private void restartTimeout() {
+            mTimeoutHandler.removeCallbacks(mTimeout);
+            mTimeoutHandler.postDelayed(mTimeout, JOB_TIMEOUT_MILLIS);
+        }
+
+        /** Returns the state of the job, such as {@link #STATE_RUNNING}. */
+        public int getState() {
+            return mState;
+        }
+
+        /** Returns whether the job was cancelled. A cancelled job may still have deleted items. */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /** Returns the number of items handled so far, if the deletion type reports progress. */
+        public int getCompleted() {
+            return mCompleted;
+        }
+
+        /** Returns the number of items to handle, or 0 if the deletion type has not said. */
+        public int getTotal() {
+            return mTotal;
+        }
+    }
+
+    /** Receives the progress of a job. The methods are called on a background thread. */
+    public interface Listener {
+        /** Called before the deletion type of the job is cleared. */
+        default void onJobStarted(Job job) {}
+
+        /** Called as the deletion type of the job makes progress, for deletion types which can. */
+        default void onJobProgress(Job job, int completed, int total) {}
+
+        /** Called once the job has finished, including when it was cancelled. */
+        void onJobFinished(Job job);
+    }
+}
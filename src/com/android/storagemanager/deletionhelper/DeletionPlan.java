@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A DeletionPlan is an immutable list of the items one deletion type would delete, with their
+ * sizes. A plan is a dry run: building one deletes nothing, and executing it with the {@link
+ * DeletionPlanner} deletes exactly its items without scanning for them again.
+ */
+public class DeletionPlan {
+    /** The category the plan belongs to, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+    public final String category;
+    /** The items to delete. */
+    public final List<Item> items;
+    /** The sum of the sizes of the items. */
+    public final long totalBytes;
+    /** When the items were scanned, in milliseconds since the epoch. */
+    public final long createdMillis;
+
+    private DeletionPlan(Builder builder) {
+        category = builder.mCategory;
+        items = Collections.unmodifiableList(new ArrayList<>(builder.mItems));
+        totalBytes = builder.mTotalBytes;
+        createdMillis = builder.mCreatedMillis;
+    }
+
+    /** Returns whether the plan would delete nothing. */
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /** Prints the plan, for dumpsys. */
+    public void dump(PrintWriter pw) {
+        pw.println("  " + category + ": " + items.size() + " items, " + totalBytes + " bytes");
+        for (int i = 0, size = items.size(); i < size; i++) {
+            Item item = items.get(i);
+            pw.println("    " + item.key + " " + item.bytes);
+        }
+    }
+
+    /** A single item of a plan. */
+    public static class Item {
+        /**
+         * Identifies the item within its category: the {@link AppsAsyncLoader.PackageInfo#getKey()
+         * key} of an app, or the path of a file.
+         */
+        public final String key;
+        /** The size of the item, or 0 if it is unknown. */
+        public final long bytes;
+        /** The volume the item is stored on. Internal storage is null. */
+        @Nullable public final String volumeUuid;
+
+        public Item(String key, long bytes, @Nullable String volumeUuid) {
+            this.key = key;
+            this.bytes = bytes;
+            this.volumeUuid = volumeUuid;
+        }
+    }
+
+    public static class Builder {
+        private final String mCategory;
+        private final ArrayList<Item> mItems = new ArrayList<>();
+        private long mTotalBytes;
+        private long mCreatedMillis = System.currentTimeMillis();
+
+        public Builder(String category) {
+            mCategory = category;
+        }
+
+        /** Adds an item to the plan. Sizes which are negative are unknown and counted as 0. */
+        public Builder addItem(String key, long bytes, @Nullable String volumeUuid) {
+            final long size = Math.max(bytes, 0);
+            mItems.add(new Item(key, size, volumeUuid));
+            mTotalBytes += size;
+            return this;
+        }
+
+        public Builder setCreatedMillis(long createdMillis) {
+            mCreatedMillis = createdMillis;
+            return this;
+        }
+
+        public DeletionPlan build() {
+            return new DeletionPlan(this);
+        }
+    }
+}
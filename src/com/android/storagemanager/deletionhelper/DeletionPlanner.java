@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.content.pm.IPackageDataObserver;
+import android.os.AsyncTask;
+import android.os.Environment;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.android.internal.logging.MetricsLogger;
+import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
+import com.android.settingslib.applications.StorageStatsSource;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.AppFilter;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+import com.android.storagemanager.deletionhelper.DeletionType.ClearListener;
+import com.android.storagemanager.deletionhelper.FetchDownloadsLoader.DownloadsResult;
+import com.android.storagemanager.overlay.FeatureFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * DeletionPlanner answers "what would be deleted, and how much would it free?" without the UI. It
+ * scans each category into an immutable {@link DeletionPlan}, and executes plans exactly as they
+ * were scanned. The deletion types of the deletion helper build their plans from what the user
+ * checked and execute them through the planner as well, so every caller deletes the same way.
+ */
+public class DeletionPlanner {
+    private static final String TAG = "DeletionPlanner";
+
+    private final Context mContext;
+    private PackageDeletionTask.Callback mAppDeletionCallback;
+
+    public DeletionPlanner(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Sets a callback to receive the progress and the aggregated result of the uninstalls of an
+     * apps plan, in addition to the listener passed to {@link #execute}.
+     */
+    public void setAppDeletionCallback(@Nullable PackageDeletionTask.Callback callback) {
+        mAppDeletionCallback = callback;
+    }
+
+    /**
+     * Scans every category the planner can scan. Headless plans contain every candidate, since
+     * nobody has unchecked anything.
+     *
+     * @param thresholdType The threshold for apps, such as {@link
+     *     AppsAsyncLoader#NORMAL_THRESHOLD}.
+     */
+    @WorkerThread
+    public List<DeletionPlan> computePlans(int thresholdType) {
+        // The caches and the apps are both taken from a single scan of the eligible apps.
+        final List<PackageInfo> eligibleApps = loadEligibleApps();
+        final AppFilter filter = AppDeletionType.getFilter(mContext, thresholdType);
+        filter.init();
+        ArrayList<PackageInfo> apps = new ArrayList<>(eligibleApps.size());
+        for (int i = 0, size = eligibleApps.size(); i < size; i++) {
+            PackageInfo app = eligibleApps.get(i);
+            if (filter.filterStorage(app)) {
+                apps.add(app);
+            }
+        }
+
+        ArrayList<DeletionPlan> plans = new ArrayList<>(3);
+        plans.add(createAppCachesPlan(AppCacheDeletionType.getAppsWithCache(eligibleApps)));
+        plans.add(planDownloads());
+        plans.add(createAppsPlan(apps));
+        return plans;
+    }
+
+    /** Scans the apps which have not been used within the given threshold. */
+    @WorkerThread
+    public DeletionPlan planApps(int thresholdType) {
+        AppsAsyncLoader loader =
+                new AppsAsyncLoader.Builder(mContext)
+                        .setUid(UserHandle.myUserId())
+                        .setProfileIds(getProfileIds())
+                        .setStorageStatsSource(new StorageStatsSource(mContext))
+                        .setPackageManager(mContext.getPackageManager())
+                        .setLastUsedStore(LastUsedStore.getInstance(mContext))
+                        .setScorer(FeatureFactory.getFactory(mContext).getAppScorer())
+                        .setFilter(AppDeletionType.getFilter(mContext, thresholdType))
+                        .build();
+        return createAppsPlan(loader.loadInBackground());
+    }
+
+    /** Scans the old files in the Downloads directory. */
+    @WorkerThread
+    public DeletionPlan planDownloads() {
+        // Nothing is shown, so the thumbnails are not needed.
+        DownloadsResult result =
+                FetchDownloadsLoader.collectFiles(
+                        Environment.getExternalStoragePublicDirectory(
+                                Environment.DIRECTORY_DOWNLOADS),
+                        false /* loadThumbnails */);
+        return createDownloadsPlan(result.files);
+    }
+
+    /**
+     * Scans the apps which have cached data. These are the apps the deletion helper could offer
+     * to uninstall, regardless of when they were last used.
+     */
+    @WorkerThread
+    public DeletionPlan planAppCaches() {
+        return createAppCachesPlan(AppCacheDeletionType.getAppsWithCache(loadEligibleApps()));
+    }
+
+    /** Loads every app the deletion helper could offer, as the deletion helper does. */
+    @WorkerThread
+    private List<PackageInfo> loadEligibleApps() {
+        return AppDeletionType.createLoader(mContext).loadInBackground();
+    }
+
+    /** Returns a plan which uninstalls the given apps. */
+    public static DeletionPlan createAppsPlan(List<PackageInfo> apps) {
+        DeletionPlan.Builder builder = new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APPS);
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            PackageInfo app = apps.get(i);
+            builder.addItem(app.getKey(), app.size, app.volumeUuid);
+        }
+        return builder.build();
+    }
+
+    /** Returns a plan which deletes the given files. */
+    public static DeletionPlan createDownloadsPlan(Collection<File> files) {
+        DeletionPlan.Builder builder =
+                new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_DOWNLOADS);
+        for (File file : files) {
+            builder.addItem(file.getPath(), file.length(), null);
+        }
+        return builder.build();
+    }
+
+    /** Returns a plan which clears the caches of the given apps. */
+    public static DeletionPlan createAppCachesPlan(List<PackageInfo> apps) {
+        DeletionPlan.Builder builder =
+                new DeletionPlan.Builder(MeasuredDeletion.CATEGORY_APP_CACHES);
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            PackageInfo app = apps.get(i);
+            builder.addItem(app.getKey(), app.cacheBytes, app.volumeUuid);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the bytes which the apps plans and the app caches plans among the given plans both
+     * count. The size of an app includes its cache, so these bytes are freed only once.
+     */
+    public static long getOverlappingCacheBytes(List<DeletionPlan> plans) {
+        final ArrayMap<String, Long> cacheBytes = new ArrayMap<>();
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            DeletionPlan plan = plans.get(i);
+            if (MeasuredDeletion.CATEGORY_APP_CACHES.equals(plan.category)) {
+                for (int j = 0, count = plan.items.size(); j < count; j++) {
+                    DeletionPlan.Item item = plan.items.get(j);
+                    cacheBytes.put(item.key, item.bytes);
+                }
+            }
+        }
+
+        long overlappingBytes = 0;
+        for (int i = 0, size = plans.size(); i < size && !cacheBytes.isEmpty(); i++) {
+            DeletionPlan plan = plans.get(i);
+            if (!MeasuredDeletion.CATEGORY_APPS.equals(plan.category)) {
+                continue;
+            }
+            for (int j = 0, count = plan.items.size(); j < count; j++) {
+                DeletionPlan.Item item = plan.items.get(j);
+                Long cache = cacheBytes.get(item.key);
+                if (cache != null) {
+                    overlappingBytes += Math.min(item.bytes, cache);
+                }
+            }
+        }
+        return overlappingBytes;
+    }
+
+    /**
+     * Deletes the items of a plan. Items which no longer exist are skipped; nothing is scanned
+     * again.
+     *
+     * @param plan The plan to execute.
+     * @param listener Receives the progress of the deletion. It may be called on any thread.
+     */
+    public void execute(DeletionPlan plan, @Nullable ClearListener listener) {
+        if (plan.isEmpty()) {
+            notifyCleared(listener);
+            return;
+        }
+
+        switch (plan.category) {
+            case MeasuredDeletion.CATEGORY_APPS:
+                executeApps(plan, listener);
+                break;
+            case MeasuredDeletion.CATEGORY_DOWNLOADS:
+                executeDownloads(plan, listener);
+                break;
+            case MeasuredDeletion.CATEGORY_APP_CACHES:
+                executeAppCaches(plan, listener);
+                break;
+            default:
+                Log.w(TAG, "Cannot execute a plan for " + plan.category);
+                notifyCleared(listener);
+                break;
+        }
+    }
+
+    /** Scans every category and prints the plans, for dumpsys. */
+    @WorkerThread
+    public void dump(PrintWriter pw, int thresholdType) {
+        List<DeletionPlan> plans = computePlans(thresholdType);
+        long totalBytes = -getOverlappingCacheBytes(plans);
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            totalBytes += plans.get(i).totalBytes;
+        }
+        pw.println("Deletion plan (" + totalBytes + " bytes):");
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            plans.get(i).dump(pw);
+        }
+    }
+
+    private void executeApps(DeletionPlan plan, @Nullable ClearListener listener) {
+        final ArrayList<PackageInfo> apps = new ArrayList<>(plan.items.size());
+        for (int i = 0, size = plan.items.size(); i < size; i++) {
+            PackageInfo app = toPackageInfo(plan.items.get(i));
+            if (app != null) {
+                apps.add(app);
+            }
+        }
+
+        final PackageDeletionTask.Callback deletionCallback = mAppDeletionCallback;
+        PackageDeletionTask task = new PackageDeletionTask(mContext.getPackageManager(), apps,
+                new PackageDeletionTask.Callback() {
+                    @Override
+                    public void onProgress(
+                            PackageDeletionTask.Result result, int completed, int total) {
+                        if (deletionCallback != null) {
+                            deletionCallback.onProgress(result, completed, total);
+                        }
+                        if (listener != null) {
+                            listener.onProgress(completed, total);
+                        }
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return listener != null && listener.isCancelled();
+                    }
+
+                    @Override
+                    public void onComplete(PackageDeletionTask.BatchResult result) {
+                        if (!result.isSuccess()) {
+                            Log.e(TAG, "Failed to uninstall " + result.getFailureCount() + " of "
+                                    + result.getResults().size() + " packages.");
+                            MetricsLogger.action(mContext,
+                                    MetricsEvent.ACTION_DELETION_HELPER_APPS_DELETION_FAIL);
+                        }
+                        if (deletionCallback != null) {
+                            deletionCallback.onComplete(result);
+                        }
+                        notifyCleared(listener);
+                    }
+                });
+        task.run();
+    }
+
+    private void executeDownloads(DeletionPlan plan, @Nullable ClearListener listener) {
+        AsyncTask.execute(
+                () -> {
+                    boolean succeeded = true;
+                    final int total = plan.items.size();
+                    for (int i = 0; i < total; i++) {
+                        if (listener != null && listener.isCancelled()) {
+                            break;
+                        }
+                        File file = new File(plan.items.get(i).key);
+                        succeeded = (file.delete() || !file.exists()) && succeeded;
+                        if (listener != null) {
+                            listener.onProgress(i + 1, total);
+                        }
+                    }
+
+                    if (!succeeded) {
+                        MetricsLogger.action(mContext,
+                                MetricsEvent.ACTION_DELETION_HELPER_DOWNLOADS_DELETION_FAIL);
+                    }
+                    notifyCleared(listener);
+                });
+    }
+
+    /**
+     * Clears the caches of the apps in the plan, one app after another. Only the planned apps are
+     * touched, and the deletion can be cancelled between apps.
+     */
+    private void executeAppCaches(DeletionPlan plan, @Nullable ClearListener listener) {
+        final ArrayList<PackageInfo> apps = new ArrayList<>(plan.items.size());
+        for (int i = 0, size = plan.items.size(); i < size; i++) {
+            PackageInfo app = toPackageInfo(plan.items.get(i));
+            if (app != null) {
+                apps.add(app);
+            }
+        }
+        clearAppCache(apps, 0, listener);
+    }
+
+    private void clearAppCache(
+            List<PackageInfo> apps, int index, @Nullable ClearListener listener) {
+        if (index >= apps.size() || (listener != null && listener.isCancelled())) {
+            notifyCleared(listener);
+            return;
+        }
+
+        final PackageInfo app = apps.get(index);
+        mContext.getPackageManager()
+                .deleteApplicationCacheFilesAsUser(
+                        app.packageName,
+                        app.userId,
+                        new IPackageDataObserver.Stub() {
+                            @Override
+                            public void onRemoveCompleted(
+                                    String packageName, boolean succeeded) {
+                                if (!succeeded) {
+                                    Log.w(TAG, "Failed to clear the cache of " + packageName);
+                                }
+                                if (listener != null) {
+                                    listener.onProgress(index + 1, apps.size());
+                                }
+                                clearAppCache(apps, index + 1, listener);
+                            }
+                        });
+    }
+
+    /** Returns the app an item of an apps plan refers to, from its {@link PackageInfo#getKey()}. */
+    @VisibleForTesting
+    static PackageInfo toPackageInfo(DeletionPlan.Item item) {
+        final int separator = item.key.indexOf('/');
+        if (separator <= 0) {
+            Log.w(TAG, "Malformed app key " + item.key);
+            return null;
+        }
+        try {
+            return new PackageInfo.Builder()
+                    .setUserId(Integer.parseInt(item.key.substring(0, separator)))
+                    .setPackageName(item.key.substring(separator + 1))
+                    .setSize(item.bytes)
+                    .setVolumeUuid(item.volumeUuid)
+                    .build();
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Malformed app key " + item.key, e);
+            return null;
+        }
+    }
+
+    private int[] getProfileIds() {
+        return mContext.getSystemService(UserManager.class)
+                .getEnabledProfileIds(UserHandle.myUserId());
+    }
+
+    private static void notifyCleared(@Nullable ClearListener listener) {
+        if (listener != null) {
+            listener.onCleared();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A DeletionPolicy describes what a {@link HeadlessDeletion} should delete, without naming the
+ * items: the categories to scan, the threshold for apps and, optionally, how much space is needed.
+ * The categories are scanned and deleted in the order they are given, and there is no default: a
+ * policy must name at least one.
+ */
+public class DeletionPolicy {
+    /** The categories a policy may name, cheapest to lose first. */
+    public static final List<String> SUPPORTED_CATEGORIES =
+            Collections.unmodifiableList(
+                    Arrays.asList(
+                            MeasuredDeletion.CATEGORY_APP_CACHES,
+                            MeasuredDeletion.CATEGORY_DOWNLOADS,
+                            MeasuredDeletion.CATEGORY_APPS));
+
+    /** The categories to delete, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+    public final List<String> categories;
+    /** The threshold for apps, such as {@link AppsAsyncLoader#NORMAL_THRESHOLD}. */
+    public final int thresholdType;
+    /**
+     * The space to free. If positive, only the items which cover it best are deleted, as picked
+     * by the {@link RequestedBytesSelector}. Otherwise, every item scanned is deleted.
+     */
+    public final long requestedBytes;
+    /** Whether to only scan, and report what would have been deleted. */
+    public final boolean dryRun;
+
+    private DeletionPolicy(Builder builder) {
+        categories = Collections.unmodifiableList(new ArrayList<>(builder.mCategories));
+        thresholdType = builder.mThresholdType;
+        requestedBytes = builder.mRequestedBytes;
+        dryRun = builder.mDryRun;
+    }
+
+    @Override
+    public String toString() {
+        return "DeletionPolicy{categories=" + categories + ", thresholdType=" + thresholdType
+                + ", requestedBytes=" + requestedBytes + ", dryRun=" + dryRun + "}";
+    }
+
+    public static class Builder {
+        private List<String> mCategories = Collections.emptyList();
+        private int mThresholdType = AppsAsyncLoader.NORMAL_THRESHOLD;
+        private long mRequestedBytes;
+        private boolean mDryRun;
+
+        /** Sets the categories to delete, in order, out of {@link #SUPPORTED_CATEGORIES}. */
+        public Builder setCategories(List<String> categories) {
+            mCategories = categories;
+            return this;
+        }
+
+        public Builder setThresholdType(int thresholdType) {
+            mThresholdType = thresholdType;
+            return this;
+        }
+
+        public Builder setRequestedBytes(long requestedBytes) {
+            mRequestedBytes = requestedBytes;
+            return this;
+        }
+
+        public Builder setDryRun(boolean dryRun) {
+            mDryRun = dryRun;
+            return this;
+        }
+
+        /** @throws IllegalStateException If no categories were set. */
+        public DeletionPolicy build() {
+            if (mCategories.isEmpty()) {
+                throw new IllegalStateException("A deletion policy needs categories");
+            }
+            return new DeletionPolicy(this);
+        }
+    }
+}
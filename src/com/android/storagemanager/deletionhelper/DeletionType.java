@@ -17,8 +17,10 @@
 package com.android.storagemanager.deletionhelper;
 
 import android.app.Activity;
+import android.content.Context;
 import android.os.Bundle;
 import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
 
 /**
  * Helper for the Deletion Helper which can query, clear out, and visualize deletable data.
@@ -59,6 +61,39 @@ public interface DeletionType {
      */
     void clearFreeableData(Activity activity);
 
+    /**
+     * Asynchronously free up the freeable information for the feature, and tell the listener once
+     * it is done. Deletion types which cannot tell when they are done report completion as soon as
+     * the deletion has been started.
+     *
+     * @param context The context to clear the data through. It is an activity if the deletion
+     *     type {@link #requiresActivity() requires} one, and may be the application context
+     *     otherwise.
+     * @param listener Receives the progress of the deletion. It may be called on any thread.
+     */
+    default void clearFreeableData(Context context, ClearListener listener) {
+        clearFreeableData((Activity) context);
+        listener.onCleared();
+    }
+
+    /**
+     * Returns whether {@link #clearFreeableData(Context, ClearListener)} must be given an activity.
+     * Deletion types which only implement {@link #clearFreeableData(Activity)} do, so that the
+     * activity is kept only as long as they need it.
+     */
+    default boolean requiresActivity() {
+        return true;
+    }
+
+    /**
+     * Returns a plan of the items {@link #clearFreeableData} would delete right now, or null if
+     * the deletion type cannot tell in advance.
+     */
+    @Nullable
+    default DeletionPlan createPlan() {
+        return null;
+    }
+
     /** @return The number of items found that are available for deletion. */
     int getContentCount();
 
@@ -97,6 +132,28 @@ public interface DeletionType {
         void onFreeableChanged(int numItems, long bytesFreeable);
     }
 
+    /** Callback interface to follow the deletion started by {@link #clearFreeableData}. */
+    interface ClearListener {
+        /** Called exactly once, after the deletion has finished or stopped early. */
+        void onCleared();
+
+        /**
+         * Called as the deletion makes progress, for deletion types which can tell.
+         *
+         * @param completed The number of items handled so far.
+         * @param total The number of items to handle.
+         */
+        default void onProgress(int completed, int total) {}
+
+        /**
+         * Polled by deletion types which can stop part way. Items which were already deleted stay
+         * deleted.
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
     /**
      * Updates the loading status of the deletion type based on whether content is available to
      * delete or not.
@@ -126,6 +126,33 @@ public class DownloadsDeletionPreferenceGroup extends CollapsibleCheckboxPrefere
         return true;
     }
 
+    /**
+     * Updates the file checkboxes after the checked files of the deletion type were changed
+     * without going through this group, and reports the new freeable size.
+     */
+    public void refreshCheckedFiles() {
+        if (mDeletionType == null || mDeletionType.getFiles() == null) {
+            return;
+        }
+
+        boolean allChecked = true;
+        for (int i = 0; i < getPreferenceCount(); i++) {
+            DownloadsFilePreference p = (DownloadsFilePreference) getPreference(i);
+            boolean checked = mDeletionType.isChecked(p.getFile());
+            p.setOnPreferenceChangeListener(null);
+            p.setChecked(checked);
+            p.setOnPreferenceChangeListener(this);
+            allChecked &= checked;
+        }
+        // As when a file is toggled by hand, the group is only checked if every file is.
+        setOnPreferenceChangeListener(null);
+        setChecked(allChecked);
+        setOnPreferenceChangeListener(this);
+        maybeUpdateListener(
+                mDeletionType.getFiles().size(),
+                mDeletionType.getFreeableBytes(DeletionHelperSettings.COUNT_CHECKED_ONLY));
+    }
+
     @Override
     public void onClick() {
         super.onClick();
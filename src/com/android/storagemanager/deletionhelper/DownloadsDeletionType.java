@@ -21,17 +21,15 @@ import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Loader;
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import androidx.annotation.Nullable;
 import android.util.ArraySet;
 
-import com.android.internal.logging.MetricsLogger;
-import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 import com.android.storagemanager.deletionhelper.FetchDownloadsLoader.DownloadsResult;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
@@ -50,10 +48,21 @@ public class DownloadsDeletionType implements DeletionType, LoaderCallbacks<Down
     private ArraySet<String> mUncheckedFiles;
     private HashMap<File, Bitmap> mThumbnails;
     private int mLoadingStatus;
+    private DeletionHelperResults mResults;
 
     public DownloadsDeletionType(Context context, String[] uncheckedFiles) {
+        this(context, uncheckedFiles, null);
+    }
+
+    /**
+     * @param results The results retained by the activity, which the loaded downloads are kept
+     *     in, or null if nothing is retained.
+     */
+    public DownloadsDeletionType(
+            Context context, String[] uncheckedFiles, @Nullable DeletionHelperResults results) {
         mLoadingStatus = LoadingStatus.LOADING;
         mContext = context;
+        mResults = results;
         mFiles = new ArraySet<>();
         mUncheckedFiles = new ArraySet<>();
         if (uncheckedFiles != null) {
@@ -85,24 +94,31 @@ public class DownloadsDeletionType implements DeletionType, LoaderCallbacks<Down
 
     @Override
     public void clearFreeableData(Activity activity) {
+        clearFreeableData(activity, null);
+    }
+
+    @Override
+    public void clearFreeableData(Context context, @Nullable ClearListener listener) {
+        new DeletionPlanner(context).execute(createPlan(), listener);
+    }
+
+    @Override
+    public boolean requiresActivity() {
+        return false;
+    }
+
+    /** Returns a plan which deletes the checked files. */
+    @Override
+    public DeletionPlan createPlan() {
+        ArrayList<File> files = new ArrayList<>();
         if (mFiles != null) {
-            AsyncTask.execute(new Runnable() {
-                @Override
-                public void run() {
-                    boolean succeeded = true;
-                    for (File entry : mFiles) {
-                        if (isChecked(entry)) {
-                            succeeded = succeeded && entry.delete();
-                        }
-                    }
-
-                    if (!succeeded) {
-                        MetricsLogger.action(activity,
-                                MetricsEvent.ACTION_DELETION_HELPER_DOWNLOADS_DELETION_FAIL);
-                    }
+            for (File file : mFiles) {
+                if (isChecked(file)) {
+                    files.add(file);
                 }
-            });
+            }
         }
+        return DeletionPlanner.createDownloadsPlan(files);
     }
 
     @Override
@@ -126,8 +142,32 @@ public class DownloadsDeletionType implements DeletionType, LoaderCallbacks<Down
                 Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS));
     }
 
+    /**
+     * Shows the downloads retained from an earlier load, if there are any.
+     *
+     * @return Whether the downloads were retained, in which case they need not be loaded again.
+     */
+    public boolean attachRetainedResult() {
+        final DownloadsResult data = mResults != null ? mResults.getDownloads() : null;
+        if (data == null) {
+            return false;
+        }
+        attachResult(data);
+        return true;
+    }
+
+    /** Shows downloads which were loaded elsewhere, unless some are already shown. */
+    public void attachResult(DownloadsResult data) {
+        if (mLoadingStatus == LoadingStatus.LOADING) {
+            onLoadFinished(null, data);
+        }
+    }
+
     @Override
     public void onLoadFinished(Loader<DownloadsResult> loader, DownloadsResult data) {
+        if (mResults != null) {
+            mResults.setDownloads(data);
+        }
         mMostRecent = data.youngestLastModified;
         for (File file : data.files) {
             mFiles.add(file);
@@ -61,10 +61,20 @@ public class FetchDownloadsLoader extends AsyncLoader<FetchDownloadsLoader.Downl
 
     @VisibleForTesting
     static DownloadsResult collectFiles(File dir) {
-        return collectFiles(dir, new DownloadsResult());
+        return collectFiles(dir, true /* loadThumbnails */);
     }
 
-    private static DownloadsResult collectFiles(File dir, DownloadsResult result) {
+    /**
+     * Collects the old files in the directory and its subdirectories.
+     *
+     * @param loadThumbnails Whether to decode thumbnails of the images, which only the UI needs.
+     */
+    static DownloadsResult collectFiles(File dir, boolean loadThumbnails) {
+        return collectFiles(dir, new DownloadsResult(), loadThumbnails);
+    }
+
+    private static DownloadsResult collectFiles(
+            File dir, DownloadsResult result, boolean loadThumbnails) {
         int minimumAgeDays = SystemProperties.getInt(DEBUG_FILE_AGE_OVERRIDE, MINIMUM_AGE_DAYS);
         final long last_modified_threshold = System.currentTimeMillis() -
                 minimumAgeDays * DateUtils.DAY_IN_MILLIS;
@@ -72,7 +82,7 @@ public class FetchDownloadsLoader extends AsyncLoader<FetchDownloadsLoader.Downl
         if (downloadFiles != null && downloadFiles.length > 0) {
             for (File currentFile : downloadFiles) {
                 if (currentFile.isDirectory()) {
-                    collectFiles(currentFile, result);
+                    collectFiles(currentFile, result, loadThumbnails);
                 } else {
                     // Skip files that have been modified too recently.
                     if (last_modified_threshold < currentFile.lastModified()) {
@@ -85,7 +95,7 @@ public class FetchDownloadsLoader extends AsyncLoader<FetchDownloadsLoader.Downl
                     result.files.add(currentFile);
                     result.totalSize += currentFile.length();
 
-                    if (IconProvider.isImageType(currentFile)) {
+                    if (loadThumbnails && IconProvider.isImageType(currentFile)) {
                         Bitmap thumbnail =
                                 ThumbnailUtils.createImageThumbnail(
                                         currentFile.getAbsolutePath(),
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.text.format.DateUtils;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.AppFilter;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * FreeableSpaceEstimator keeps an estimate of how much the deletion helper could free in each
+ * category, so that it can be answered without scanning. A stale estimate is still returned, and
+ * computed again in the background; any number of callers asking at the same time share a single
+ * computation.
+ *
+ * <p>The categories do not overlap, so their bytes add up: the apps category leaves out the
+ * caches which the app caches category counts, even though an uninstall frees them as well.
+ *
+ * <p>Before the first computation finishes, the estimate comes from the last {@link
+ * CandidateSnapshot}, which does not cover the app caches.
+ */
+public class FreeableSpaceEstimator {
+    private static final String TAG = "FreeableSpaceEstimator";
+
+    /** How old an estimate may get before it is computed again. */
+    public static final long MAX_AGE_MILLIS = 15 * DateUtils.MINUTE_IN_MILLIS;
+
+    private final Context mContext;
+    private final Executor mExecutor;
+    private final Callable<Estimate> mComputation;
+    private final Runnable mOnUpdated;
+    private Estimate mEstimate;
+    private boolean mComputing;
+    private boolean mSnapshotRead;
+
+    /**
+     * @param onUpdated Called on a background thread whenever a new estimate is available.
+     */
+    public FreeableSpaceEstimator(Context context, Runnable onUpdated) {
+        this(
+                context.getApplicationContext(),
+                AsyncTask.THREAD_POOL_EXECUTOR,
+                () -> compute(context.getApplicationContext()),
+                onUpdated);
+    }
+
+    /**
+     * @param context The context to read the snapshot through, or null to start without one.
+     */
+    @VisibleForTesting
+    FreeableSpaceEstimator(
+            @Nullable Context context,
+            Executor executor,
+            Callable<Estimate> computation,
+            Runnable onUpdated) {
+        mContext = context;
+        mExecutor = executor;
+        mComputation = computation;
+        mOnUpdated = onUpdated;
+    }
+
+    /**
+     * Returns the current estimate, or null if there is none yet. If it is missing or older than
+     * {@link #MAX_AGE_MILLIS}, a computation starts unless one is already running.
+     */
+    @WorkerThread
+    @Nullable
+    public Estimate getEstimate(long now) {
+        synchronized (this) {
+            if (mEstimate == null && !mSnapshotRead && mContext != null) {
+                mSnapshotRead = true;
+                mEstimate =
+                        fromSnapshot(
+                                mContext,
+                                CandidateSnapshot.read(CandidateSnapshot.getFile(mContext)));
+            }
+            if (!mComputing && (mEstimate == null || !mEstimate.isFresh(now))) {
+                mComputing = true;
+                mExecutor.execute(this::computeEstimate);
+            }
+            return mEstimate;
+        }
+    }
+
+    /** Returns whether an estimate is being computed. */
+    public synchronized boolean isComputing() {
+        return mComputing;
+    }
+
+    private void computeEstimate() {
+        Estimate estimate = null;
+        try {
+            estimate = mComputation.call();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to estimate the freeable space", e);
+        }
+        synchronized (this) {
+            mComputing = false;
+            if (estimate == null) {
+                return;
+            }
+            mEstimate = estimate;
+        }
+        mOnUpdated.run();
+    }
+
+    /** Scans every category with the default threshold. */
+    @WorkerThread
+    private static Estimate compute(Context context) {
+        final long now = System.currentTimeMillis();
+        return fromPlans(
+                now, new DeletionPlanner(context).computePlans(AppsAsyncLoader.NORMAL_THRESHOLD));
+    }
+
+    /** Returns the estimate of the given plans, with the apps net of the caches. */
+    @VisibleForTesting
+    static Estimate fromPlans(long now, List<DeletionPlan> plans) {
+        final long overlappingBytes = DeletionPlanner.getOverlappingCacheBytes(plans);
+        ArrayList<Category> categories = new ArrayList<>(plans.size());
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            DeletionPlan plan = plans.get(i);
+            long bytes = plan.totalBytes;
+            if (MeasuredDeletion.CATEGORY_APPS.equals(plan.category)) {
+                bytes -= overlappingBytes;
+            }
+            categories.add(new Category(plan.category, plan.items.size(), bytes));
+        }
+        return new Estimate(now, categories);
+    }
+
+    /** Returns the estimate of a snapshot with the default threshold, or null if there is none. */
+    @VisibleForTesting
+    @Nullable
+    static Estimate fromSnapshot(Context context, @Nullable CandidateSnapshot snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+        final AppFilter filter =
+                AppDeletionType.getFilter(context, AppsAsyncLoader.NORMAL_THRESHOLD);
+        filter.init();
+        int appsCount = 0;
+        long appsBytes = 0;
+        for (int i = 0, size = snapshot.apps.size(); i < size; i++) {
+            PackageInfo app = snapshot.apps.get(i);
+            if (filter.filterStorage(app)) {
+                appsCount++;
+                appsBytes += Math.max(app.size, 0);
+            }
+        }
+        ArrayList<Category> categories = new ArrayList<>(2);
+        categories.add(
+                new Category(
+                        MeasuredDeletion.CATEGORY_DOWNLOADS,
+                        snapshot.downloadsCount,
+                        snapshot.downloadsBytes));
+        categories.add(new Category(MeasuredDeletion.CATEGORY_APPS, appsCount, appsBytes));
+        return new Estimate(snapshot.timeMillis, categories);
+    }
+
+    /** The freeable space of every category, as of a point in time. */
+    public static class Estimate {
+        /** When the estimate was computed, in milliseconds since the epoch. */
+        public final long timeMillis;
+        /** The categories the estimate covers. */
+        public final List<Category> categories;
+
+        public Estimate(long timeMillis, List<Category> categories) {
+            this.timeMillis = timeMillis;
+            this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+        }
+
+        /** Returns whether the estimate is younger than {@link #MAX_AGE_MILLIS}. */
+        public boolean isFresh(long now) {
+            return now >= timeMillis && now - timeMillis < MAX_AGE_MILLIS;
+        }
+    }
+
+    /** The freeable space of a single category. */
+    public static class Category {
+        /** The name of the category, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+        public final String name;
+        /** The number of items which could be deleted. */
+        public final int count;
+        /** The sum of the sizes of the items. */
+        public final long bytes;
+
+        public Category(String name, int count, long bytes) {
+            this.name = name;
+            this.count = count;
+            this.bytes = bytes;
+        }
+    }
+}
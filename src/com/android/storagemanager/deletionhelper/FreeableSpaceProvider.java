@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import androidx.annotation.VisibleForTesting;
+import com.android.storagemanager.deletionhelper.FreeableSpaceEstimator.Category;
+import com.android.storagemanager.deletionhelper.FreeableSpaceEstimator.Estimate;
+
+/**
+ * FreeableSpaceProvider tells other system UIs, such as Settings, how much the deletion helper
+ * could free without launching it. Querying {@link #CONTENT_URI} returns a row per category with
+ * the estimate of the {@link FreeableSpaceEstimator}, which is answered from memory. If the
+ * estimate is stale, it is computed again in the background and the URI is notified once the new
+ * estimate is available. There are no rows if nothing has been estimated yet.
+ *
+ * <p>The cursor extras tell whether a computation is running, in {@link #EXTRA_COMPUTING}.
+ */
+public class FreeableSpaceProvider extends ContentProvider {
+    public static final String AUTHORITY = "com.android.storagemanager.freeable";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/estimate");
+
+    /** The name of the category, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+    public static final String COLUMN_CATEGORY = "category";
+    /** The number of items which could be deleted. */
+    public static final String COLUMN_COUNT = "count";
+    /**
+     * The number of bytes which could be freed. The rows add up, since the apps row leaves out the
+     * caches the app caches row counts.
+     */
+    public static final String COLUMN_BYTES = "bytes";
+    /** When the estimate was computed, in milliseconds since the epoch. */
+    public static final String COLUMN_TIME_MILLIS = "time_millis";
+
+    /** Whether a new estimate is being computed, as a boolean extra of the cursor. */
+    public static final String EXTRA_COMPUTING = "computing";
+
+    private static final String[] COLUMNS = {
+        COLUMN_CATEGORY, COLUMN_COUNT, COLUMN_BYTES, COLUMN_TIME_MILLIS
+    };
+
+    private FreeableSpaceEstimator mEstimator;
+
+    @Override
+    public boolean onCreate() {
+        mEstimator =
+                new FreeableSpaceEstimator(
+                        getContext(),
+                        () -> getContext().getContentResolver().notifyChange(CONTENT_URI, null));
+        return true;
+    }
+
+    @VisibleForTesting
+    void setEstimator(FreeableSpaceEstimator estimator) {
+        mEstimator = estimator;
+    }
+
+    @Override
+    public Cursor query(
+            Uri uri,
+            String[] projection,
+            String selection,
+            String[] selectionArgs,
+            String sortOrder) {
+        final Estimate estimate = mEstimator.getEstimate(System.currentTimeMillis());
+        final String[] columns = projection != null ? projection : COLUMNS;
+        final MatrixCursor cursor =
+                new MatrixCursor(columns, estimate != null ? estimate.categories.size() : 0);
+        if (estimate != null) {
+            for (int i = 0, size = estimate.categories.size(); i < size; i++) {
+                Category category = estimate.categories.get(i);
+                MatrixCursor.RowBuilder row = cursor.newRow();
+                row.add(COLUMN_CATEGORY, category.name);
+                row.add(COLUMN_COUNT, category.count);
+                row.add(COLUMN_BYTES, category.bytes);
+                row.add(COLUMN_TIME_MILLIS, estimate.timeMillis);
+            }
+        }
+        final Bundle extras = new Bundle();
+        extras.putBoolean(EXTRA_COMPUTING, mEstimator.isComputing());
+        cursor.setExtras(extras);
+        cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+        return cursor;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("The estimate is read-only");
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The estimate is read-only");
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("The estimate is read-only");
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import com.android.storagemanager.deletionhelper.RequestedBytesSelector.Candidate;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * HeadlessDeletion scans and deletes in the background without any UI, so that storage management
+ * job providers, the shell and enterprise tooling can free space the same way the deletion helper
+ * does. It takes either a {@link DeletionPolicy}, which is scanned into plans
+ * first, or plans which were already scanned. The plans are executed one after another by the
+ * {@link DeletionPlanner}, and the free space is measured around each of them. A plan which throws,
+ * or stops reporting for {@link DeletionOrchestrator#JOB_TIMEOUT_MILLIS}, is considered done, so
+ * that a run always finishes.
+ *
+ * <p>Every run which deletes something is appended to the {@link ReclaimLog}.
+ */
+public class HeadlessDeletion {
+    private static final String TAG = "HeadlessDeletion";
+
+    private final Context mContext;
+    private final DeletionPlanner mPlanner;
+    private final ReclaimLog mLog;
+    private final Executor mExecutor;
+    private final Handler mTimeoutHandler;
+
+    public HeadlessDeletion(Context context) {
+        this(
+                context,
+                new DeletionPlanner(context.getApplicationContext()),
+                ReclaimLog.getInstance(context),
+                AsyncTask.THREAD_POOL_EXECUTOR,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    @VisibleForTesting
+    HeadlessDeletion(
+            Context context,
+            DeletionPlanner planner,
+            ReclaimLog log,
+            Executor executor,
+            Handler timeoutHandler) {
+        mContext = context.getApplicationContext();
+        mPlanner = planner;
+        mLog = log;
+        mExecutor = executor;
+        mTimeoutHandler = timeoutHandler;
+    }
+
+    /**
+     * Scans the categories of the policy and deletes what it selects.
+     *
+     * @param listener Receives the result on a background thread.
+     */
+    public void run(DeletionPolicy policy, Listener listener) {
+        mExecutor.execute(
+                () -> {
+                    List<DeletionPlan> plans;
+                    try {
+                        plans = plan(policy);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to scan for " + policy, e);
+                        plans = Collections.emptyList();
+                    }
+                    new Run(plans, policy.dryRun, listener).next();
+                });
+    }
+
+    /**
+     * Deletes the items of the plans, without scanning again.
+     *
+     * @param listener Receives the result on a background thread.
+     */
+    public void run(List<DeletionPlan> plans, Listener listener) {
+        mExecutor.execute(() -> new Run(plans, false /* dryRun */, listener).next());
+    }
+
+    /** Scans the categories of a policy, and keeps the items which cover its requested bytes. */
+    @WorkerThread
+    @VisibleForTesting
+    List<DeletionPlan> plan(DeletionPolicy policy) {
+        ArrayList<DeletionPlan> plans = new ArrayList<>(policy.categories.size());
+        for (int i = 0, size = policy.categories.size(); i < size; i++) {
+            final String category = policy.categories.get(i);
+            switch (category) {
+                case MeasuredDeletion.CATEGORY_APP_CACHES:
+                    plans.add(mPlanner.planAppCaches());
+                    break;
+                case MeasuredDeletion.CATEGORY_DOWNLOADS:
+                    plans.add(mPlanner.planDownloads());
+                    break;
+                case MeasuredDeletion.CATEGORY_APPS:
+                    plans.add(mPlanner.planApps(policy.thresholdType));
+                    break;
+                default:
+                    Log.w(TAG, "Cannot delete " + category);
+                    break;
+            }
+        }
+        if (policy.requestedBytes > 0) {
+            return selectRequestedBytes(plans, policy.requestedBytes);
+        }
+        return plans;
+    }
+
+    /**
+     * Narrows the plans down to the items which cover the requested bytes best. An app's size
+     * includes its cache, so an app is offered without its cache, and the cache of an app which is
+     * uninstalled is not cleared first.
+     */
+    private static List<DeletionPlan> selectRequestedBytes(
+            List<DeletionPlan> plans, long requestedBytes) {
+        final ArrayMap<String, Long> cacheBytes = new ArrayMap<>();
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            DeletionPlan plan = plans.get(i);
+            if (MeasuredDeletion.CATEGORY_APP_CACHES.equals(plan.category)) {
+                for (int j = 0, count = plan.items.size(); j < count; j++) {
+                    DeletionPlan.Item item = plan.items.get(j);
+                    cacheBytes.put(item.key, item.bytes);
+                }
+            }
+        }
+
+        ArrayList<Candidate> candidates = new ArrayList<>();
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            DeletionPlan plan = plans.get(i);
+            final boolean apps = MeasuredDeletion.CATEGORY_APPS.equals(plan.category);
+            for (int j = 0, count = plan.items.size(); j < count; j++) {
+                DeletionPlan.Item item = plan.items.get(j);
+                long bytes = item.bytes;
+                Long cache = apps ? cacheBytes.get(item.key) : null;
+                if (cache != null) {
+                    bytes = RequestedBytesSelector.getBytesWithoutCache(bytes, cache);
+                }
+                // Plans do not keep how long ago their items were used.
+                candidates.add(new Candidate(plan.category, item.key, bytes, -1));
+            }
+        }
+
+        final ArrayMap<String, ArraySet<String>> selectedKeys = new ArrayMap<>();
+        List<Candidate> selected = RequestedBytesSelector.select(candidates, requestedBytes);
+        for (int i = 0, size = selected.size(); i < size; i++) {
+            Candidate candidate = selected.get(i);
+            ArraySet<String> keys = selectedKeys.get(candidate.category);
+            if (keys == null) {
+                keys = new ArraySet<>();
+                selectedKeys.put(candidate.category, keys);
+            }
+            keys.add(candidate.key);
+        }
+
+        final ArraySet<String> selectedApps = selectedKeys.get(MeasuredDeletion.CATEGORY_APPS);
+        ArrayList<DeletionPlan> selectedPlans = new ArrayList<>(plans.size());
+        for (int i = 0, size = plans.size(); i < size; i++) {
+            DeletionPlan plan = plans.get(i);
+            ArraySet<String> keys = selectedKeys.get(plan.category);
+            final boolean caches = MeasuredDeletion.CATEGORY_APP_CACHES.equals(plan.category);
+            DeletionPlan.Builder builder =
+                    new DeletionPlan.Builder(plan.category).setCreatedMillis(plan.createdMillis);
+            for (int j = 0, count = plan.items.size(); j < count; j++) {
+                DeletionPlan.Item item = plan.items.get(j);
+                if (caches && selectedApps != null && selectedApps.contains(item.key)) {
+                    continue;
+                }
+                if (keys != null && keys.contains(item.key)) {
+                    builder.addItem(item.key, item.bytes, item.volumeUuid);
+                }
+            }
+            selectedPlans.add(builder.build());
+        }
+        return selectedPlans;
+    }
+
+    /** Returns the free space summed over every mounted private volume. */
+    @VisibleForTesting
+    protected long getFreeBytes() {
+        return MeasuredDeletion.getFreeBytes(mContext);
+    }
+
+    /** A single run, which executes its plans one after another. */
+    private class Run {
+        private final List<DeletionPlan> mPlans;
+        private final boolean mDryRun;
+        private final Listener mListener;
+        private final long mStartMillis = System.currentTimeMillis();
+        private final long mFreeBytesBefore = getFreeBytes();
+        private final ArrayList<CategoryResult> mResults = new ArrayList<>();
+        private int mIndex;
+        private long mFreeBytesAtStart;
+
+        Run(List<DeletionPlan> plans, boolean dryRun, Listener listener) {
+            mPlans = plans;
+            mDryRun = dryRun;
+            mListener = listener;
+        }
+
+        void next() {
+            while (mIndex < mPlans.size()) {
+                final DeletionPlan plan = mPlans.get(mIndex);
+                if (mDryRun || plan.isEmpty()) {
+                    mResults.add(
+                            new CategoryResult(
+                                    plan.category, plan.items.size(), plan.totalBytes, 0));
+                    mIndex++;
+                    continue;
+                }
+                mFreeBytesAtStart = getFreeBytes();
+                final PlanListener listener = new PlanListener(plan);
+                listener.restartTimeout();
+                try {
+                    mPlanner.execute(plan, listener);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to execute the plan for " + plan.category, e);
+                    listener.onCleared();
+                }
+                return;
+            }
+            finish();
+        }
+
+        private void onCleared(DeletionPlan plan) {
+            mResults.add(
+                    new CategoryResult(
+                            plan.category,
+                            plan.items.size(),
+                            plan.totalBytes,
+                            getFreeBytes() - mFreeBytesAtStart));
+            mIndex++;
+            next();
+        }
+
+        /**
+         * Hands the end of a plan back to the run exactly once, whether the planner reports it or
+         * the plan times out.
+         */
+        private class PlanListener implements DeletionType.ClearListener {
+            private final DeletionPlan mPlan;
+            private final Runnable mTimeout;
+            private boolean mCleared;
+
+            PlanListener(DeletionPlan plan) {
+                mPlan = plan;
+                mTimeout =
+                        () -> {
+                            Log.w(TAG, "Finishing " + plan.category + ", which stopped reporting");
+                            onCleared();
+                        };
+            }
+
+            void restartTimeout() {
+                mTimeoutHandler.removeCallbacks(mTimeout);
+                mTimeoutHandler.postDelayed(mTimeout, DeletionOrchestrator.JOB_TIMEOUT_MILLIS);
+            }
+
+            @Override
+            public void onCleared() {
+                synchronized (this) {
+                    if (mCleared) {
+                        return;
+                    }
+                    mCleared = true;
+                }
+                mTimeoutHandler.removeCallbacks(mTimeout);
+                // The planner may call back on any thread, so the next plan starts on ours.
+                mExecutor.execute(() -> Run.this.onCleared(mPlan));
+            }
+
+            @Override
+            public void onProgress(int completed, int total) {
+                restartTimeout();
+            }
+        }
+
+        private void finish() {
+            final Result result =
+                    new Result(mStartMillis, mDryRun, mFreeBytesBefore, getFreeBytes(), mResults);
+            if (!mDryRun && result.getDeletedCount() > 0) {
+                ArrayList<ReclaimLog.Category> categories = new ArrayList<>(mResults.size());
+                for (int i = 0, size = mResults.size(); i < size; i++) {
+                    CategoryResult category = mResults.get(i);
+                    categories.add(
+                            new ReclaimLog.Category(
+                                    category.name, category.plannedBytes, category.reclaimedBytes));
+                }
+                mLog.append(
+                        new ReclaimLog.Entry(
+                                mStartMillis,
+                                result.freeBytesBefore,
+                                result.freeBytesAfter,
+                                categories));
+            }
+            Log.i(TAG, "Deleted " + result.getDeletedCount() + " items, reclaimed "
+                    + result.getReclaimedBytes() + " bytes" + (mDryRun ? " (dry run)" : ""));
+            mListener.onFinished(result);
+        }
+    }
+
+    /** Receives the result of a run. */
+    public interface Listener {
+        /** Called on a background thread once every plan of the run has been executed. */
+        void onFinished(Result result);
+    }
+
+    /** The outcome of a run. */
+    public static class Result {
+        public static final String KEY_TIME_MILLIS = "time_millis";
+        public static final String KEY_DRY_RUN = "dry_run";
+        public static final String KEY_FREE_BYTES_BEFORE = "free_bytes_before";
+        public static final String KEY_FREE_BYTES_AFTER = "free_bytes_after";
+        public static final String KEY_CATEGORIES = "categories";
+        public static final String KEY_ITEM_COUNTS = "item_counts";
+        public static final String KEY_PLANNED_BYTES = "planned_bytes";
+        public static final String KEY_RECLAIMED_BYTES = "reclaimed_bytes";
+
+        /** When the run started, in milliseconds since the epoch. */
+        public final long timeMillis;
+        /** Whether the run only scanned. */
+        public final boolean dryRun;
+        /** The free space before the run. */
+        public final long freeBytesBefore;
+        /** The free space after the run. */
+        public final long freeBytesAfter;
+        /** The categories of the run, in the order they ran. */
+        public final List<CategoryResult> categories;
+
+        public Result(
+                long timeMillis,
+                boolean dryRun,
+                long freeBytesBefore,
+                long freeBytesAfter,
+                List<CategoryResult> categories) {
+            this.timeMillis = timeMillis;
+            this.dryRun = dryRun;
+            this.freeBytesBefore = freeBytesBefore;
+            this.freeBytesAfter = freeBytesAfter;
+            this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+        }
+
+        /** Returns the number of items deleted, or 0 for a dry run. */
+        public int getDeletedCount() {
+            if (dryRun) {
+                return 0;
+            }
+            int count = 0;
+            for (int i = 0, size = categories.size(); i < size; i++) {
+                count += categories.get(i).itemCount;
+            }
+            return count;
+        }
+
+        /** Returns the free space the whole run reclaimed. */
+        public long getReclaimedBytes() {
+            return freeBytesAfter - freeBytesBefore;
+        }
+
+        /**
+         * Returns the result as a bundle, for callers in other processes. The categories are
+         * parallel arrays.
+         */
+        public Bundle toBundle() {
+            final int size = categories.size();
+            final String[] names = new String[size];
+            final int[] itemCounts = new int[size];
+            final long[] plannedBytes = new long[size];
+            final long[] reclaimedBytes = new long[size];
+            for (int i = 0; i < size; i++) {
+                CategoryResult category = categories.get(i);
+                names[i] = category.name;
+                itemCounts[i] = category.itemCount;
+                plannedBytes[i] = category.plannedBytes;
+                reclaimedBytes[i] = category.reclaimedBytes;
+            }
+            Bundle bundle = new Bundle();
+            bundle.putLong(KEY_TIME_MILLIS, timeMillis);
+            bundle.putBoolean(KEY_DRY_RUN, dryRun);
+            bundle.putLong(KEY_FREE_BYTES_BEFORE, freeBytesBefore);
+            bundle.putLong(KEY_FREE_BYTES_AFTER, freeBytesAfter);
+            bundle.putStringArray(KEY_CATEGORIES, names);
+            bundle.putIntArray(KEY_ITEM_COUNTS, itemCounts);
+            bundle.putLongArray(KEY_PLANNED_BYTES, plannedBytes);
+            bundle.putLongArray(KEY_RECLAIMED_BYTES, reclaimedBytes);
+            return bundle;
+        }
+
+        /** Prints the result, for dumpsys. */
+        public void dump(PrintWriter pw) {
+            pw.println((dryRun ? "Dry run" : "Run") + " at " + timeMillis + ": reclaimed "
+                    + getReclaimedBytes() + " bytes (" + freeBytesBefore + " -> "
+                    + freeBytesAfter + ")");
+            for (int i = 0, size = categories.size(); i < size; i++) {
+                CategoryResult category = categories.get(i);
+                pw.println("  " + category.name + ": " + category.itemCount + " items, "
+                        + category.plannedBytes + " bytes planned, " + category.reclaimedBytes
+                        + " reclaimed");
+            }
+        }
+    }
+
+    /** The outcome of a single category of a run. */
+    public static class CategoryResult {
+        /** The name of the category, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+        public final String name;
+        /** The number of items in the plan of the category. */
+        public final int itemCount;
+        /** The sum of the sizes of the items in the plan. */
+        public final long plannedBytes;
+        /** The growth in free space measured around the category, or 0 for a dry run. */
+        public final long reclaimedBytes;
+
+        public CategoryResult(String name, int itemCount, long plannedBytes, long reclaimedBytes) {
+            this.name = name;
+            this.itemCount = itemCount;
+            this.plannedBytes = plannedBytes;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+    }
+}
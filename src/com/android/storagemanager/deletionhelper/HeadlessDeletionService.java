@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ResultReceiver;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.internal.util.DumpUtils;
+import com.android.storagemanager.R;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * HeadlessDeletionService runs {@link HeadlessDeletion}s for callers outside of this app, such as
+ * enterprise tooling. Each {@link #ACTION_RUN_DELETION} intent describes a {@link DeletionPolicy}
+ * through its extras, and the {@link HeadlessDeletion.Result#toBundle() result} is sent to the
+ * {@link #EXTRA_RESULT_RECEIVER} if there is one. Runs are queued, and execute one at a time.
+ *
+ * <p>Callers start the service with {@link android.content.Context#startForegroundService}, and
+ * it stays in the foreground until the queue is empty. An intent must name its categories;
+ * intents without any are rejected with {@link #RESULT_INVALID_POLICY}.
+ *
+ * <p>The shell cannot start the service, since it does not hold the permission; it queues runs
+ * through the {@link DeletionCommandProvider} instead. Dumping the service prints the result of
+ * the last run.
+ */
+public class HeadlessDeletionService extends Service {
+    private static final String TAG = "HeadlessDeletionService";
+
+    public static final String ACTION_RUN_DELETION =
+            "com.android.storagemanager.action.RUN_DELETION";
+    /** The categories to delete, as a string array. Required. */
+    public static final String EXTRA_CATEGORIES = "categories";
+    /** The threshold for apps, such as {@link AppsAsyncLoader#NO_THRESHOLD}. */
+    public static final String EXTRA_THRESHOLD_TYPE = "threshold_type";
+    /** The space to free, as a long. By default, everything scanned is deleted. */
+    public static final String EXTRA_REQUESTED_BYTES = "requested_bytes";
+    /** Whether to only scan and report, as a boolean. */
+    public static final String EXTRA_DRY_RUN = "dry_run";
+    /** A {@link ResultReceiver} to send the result to. */
+    public static final String EXTRA_RESULT_RECEIVER = "result_receiver";
+
+    /** The result code of a run, along with the result bundle. */
+    public static final int RESULT_OK = 0;
+    /** The result code of an intent which does not describe a valid policy. */
+    public static final int RESULT_INVALID_POLICY = 1;
+
+    private static final String CHANNEL_ID = "headless_deletion";
+    private static final int NOTIFICATION_ID = 1;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayDeque<Request> mQueue = new ArrayDeque<>();
+    private HeadlessDeletion mDeletion;
+    private boolean mRunning;
+    private int mLastStartId;
+    private HeadlessDeletion.Result mLastResult;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (mDeletion == null) {
+            mDeletion = new HeadlessDeletion(this);
+        }
+    }
+
+    @VisibleForTesting
+    void setHeadlessDeletion(HeadlessDeletion deletion) {
+        mDeletion = deletion;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Every start must promote the service, even one which is rejected right away.
+        startForeground(NOTIFICATION_ID, createNotification());
+        mLastStartId = startId;
+        if (intent != null && ACTION_RUN_DELETION.equals(intent.getAction())) {
+            final ResultReceiver receiver = intent.getParcelableExtra(EXTRA_RESULT_RECEIVER);
+            final DeletionPolicy policy = getPolicy(intent);
+            if (policy != null) {
+                enqueue(new Request(policy, receiver));
+                return START_NOT_STICKY;
+            }
+            Log.w(TAG, "Ignoring a deletion without categories");
+            if (receiver != null) {
+                receiver.send(RESULT_INVALID_POLICY, null);
+            }
+        }
+        if (!mRunning) {
+            stop();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /** Returns an intent which runs the given policy, to start the service with. */
+    public static Intent createIntent(Context context, DeletionPolicy policy) {
+        return new Intent(ACTION_RUN_DELETION)
+                .setClass(context, HeadlessDeletionService.class)
+                .putExtra(EXTRA_CATEGORIES, policy.categories.toArray(new String[0]))
+                .putExtra(EXTRA_THRESHOLD_TYPE, policy.thresholdType)
+                .putExtra(EXTRA_REQUESTED_BYTES, policy.requestedBytes)
+                .putExtra(EXTRA_DRY_RUN, policy.dryRun);
+    }
+
+    /**
+     * Returns the policy the extras of an intent describe, or null if they name no categories.
+     * A bare intent does not delete everything.
+     */
+    @VisibleForTesting
+    @Nullable
+    static DeletionPolicy getPolicy(Intent intent) {
+        final String[] categories = intent.getStringArrayExtra(EXTRA_CATEGORIES);
+        if (categories == null || categories.length == 0) {
+            return null;
+        }
+        return new DeletionPolicy.Builder()
+                .setCategories(Arrays.asList(categories))
+                .setThresholdType(
+                        intent.getIntExtra(EXTRA_THRESHOLD_TYPE, AppsAsyncLoader.NORMAL_THRESHOLD))
+                .setRequestedBytes(intent.getLongExtra(EXTRA_REQUESTED_BYTES, 0))
+                .setDryRun(intent.getBooleanExtra(EXTRA_DRY_RUN, false))
+                .build();
+    }
+
+    private void enqueue(Request request) {
+        mQueue.add(request);
+        maybeRunNext();
+    }
+
+    private void maybeRunNext() {
+        if (mRunning) {
+            return;
+        }
+        final Request request = mQueue.poll();
+        if (request == null) {
+            stop();
+            return;
+        }
+        mRunning = true;
+        mDeletion.run(request.policy, result -> mHandler.post(() -> onFinished(request, result)));
+    }
+
+    private void onFinished(Request request, HeadlessDeletion.Result result) {
+        mRunning = false;
+        mLastResult = result;
+        if (request.receiver != null) {
+            request.receiver.send(RESULT_OK, result.toBundle());
+        }
+        maybeRunNext();
+    }
+
+    private void stop() {
+        stopForeground(STOP_FOREGROUND_REMOVE);
+        stopSelf(mLastStartId);
+    }
+
+    private Notification createNotification() {
+        final NotificationManager manager = getSystemService(NotificationManager.class);
+        manager.createNotificationChannel(
+                new NotificationChannel(
+                        CHANNEL_ID,
+                        getString(R.string.headless_deletion_channel_name),
+                        NotificationManager.IMPORTANCE_MIN));
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_settings_24dp)
+                .setContentTitle(getString(R.string.headless_deletion_notification_title))
+                .setLocalOnly(true)
+                .build();
+    }
+
+    /** Prints the result of the last run. */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (!DumpUtils.checkDumpPermission(this, TAG, pw)) {
+            return;
+        }
+        final HeadlessDeletion.Result result = mLastResult;
+        if (result == null) {
+            pw.println("No deletion has run since the service started.");
+        } else {
+            result.dump(pw);
+        }
+    }
+
+    /**
+     * Parses the arguments of a run from the shell, {@code run [--dry-run] [--bytes N] [--all-apps]
+     * category...}, or returns null if they are malformed or name no categories.
+     */
+    @VisibleForTesting
+    @Nullable
+    static DeletionPolicy parsePolicy(String[] args) {
+        DeletionPolicy.Builder builder = new DeletionPolicy.Builder();
+        ArrayList<String> categories = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dry-run":
+                    builder.setDryRun(true);
+                    break;
+                case "--all-apps":
+                    builder.setThresholdType(AppsAsyncLoader.NO_THRESHOLD);
+                    break;
+                case "--bytes":
+                    if (++i >= args.length) {
+                        return null;
+                    }
+                    try {
+                        builder.setRequestedBytes(Long.parseLong(args[i]));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                    break;
+                default:
+                    if (!DeletionPolicy.SUPPORTED_CATEGORIES.contains(args[i])) {
+                        return null;
+                    }
+                    categories.add(args[i]);
+                    break;
+            }
+        }
+        if (categories.isEmpty()) {
+            return null;
+        }
+        return builder.setCategories(categories).build();
+    }
+
+    private static class Request {
+        final DeletionPolicy policy;
+        @Nullable final ResultReceiver receiver;
+
+        Request(DeletionPolicy policy, @Nullable ResultReceiver receiver) {
+            this.policy = policy;
+            this.receiver = receiver;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.os.UserHandle;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.SparseArray;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.android.storagemanager.utils.PackageLongMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * LastUsedStore keeps a persisted table of the last time each package was used. The table is
+ * rebuilt from the usage stats buckets only when it is missing or older than the usage events
+ * retention window; otherwise it is brought up to date with the usage events recorded since the
+ * last checkpoint.
+ *
+ * <p>The {@link ReuseModel.History} is kept in the same file, and brought up to date with the same
+ * usage events. It is only rebuilt from the monthly usage stats buckets once it spans more than
+ * a year, or when the table itself had to be rebuilt.
+ *
+ * <p>Maps returned by {@link #refresh(long)} are never modified after they are returned, so they
+ * may be read without holding any lock.
+ */
+public class LastUsedStore {
+    private static final String TAG = "LastUsedStore";
+    private static final String FILE_NAME = "last_used_snapshot";
+    private static final int FILE_VERSION = 2;
+
+    /** Value returned for packages which have no recorded usage. */
+    public static final long NO_USAGE_RECORDED = Long.MIN_VALUE;
+
+    /**
+     * How far back usage events can be trusted to be complete. UsageStatsService only keeps the
+     * daily interval files, which hold the raw events, for about a week.
+     */
+    @VisibleForTesting static final long EVENTS_RETENTION_MILLIS = 7 * DateUtils.DAY_IN_MILLIS;
+
+    /**
+     * Refreshes closer together than this reuse the table as it is. Package updates refresh it
+     * once per app, in bursts.
+     */
+    @VisibleForTesting static final long MIN_REFRESH_INTERVAL_MILLIS = DateUtils.SECOND_IN_MILLIS;
+
+    private static LastUsedStore sInstance;
+    private static final SparseArray<LastUsedStore> sProfileInstances = new SparseArray<>();
+
+    private final AtomicFile mFile;
+    private final UsageStatsManager mUsageStatsManager;
+    private PackageLongMap mLastUsed;
+    private long mCheckpoint;
+    // The checkpoint in the file. It is only moved when the table changed, or when the file would
+    // otherwise fall out of the events retention window.
+    private long mPersistedCheckpoint;
+    private boolean mLoaded;
+    private int mMismatchCount;
+    private ReuseModel.History mReuseHistory;
+    // Whether the history changed since it was last written.
+    private boolean mReuseHistoryChanged;
+    private ReuseModel mReuseModel;
+    private long mReuseModelTime;
+
+    /** Returns the process-wide store, creating it if needed. */
+    public static synchronized LastUsedStore getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance =
+                    new LastUsedStore(
+                            new File(appContext.getFilesDir(), FILE_NAME),
+                            (UsageStatsManager)
+                                    appContext.getSystemService(Context.USAGE_STATS_SERVICE));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the process-wide store for the given profile of the current user, creating it if
+     * needed. Usage stats are kept per user, so each profile has its own table.
+     */
+    public static synchronized LastUsedStore getInstance(Context context, int userId) {
+        if (userId == UserHandle.myUserId()) {
+            return getInstance(context);
+        }
+
+        LastUsedStore store = sProfileInstances.get(userId);
+        if (store == null) {
+            Context appContext = context.getApplicationContext();
+            Context userContext = appContext.createContextAsUser(UserHandle.of(userId), 0);
+            store =
+                    new LastUsedStore(
+                            new File(appContext.getFilesDir(), FILE_NAME + "_" + userId),
+                            (UsageStatsManager)
+                                    userContext.getSystemService(Context.USAGE_STATS_SERVICE));
+            sProfileInstances.put(userId, store);
+        }
+        return store;
+    }
+
+    /**
+     * @param file The file to persist the table to, or null to keep the table only in memory.
+     * @param usageStatsManager The source of usage information.
+     */
+    public LastUsedStore(@Nullable File file, UsageStatsManager usageStatsManager) {
+        mFile = file != null ? new AtomicFile(file) : null;
+        mUsageStatsManager = usageStatsManager;
+        mLastUsed = new PackageLongMap();
+    }
+
+    /**
+     * Brings the table up to date and returns it. Packages without any recorded usage are absent
+     * from the returned map. The file is only written when the table changed.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public synchronized PackageLongMap refresh(long now) {
+        ensureLoaded();
+
+        final boolean changed;
+        if (mCheckpoint <= 0 || mCheckpoint > now || now - mCheckpoint > EVENTS_RETENTION_MILLIS) {
+            mLastUsed =
+                    reduceUsageStats(
+                            mUsageStatsManager.queryUsageStats(
+                                    UsageStatsManager.INTERVAL_YEARLY,
+                                    now - DateUtils.YEAR_IN_MILLIS,
+                                    now));
+            // The events since the checkpoint are lost, so the history is rebuilt when next read.
+            mReuseHistory = null;
+            mReuseModel = null;
+            changed = true;
+        } else if (now - mCheckpoint < MIN_REFRESH_INTERVAL_MILLIS) {
+            return mLastUsed;
+        } else {
+            final PackageLongMap lastUsed =
+                    applyUsageEvents(mUsageStatsManager.queryEvents(mCheckpoint, now));
+            changed = lastUsed != mLastUsed;
+            mLastUsed = lastUsed;
+        }
+        mCheckpoint = now;
+        if (changed
+                || mReuseHistoryChanged
+                || now - mPersistedCheckpoint > EVENTS_RETENTION_MILLIS / 2) {
+            writeToDisk();
+        }
+        return mLastUsed;
+    }
+
+    /**
+     * Returns the model of how likely each package is to be used again. The model is computed
+     * from the persisted history, which follows the usage events applied by {@link
+     * #refresh(long)}, and computed again once the history changed or the model is a day old.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public synchronized ReuseModel getReuseModel(long now) {
+        ensureLoaded();
+
+        if (mReuseHistory == null
+                || mReuseHistory.getFirstTimeStamp() > now
+                || now - mReuseHistory.getFirstTimeStamp()
+                        > DateUtils.YEAR_IN_MILLIS + ReuseModel.BUCKET_MILLIS) {
+            mReuseHistory =
+                    ReuseModel.History.fromBuckets(
+                            mUsageStatsManager.queryUsageStats(
+                                    UsageStatsManager.INTERVAL_MONTHLY,
+                                    now - DateUtils.YEAR_IN_MILLIS,
+                                    now),
+                            now);
+            mReuseModel = null;
+            if (mCheckpoint > 0) {
+                writeToDisk();
+            }
+        }
+        if (mReuseModel == null
+                || mReuseModelTime > now
+                || now - mReuseModelTime > DateUtils.DAY_IN_MILLIS) {
+            mReuseModel = mReuseHistory.build(now);
+            mReuseModelTime = now;
+        }
+        return mReuseModel;
+    }
+
+    /** Returns how many usage stats buckets disagreed with another bucket on the last rebuild. */
+    public synchronized int getUsageStatsMismatchCount() {
+        return mMismatchCount;
+    }
+
+    /**
+     * Reduces the usage stats buckets into the most recent last time used for each package.
+     * Buckets which disagree about a package's last use are counted rather than logged one by one.
+     */
+    private PackageLongMap reduceUsageStats(List<UsageStats> usageStats) {
+        mMismatchCount = 0;
+        if (usageStats == null) {
+            return new PackageLongMap();
+        }
+
+        final int size = usageStats.size();
+        PackageLongMap lastUsed = new PackageLongMap(size);
+        for (int i = 0; i < size; i++) {
+            final UsageStats stats = usageStats.get(i);
+            final String packageName = stats.getPackageName();
+            final long lastTimeUsed = stats.getLastTimeUsed();
+            final long previous = lastUsed.get(packageName, NO_USAGE_RECORDED);
+            if (previous == NO_USAGE_RECORDED) {
+                lastUsed.put(packageName, lastTimeUsed);
+                continue;
+            }
+
+            if (previous != lastTimeUsed) {
+                mMismatchCount++;
+                if (lastTimeUsed > previous) {
+                    lastUsed.put(packageName, lastTimeUsed);
+                }
+            }
+        }
+
+        if (mMismatchCount > 0) {
+            Log.w(TAG, "Usage stats mismatch in " + mMismatchCount + " of " + size + " buckets");
+        }
+        return lastUsed;
+    }
+
+    /**
+     * Applies the usage events to the table. The table is only copied once an event changes it,
+     * and returned as it is otherwise.
+     */
+    private PackageLongMap applyUsageEvents(UsageEvents events) {
+        PackageLongMap lastUsed = mLastUsed;
+        if (events == null) {
+            return lastUsed;
+        }
+
+        boolean historyChanged = false;
+        UsageEvents.Event event = new UsageEvents.Event();
+        while (events.hasNextEvent()) {
+            events.getNextEvent(event);
+            if (!isUsageEvent(event.getEventType())) {
+                continue;
+            }
+            final String packageName = event.getPackageName();
+            final long timestamp = event.getTimeStamp();
+            if (mReuseHistory != null && mReuseHistory.recordUse(packageName, timestamp)) {
+                historyChanged = true;
+            }
+            if (timestamp > lastUsed.get(packageName, NO_USAGE_RECORDED)) {
+                if (lastUsed == mLastUsed) {
+                    lastUsed = copyOf(mLastUsed);
+                }
+                lastUsed.put(packageName, timestamp);
+            }
+        }
+        if (historyChanged) {
+            mReuseHistoryChanged = true;
+            mReuseModel = null;
+        }
+        return lastUsed;
+    }
+
+    private static boolean isUsageEvent(int eventType) {
+        switch (eventType) {
+            case UsageEvents.Event.ACTIVITY_RESUMED:
+            case UsageEvents.Event.ACTIVITY_PAUSED:
+            case UsageEvents.Event.ACTIVITY_STOPPED:
+            case UsageEvents.Event.USER_INTERACTION:
+            case UsageEvents.Event.FOREGROUND_SERVICE_START:
+            case UsageEvents.Event.FOREGROUND_SERVICE_STOP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static PackageLongMap copyOf(PackageLongMap source) {
+        PackageLongMap copy = new PackageLongMap(source.size());
+        for (int i = 0, capacity = source.capacity(); i < capacity; i++) {
+            String packageName = source.keyAt(i);
+            if (packageName != null) {
+                copy.put(packageName, source.valueAt(i));
+            }
+        }
+        return copy;
+    }
+
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            readFromDisk();
+            mLoaded = true;
+        }
+    }
+
+    private void readFromDisk() {
+        if (mFile == null) {
+            return;
+        }
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            long checkpoint = in.readLong();
+            int size = in.readInt();
+            PackageLongMap lastUsed = new PackageLongMap(size);
+            for (int i = 0; i < size; i++) {
+                String packageName = in.readUTF();
+                lastUsed.put(packageName, in.readLong());
+            }
+            ReuseModel.History reuseHistory =
+                    in.readBoolean() ? ReuseModel.History.readFrom(in) : null;
+            mCheckpoint = checkpoint;
+            mPersistedCheckpoint = checkpoint;
+            mLastUsed = lastUsed;
+            mReuseHistory = reuseHistory;
+        } catch (FileNotFoundException e) {
+            // Nothing has been persisted yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the last used snapshot", e);
+        }
+    }
+
+    private void writeToDisk() {
+        if (mFile == null) {
+            return;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FILE_VERSION);
+            out.writeLong(mCheckpoint);
+            out.writeInt(mLastUsed.size());
+            for (int i = 0, capacity = mLastUsed.capacity(); i < capacity; i++) {
+                String packageName = mLastUsed.keyAt(i);
+                if (packageName != null) {
+                    out.writeUTF(packageName);
+                    out.writeLong(mLastUsed.valueAt(i));
+                }
+            }
+            out.writeBoolean(mReuseHistory != null);
+            if (mReuseHistory != null) {
+                mReuseHistory.writeTo(out);
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+            mPersistedCheckpoint = mCheckpoint;
+            mReuseHistoryChanged = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the last used snapshot", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.storage.StorageManager;
+import android.os.storage.VolumeInfo;
+import android.util.ArrayMap;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import com.android.internal.logging.MetricsLogger;
+import com.android.storagemanager.deletionhelper.DeletionOrchestrator.Job;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MeasuredDeletion queues a list of deletion types on the {@link DeletionOrchestrator} and
+ * measures the free space around each of them, so that the space each one actually reclaimed can
+ * be told apart. Every run is appended to the {@link ReclaimLog} and reported to the metrics
+ * logger once all of its jobs are done.
+ */
+public class MeasuredDeletion implements DeletionOrchestrator.Listener {
+    private static final String TAG = "MeasuredDeletion";
+    private static final String HISTOGRAM_PREFIX = "deletion_helper_reclaimed_mb_";
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final long UNSET = -1;
+
+    public static final String CATEGORY_PHOTOS = "photos";
+    public static final String CATEGORY_DOWNLOADS = "downloads";
+    public static final String CATEGORY_APP_CACHES = "app_caches";
+    public static final String CATEGORY_APPS = "apps";
+
+    private final Context mContext;
+    private final ReclaimLog mLog;
+    private final DeletionOrchestrator mOrchestrator;
+    private final ArrayList<Step> mSteps = new ArrayList<>();
+    private final ArrayList<Job> mJobs = new ArrayList<>();
+    private final ArrayMap<Job, Long> mFreeBytesAtStart = new ArrayMap<>();
+    private final ArrayList<ReclaimLog.Category> mResults = new ArrayList<>();
+    private long mStartTime;
+    private long mFreeBytesBefore = UNSET;
+    private int mRemaining;
+
+    public MeasuredDeletion(Context context, ReclaimLog log) {
+        this(context, log, DeletionOrchestrator.getInstance());
+    }
+
+    @VisibleForTesting
+    MeasuredDeletion(Context context, ReclaimLog log, DeletionOrchestrator orchestrator) {
+        mContext = context.getApplicationContext();
+        mLog = log;
+        mOrchestrator = orchestrator;
+    }
+
+    /**
+     * Adds a deletion type to the run, unless it has nothing checked. A deletion type without a
+     * {@link DeletionType#createPlan() plan} is added only if it estimates to free something.
+     *
+     * @param name The name to log the deletion type as, such as {@link #CATEGORY_APPS}.
+     * @param type The deletion type to clear.
+     * @param priority The priority to queue the deletion type with, such as {@link
+     *     DeletionOrchestrator#PRIORITY_DEFAULT}.
+     * @param estimatedBytes The freeable size the deletion type reports for the checked items.
+     */
+    public void add(String name, DeletionType type, int priority, long estimatedBytes) {
+        DeletionPlan plan = type.createPlan();
+        if (plan != null ? plan.isEmpty() : estimatedBytes <= 0) {
+            return;
+        }
+        mSteps.add(new Step(name, type, priority, estimatedBytes));
+    }
+
+    /** Queues the deletion types. Must be called at most once. */
+    public void run(Activity activity) {
+        synchronized (this) {
+            mStartTime = System.currentTimeMillis();
+            mRemaining = mSteps.size();
+        }
+        for (int i = 0, size = mSteps.size(); i < size; i++) {
+            Step step = mSteps.get(i);
+            Job job =
+                    mOrchestrator.enqueue(
+                            activity,
+                            step.name,
+                            step.type,
+                            step.priority,
+                            step.estimatedBytes,
+                            this);
+            synchronized (this) {
+                mJobs.add(job);
+            }
+        }
+    }
+
+    /** Cancels every deletion type of the run which has not finished yet. */
+    public void cancel() {
+        final ArrayList<Job> jobs;
+        synchronized (this) {
+            jobs = new ArrayList<>(mJobs);
+        }
+        for (int i = 0, size = jobs.size(); i < size; i++) {
+            mOrchestrator.cancel(jobs.get(i));
+        }
+    }
+
+    @Override
+    public void onJobStarted(Job job) {
+        final long freeBytes = getFreeBytes();
+        synchronized (this) {
+            mFreeBytesAtStart.put(job, freeBytes);
+            if (mFreeBytesBefore == UNSET) {
+                mFreeBytesBefore = freeBytes;
+            }
+        }
+    }
+
+    @Override
+    public void onJobFinished(Job job) {
+        final long freeBytesAfter = getFreeBytes();
+        final boolean done;
+        synchronized (this) {
+            Long freeBytesBefore = mFreeBytesAtStart.remove(job);
+            // Jobs cancelled before they started did not reclaim anything.
+            if (freeBytesBefore != null) {
+                mResults.add(
+                        new ReclaimLog.Category(
+                                job.name, job.estimatedBytes, freeBytesAfter - freeBytesBefore));
+            }
+            done = --mRemaining == 0;
+        }
+        if (done) {
+            finish(freeBytesAfter);
+        }
+    }
+
+    private void finish(long freeBytesAfter) {
+        final ReclaimLog.Entry entry;
+        synchronized (this) {
+            if (mResults.isEmpty()) {
+                return;
+            }
+            entry = new ReclaimLog.Entry(mStartTime, mFreeBytesBefore, freeBytesAfter, mResults);
+        }
+        mLog.append(entry);
+
+        for (int i = 0, size = entry.categories.size(); i < size; i++) {
+            ReclaimLog.Category category = entry.categories.get(i);
+            MetricsLogger.histogram(mContext, HISTOGRAM_PREFIX + category.name,
+                    toMegabytes(category.reclaimedBytes));
+        }
+        Log.i(TAG, "Reclaimed " + entry.getReclaimedBytes() + " of an estimated "
+                + entry.getEstimatedBytes() + " bytes");
+    }
+
+    /** Returns the deletion types which finished so far, with their measured results. */
+    @VisibleForTesting
+    synchronized List<ReclaimLog.Category> getResults() {
+        return new ArrayList<>(mResults);
+    }
+
+    /** Returns the free space summed over every mounted private volume. */
+    @VisibleForTesting
+    protected long getFreeBytes() {
+        return getFreeBytes(mContext);
+    }
+
+    /** Returns the free space summed over every mounted private volume. */
+    static long getFreeBytes(Context context) {
+        StorageManager storageManager = context.getSystemService(StorageManager.class);
+        long freeBytes = 0;
+        for (VolumeInfo volume : storageManager.getVolumes()) {
+            if (volume.getType() != VolumeInfo.TYPE_PRIVATE || !volume.isMountedReadable()) {
+                continue;
+            }
+            File path = volume.getPath();
+            if (path != null) {
+                freeBytes += path.getUsableSpace();
+            }
+        }
+        return freeBytes;
+    }
+
+    private static int toMegabytes(long bytes) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, bytes / MEGABYTE));
+    }
+
+    private static class Step {
+        final String name;
+        final DeletionType type;
+        final int priority;
+        final long estimatedBytes;
+
+        Step(String name, DeletionType type, int priority, long estimatedBytes) {
+            this.name = name;
+            this.type = type;
+            this.priority = priority;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+}
@@ -20,25 +20,62 @@ import android.content.pm.IPackageDeleteObserver;
 import android.content.pm.PackageManager;
 import android.os.UserHandle;
 import android.util.Log;
+import com.android.storagemanager.deletionhelper.AppsAsyncLoader.PackageInfo;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Deletes a specified set of apps as a specified user and calls back once done.
+ * Deletes a specified set of apps and calls back once done. Only a bounded number of uninstalls
+ * are handed to the package manager at a time; the rest wait until one finishes. Each finished
+ * uninstall is reported as progress, and a single completion with every result follows the last
+ * one. A batch may be cancelled through its callback, which skips the uninstalls not yet started.
  */
 public class PackageDeletionTask {
     private static final String TAG = "PackageDeletionTask";
-    private Set<String> mPackages;
-    private Callback mCallback;
-    private PackageManager mPm;
-    private UserHandle mUser;
+    /** The default number of uninstalls which may run at the same time. */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<PackageInfo> mPending;
+    private final ArrayList<Result> mResults;
+    private final int mTotal;
+    private final Callback mCallback;
+    private final PackageManager mPm;
+    private int mMaxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int mInFlight;
+    private boolean mStarted;
+    private boolean mFinished;
 
     public PackageDeletionTask(PackageManager pm, Set<String> packageNames, Callback callback) {
-        mPackages = packageNames;
+        this(pm, packageNames, android.os.Process.myUserHandle(), callback);
+    }
+
+    public PackageDeletionTask(
+            PackageManager pm, Set<String> packageNames, UserHandle user, Callback callback) {
+        this(pm, toPackageInfos(packageNames, user), callback);
+    }
+
+    /**
+     * @param pm The package manager to uninstall with.
+     * @param apps The apps to uninstall. Each app is uninstalled for its own user, and its size is
+     *     reported as the bytes freed once it is gone.
+     * @param callback The callback to report progress and completion to.
+     */
+    public PackageDeletionTask(PackageManager pm, List<PackageInfo> apps, Callback callback) {
+        mPending = new ArrayDeque<>(apps);
+        mTotal = apps.size();
+        mResults = new ArrayList<>(mTotal);
         mCallback = callback;
         mPm = pm;
-        mUser = android.os.Process.myUserHandle();
+    }
+
+    /** Sets how many uninstalls may run at the same time. Must be called before {@link #run()}. */
+    public void setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
     }
 
     /**
@@ -46,40 +83,217 @@ public class PackageDeletionTask {
      * is run, if it is set.
      */
     public void run() {
-        PackageDeletionObserver observer = new PackageDeletionObserver(mPackages.size());
-        for (String packageName : mPackages) {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+        }
+
+        startPending();
+        maybeFinish();
+    }
+
+    /**
+     * Hands pending uninstalls to the package manager until the in-flight limit is reached. The
+     * callers check for completion afterwards, since an uninstall may fail before it starts.
+     */
+    private void startPending() {
+        while (true) {
+            final PackageInfo app;
+            final boolean cancelled = mCallback != null && mCallback.isCancelled();
+            synchronized (mLock) {
+                if (cancelled) {
+                    mPending.clear();
+                }
+                if (mInFlight >= mMaxInFlight || mPending.isEmpty()) {
+                    return;
+                }
+                app = mPending.poll();
+                mInFlight++;
+            }
+
             try {
-                mPm.deletePackageAsUser(packageName, observer, 0, mUser.getIdentifier());
+                mPm.deletePackageAsUser(
+                        app.packageName, new PackageDeletionObserver(app), 0, app.userId);
             } catch (IllegalArgumentException e) {
                 // Couldn't find the package, no need to delete.
-                Log.w(TAG, "Could not find package, not deleting " + packageName, e);
+                Log.w(TAG, "Could not find package, not deleting " + app.packageName, e);
+                recordResult(app, PackageManager.DELETE_FAILED_INTERNAL_ERROR);
             }
         }
     }
 
+    private void onPackageDeleted(PackageInfo app, int returnCode) {
+        recordResult(app, returnCode);
+        startPending();
+        maybeFinish();
+    }
+
+    /** Records the result of an uninstall which is no longer in flight and reports progress. */
+    private void recordResult(PackageInfo app, int returnCode) {
+        final Result result =
+                new Result(
+                        app.packageName,
+                        app.userId,
+                        returnCode,
+                        returnCode == PackageManager.DELETE_SUCCEEDED ? Math.max(app.size, 0) : 0);
+        final int completed;
+        synchronized (mLock) {
+            mInFlight--;
+            mResults.add(result);
+            completed = mResults.size();
+        }
+
+        if (mCallback != null) {
+            mCallback.onProgress(result, completed, mTotal);
+        }
+    }
+
+    private void maybeFinish() {
+        final boolean done;
+        synchronized (mLock) {
+            // Only the first caller to see nothing left completes the batch.
+            done = mInFlight == 0 && mPending.isEmpty() && !mFinished;
+            mFinished |= done;
+        }
+        if (done) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (mCallback != null) {
+            mCallback.onComplete(new BatchResult(mResults));
+        }
+    }
+
+    private static List<PackageInfo> toPackageInfos(Set<String> packageNames, UserHandle user) {
+        ArrayList<PackageInfo> apps = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            apps.add(
+                    new PackageInfo.Builder()
+                            .setPackageName(packageName)
+                            .setUserId(user.getIdentifier())
+                            .build());
+        }
+        return apps;
+    }
+
+    /**
+     * Observes a single uninstall. Each app has its own observer, since the same package may be
+     * uninstalled for more than one user in a batch.
+     */
     private class PackageDeletionObserver extends IPackageDeleteObserver.Stub {
-        private final AtomicInteger mPackagesRemaining = new AtomicInteger(0);
+        private final PackageInfo mApp;
 
-        public PackageDeletionObserver(int packages) {
-            mPackagesRemaining.set(packages);
+        PackageDeletionObserver(PackageInfo app) {
+            mApp = app;
         }
 
         @Override
         public void packageDeleted(String packageName, int returnCode) {
-            if (returnCode != PackageManager.DELETE_SUCCEEDED) {
-                mCallback.onError();
-                return;
+            onPackageDeleted(mApp, returnCode);
+        }
+    }
+
+    /** The outcome of uninstalling a single package. */
+    public static class Result {
+        /** The package which was uninstalled. */
+        public final String packageName;
+        /** The user the package was uninstalled for. */
+        public final int userId;
+        /** The return code from the package manager, such as DELETE_SUCCEEDED. */
+        public final int status;
+        /** The size of the package, if it was uninstalled. Otherwise 0. */
+        public final long bytes;
+
+        public Result(String packageName, int userId, int status, long bytes) {
+            this.packageName = packageName;
+            this.userId = userId;
+            this.status = status;
+            this.bytes = bytes;
+        }
+
+        public boolean isSuccess() {
+            return status == PackageManager.DELETE_SUCCEEDED;
+        }
+    }
+
+    /** The outcome of a whole batch of uninstalls. */
+    public static class BatchResult {
+        private final List<Result> mResults;
+
+        public BatchResult(List<Result> results) {
+            mResults = Collections.unmodifiableList(new ArrayList<>(results));
+        }
+
+        /** Returns the result of each package, in the order the uninstalls finished. */
+        public List<Result> getResults() {
+            return mResults;
+        }
+
+        /** Returns the number of packages which could not be uninstalled. */
+        public int getFailureCount() {
+            int failures = 0;
+            for (int i = 0, size = mResults.size(); i < size; i++) {
+                if (!mResults.get(i).isSuccess()) {
+                    failures++;
+                }
             }
+            return failures;
+        }
 
-            int remaining = mPackagesRemaining.decrementAndGet();
-            if (remaining == 0) {
-                mCallback.onSuccess();
+        /** Returns the total size of the packages which were uninstalled. */
+        public long getFreedBytes() {
+            long bytes = 0;
+            for (int i = 0, size = mResults.size(); i < size; i++) {
+                bytes += mResults.get(i).bytes;
             }
+            return bytes;
+        }
+
+        public boolean isSuccess() {
+            return getFailureCount() == 0;
         }
     }
 
+    /**
+     * Receives the progress and results of a PackageDeletionTask. The methods may be called on any
+     * thread.
+     */
     public static abstract class Callback {
-        public abstract void onSuccess();
-        public abstract void onError();
+        /**
+         * Called each time an uninstall finishes.
+         *
+         * @param result The result of the uninstall.
+         * @param completed The number of uninstalls finished so far.
+         * @param total The number of uninstalls in the batch.
+         */
+        public void onProgress(Result result, int completed, int total) {}
+
+        /**
+         * Polled before each uninstall is started. Once it returns true, the uninstalls which have
+         * not started yet are dropped and the batch completes after the running ones finish.
+         */
+        public boolean isCancelled() {
+            return false;
+        }
+
+        /**
+         * Called once after every uninstall has finished. By default, this calls either {@link
+         * #onSuccess()} or {@link #onError()}.
+         */
+        public void onComplete(BatchResult result) {
+            if (result.isSuccess()) {
+                onSuccess();
+            } else {
+                onError();
+            }
+        }
+
+        public void onSuccess() {}
+
+        public void onError() {}
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ReclaimLog keeps a small persisted log of the most recent deletion runs. Each entry holds the
+ * free space before and after the run and, for every deletion type which ran, the estimated size
+ * next to the space it actually reclaimed. Older entries are dropped once the log is full.
+ */
+public class ReclaimLog {
+    private static final String TAG = "ReclaimLog";
+    private static final String FILE_NAME = "reclaim_log";
+    private static final int FILE_VERSION = 1;
+
+    /** The number of runs which are kept. */
+    public static final int MAX_ENTRIES = 16;
+
+    private static ReclaimLog sInstance;
+
+    private final AtomicFile mFile;
+    private final ArrayDeque<Entry> mEntries = new ArrayDeque<>(MAX_ENTRIES);
+    private boolean mLoaded;
+
+    /** Returns the process-wide log, creating it if needed. */
+    public static synchronized ReclaimLog getInstance(Context context) {
+        if (sInstance == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+            sInstance = new ReclaimLog(file);
+        }
+        return sInstance;
+    }
+
+    /** @param file The file to persist the log to, or null to keep the log only in memory. */
+    public ReclaimLog(@Nullable File file) {
+        mFile = file != null ? new AtomicFile(file) : null;
+    }
+
+    /** Appends a run to the log, dropping the oldest run if the log is full. */
+    public synchronized void append(Entry entry) {
+        ensureLoaded();
+        if (mEntries.size() == MAX_ENTRIES) {
+            mEntries.removeFirst();
+        }
+        mEntries.addLast(entry);
+        writeToDisk();
+    }
+
+    /** Returns the logged runs, oldest first. */
+    public synchronized List<Entry> getEntries() {
+        ensureLoaded();
+        return Collections.unmodifiableList(new ArrayList<>(mEntries));
+    }
+
+    /** Prints the logged runs, for dumpsys. */
+    public void dump(PrintWriter pw) {
+        List<Entry> entries = getEntries();
+        pw.println("Deletion runs (" + entries.size() + "):");
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            Entry entry = entries.get(i);
+            pw.println("  time=" + entry.timeMillis
+                    + " freeBefore=" + entry.freeBytesBefore
+                    + " freeAfter=" + entry.freeBytesAfter
+                    + " reclaimed=" + entry.getReclaimedBytes());
+            for (int j = 0, count = entry.categories.size(); j < count; j++) {
+                Category category = entry.categories.get(j);
+                pw.println("    " + category.name
+                        + " estimated=" + category.estimatedBytes
+                        + " reclaimed=" + category.reclaimedBytes);
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!mLoaded) {
+            readFromDisk();
+            mLoaded = true;
+        }
+    }
+
+    private void readFromDisk() {
+        if (mFile == null) {
+            return;
+        }
+
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(mFile.openRead()))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long timeMillis = in.readLong();
+                long freeBytesBefore = in.readLong();
+                long freeBytesAfter = in.readLong();
+                int count = in.readInt();
+                ArrayList<Category> categories = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) {
+                    categories.add(new Category(in.readUTF(), in.readLong(), in.readLong()));
+                }
+                mEntries.addLast(
+                        new Entry(timeMillis, freeBytesBefore, freeBytesAfter, categories));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing has been persisted yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the reclaim log", e);
+            mEntries.clear();
+        }
+    }
+
+    private void writeToDisk() {
+        if (mFile == null) {
+            return;
+        }
+
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries) {
+                out.writeLong(entry.timeMillis);
+                out.writeLong(entry.freeBytesBefore);
+                out.writeLong(entry.freeBytesAfter);
+                out.writeInt(entry.categories.size());
+                for (int i = 0, count = entry.categories.size(); i < count; i++) {
+                    Category category = entry.categories.get(i);
+                    out.writeUTF(category.name);
+                    out.writeLong(category.estimatedBytes);
+                    out.writeLong(category.reclaimedBytes);
+                }
+            }
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write the reclaim log", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+
+    /** A single deletion run. */
+    public static class Entry {
+        /** When the run started, in milliseconds since the epoch. */
+        public final long timeMillis;
+        /** The free space before the run. */
+        public final long freeBytesBefore;
+        /** The free space after the run. */
+        public final long freeBytesAfter;
+        /** The deletion types which ran, in the order they ran. */
+        public final List<Category> categories;
+
+        public Entry(
+                long timeMillis,
+                long freeBytesBefore,
+                long freeBytesAfter,
+                List<Category> categories) {
+            this.timeMillis = timeMillis;
+            this.freeBytesBefore = freeBytesBefore;
+            this.freeBytesAfter = freeBytesAfter;
+            this.categories = Collections.unmodifiableList(new ArrayList<>(categories));
+        }
+
+        /** Returns the free space the whole run reclaimed. */
+        public long getReclaimedBytes() {
+            return freeBytesAfter - freeBytesBefore;
+        }
+
+        /** Returns the sum of the estimates of every deletion type in the run. */
+        public long getEstimatedBytes() {
+            long bytes = 0;
+            for (int i = 0, size = categories.size(); i < size; i++) {
+                bytes += categories.get(i).estimatedBytes;
+            }
+            return bytes;
+        }
+    }
+
+    /** The estimated and measured result of one deletion type in a run. */
+    public static class Category {
+        /** The name of the deletion type, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+        public final String name;
+        /** The freeable size the deletion type reported before it ran. */
+        public final long estimatedBytes;
+        /** The growth in free space measured around the deletion type. */
+        public final long reclaimedBytes;
+
+        public Category(String name, long estimatedBytes, long reclaimedBytes) {
+            this.name = name;
+            this.estimatedBytes = estimatedBytes;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+    }
+}
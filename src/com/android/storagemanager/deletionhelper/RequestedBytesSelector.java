@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * RequestedBytesSelector picks what to delete when an app asks for a given amount of space. It
+ * ranks the candidates of every category by how cheap their bytes are to lose, so that large
+ * items which have not been used in a long time come first, takes them greedily until the request
+ * is covered and then drops any taken item the request no longer needs. This approximates the
+ * smallest selection which covers the request in O(n log n).
+ */
+public class RequestedBytesSelector {
+    /**
+     * Items unused for longer than this count as unused for this long, so that age can at most
+     * double the rank of an item and never outweigh a much larger one.
+     */
+    public static final long MAX_RANKED_DAYS = 365;
+
+    private RequestedBytesSelector() {}
+
+    /**
+     * Selects the candidates to delete.
+     *
+     * @param candidates The candidates of every category.
+     * @param requestedBytes The space to free.
+     * @return The selected candidates, best ranked first. If the candidates cannot cover the
+     *     request, every candidate with a known size is selected.
+     */
+    public static List<Candidate> select(List<Candidate> candidates, long requestedBytes) {
+        final int count = candidates.size();
+        if (requestedBytes <= 0 || count == 0) {
+            return Collections.emptyList();
+        }
+
+        // The ranks are computed once up front rather than in every comparison.
+        final double[] ranks = new double[count];
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            ranks[i] = getRank(candidates.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(
+                order,
+                new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer index1, Integer index2) {
+                        return Double.compare(ranks[index2], ranks[index1]);
+                    }
+                });
+
+        final boolean[] selected = new boolean[count];
+        long coveredBytes = 0;
+        int last = -1;
+        for (int i = 0; i < count && coveredBytes < requestedBytes; i++) {
+            final Candidate candidate = candidates.get(order[i]);
+            if (candidate.bytes <= 0) {
+                continue;
+            }
+            selected[i] = true;
+            coveredBytes += candidate.bytes;
+            last = i;
+        }
+
+        // Larger items taken late can make earlier, smaller ones unnecessary. Try dropping the
+        // worst ranked ones first.
+        if (coveredBytes > requestedBytes) {
+            for (int i = last; i >= 0; i--) {
+                if (!selected[i]) {
+                    continue;
+                }
+                final long bytes = candidates.get(order[i]).bytes;
+                if (coveredBytes - bytes >= requestedBytes) {
+                    selected[i] = false;
+                    coveredBytes -= bytes;
+                }
+            }
+        }
+
+        ArrayList<Candidate> result = new ArrayList<>();
+        for (int i = 0; i <= last; i++) {
+            if (selected[i]) {
+                result.add(candidates.get(order[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size to offer an app as when its cache is offered as a candidate of its own. The
+     * size of an app includes its cache, so both would count the cache if they are selected
+     * together.
+     *
+     * @param size The size of the app, or a negative value if it is unknown.
+     * @param cacheBytes The size of the app's cache.
+     */
+    public static long getBytesWithoutCache(long size, long cacheBytes) {
+        return size > 0 ? Math.max(0, size - Math.max(0, cacheBytes)) : size;
+    }
+
+    private static double getRank(Candidate candidate) {
+        if (candidate.bytes <= 0) {
+            return 0;
+        }
+        // Unknown ages are negative and ranked as if the item was just used.
+        final long days = Math.max(0, Math.min(candidate.daysUnused, MAX_RANKED_DAYS));
+        return candidate.bytes * (1.0 + (double) days / MAX_RANKED_DAYS);
+    }
+
+    /** An item which can be selected for deletion. */
+    public static class Candidate {
+        /** The category of the item, such as {@link MeasuredDeletion#CATEGORY_APPS}. */
+        public final String category;
+        /**
+         * Identifies the item within its category, in the same way as {@link
+         * DeletionPlan.Item#key}. Categories which can only be deleted as a whole use their name.
+         */
+        public final String key;
+        /** The size of the item. Items with an unknown size are never selected. */
+        public final long bytes;
+        /** How many days ago the item was last used, or a negative value if it is unknown. */
+        public final long daysUnused;
+
+        public Candidate(String category, String key, long bytes, long daysUnused) {
+            this.category = category;
+            this.key = key;
+            this.bytes = bytes;
+            this.daysUnused = daysUnused;
+        }
+    }
+}
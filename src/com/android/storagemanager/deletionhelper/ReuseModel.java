@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.deletionhelper;
+
+import android.app.usage.UsageStats;
+import android.text.format.DateUtils;
+import androidx.annotation.Nullable;
+import com.android.storagemanager.utils.PackageLongMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ReuseModel estimates how likely each package is to be used again, from the usage stats buckets.
+ * A package which was used in most buckets, or launched often, is expected to be used again about
+ * as often; once it has gone unused for longer than its usual gap between uses, its probability
+ * decays. This tells an app used every month apart from one used once a long time ago, where a
+ * fixed days-unused threshold treats them the same.
+ *
+ * <p>The probabilities are computed once from a {@link History}, in a single pass over the
+ * packages, and kept in a primitive array.
+ */
+public class ReuseModel {
+    /** The span of a monthly usage stats bucket. */
+    public static final long BUCKET_MILLIS = 30 * DateUtils.DAY_IN_MILLIS;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NOT_FOUND = -1;
+
+    /** A model which knows no packages. */
+    public static final ReuseModel EMPTY = new ReuseModel(new PackageLongMap(), new float[0]);
+
+    private final PackageLongMap mIndices;
+    private final float[] mProbabilities;
+
+    private ReuseModel(PackageLongMap indices, float[] probabilities) {
+        mIndices = indices;
+        mProbabilities = probabilities;
+    }
+
+    /**
+     * Computes the model.
+     *
+     * @param buckets The usage stats buckets, such as the monthly buckets of the last year.
+     * @param now The current time in milliseconds.
+     */
+    public static ReuseModel compute(List<UsageStats> buckets, long now) {
+        if (buckets == null || buckets.isEmpty()) {
+            return EMPTY;
+        }
+        return History.fromBuckets(buckets, now).build(now);
+    }
+
+    /** Returns the probability that the package is used again, or 0 if it has not been used. */
+    public float getReuseProbability(String packageName) {
+        final int index = (int) mIndices.get(packageName, NOT_FOUND);
+        return index == NOT_FOUND ? 0f : mProbabilities[index];
+    }
+
+    /** Returns the number of packages the model knows. */
+    public int size() {
+        return mProbabilities.length;
+    }
+
+    /**
+     * History holds the per-package usage counts a ReuseModel is computed from, so that they can
+     * be persisted and brought up to date with usage events instead of being queried again. It is
+     * not thread safe.
+     */
+    public static class History {
+        private final PackageLongMap mIndices;
+        private final long mFirstTimeStamp;
+        private long[] mLastUsed;
+        private int[] mActiveBuckets;
+        private long[] mLaunches;
+        private int mSize;
+
+        private History(long firstTimeStamp, int capacity) {
+            mIndices = new PackageLongMap(capacity);
+            mFirstTimeStamp = firstTimeStamp;
+            mLastUsed = new long[capacity];
+            mActiveBuckets = new int[capacity];
+            mLaunches = new long[capacity];
+        }
+
+        /**
+         * Counts the uses in the usage stats buckets.
+         *
+         * @param buckets The usage stats buckets, such as the monthly buckets of the last year.
+         * @param now The current time in milliseconds.
+         */
+        public static History fromBuckets(@Nullable List<UsageStats> buckets, long now) {
+            final int bucketCount = buckets != null ? buckets.size() : 0;
+            long firstTimeStamp = now;
+            for (int i = 0; i < bucketCount; i++) {
+                final UsageStats stats = buckets.get(i);
+                final long bucketStart = stats.getFirstTimeStamp();
+                if (stats.getLastTimeUsed() > 0 && bucketStart > 0) {
+                    firstTimeStamp = Math.min(firstTimeStamp, bucketStart);
+                }
+            }
+
+            History history = new History(firstTimeStamp, INITIAL_CAPACITY);
+            for (int i = 0; i < bucketCount; i++) {
+                final UsageStats stats = buckets.get(i);
+                final long lastTimeUsed = stats.getLastTimeUsed();
+                if (lastTimeUsed <= 0) {
+                    continue;
+                }
+                final int index = history.indexOf(stats.getPackageName());
+                history.mLastUsed[index] = Math.max(history.mLastUsed[index], lastTimeUsed);
+                history.mActiveBuckets[index]++;
+                history.mLaunches[index] += Math.max(0, stats.getAppLaunchCount());
+            }
+            return history;
+        }
+
+        /** Returns when the history starts, in milliseconds since the epoch. */
+        public long getFirstTimeStamp() {
+            return mFirstTimeStamp;
+        }
+
+        /**
+         * Records a use of a package, as seen in a usage event. The first use in a bucket counts
+         * the bucket as active; earlier uses than the last known one are ignored.
+         *
+         * @return Whether the history changed.
+         */
+        public boolean recordUse(String packageName, long timeMillis) {
+            if (timeMillis <= 0 || timeMillis < mFirstTimeStamp) {
+                return false;
+            }
+            final int index = indexOf(packageName);
+            final long lastUsed = mLastUsed[index];
+            if (timeMillis <= lastUsed) {
+                return false;
+            }
+            if (lastUsed <= 0 || getBucket(timeMillis) != getBucket(lastUsed)) {
+                mActiveBuckets[index]++;
+            }
+            mLastUsed[index] = timeMillis;
+            return true;
+        }
+
+        /** Computes the model as of the given time, in milliseconds. */
+        public ReuseModel build(long now) {
+            if (mSize == 0) {
+                return EMPTY;
+            }
+
+            // Buckets without a start time are counted as a single bucket before now.
+            final long spanMillis = Math.max(BUCKET_MILLIS, now - mFirstTimeStamp);
+            final float spanDays = (float) spanMillis / DateUtils.DAY_IN_MILLIS;
+            final float observedBuckets = (float) spanMillis / BUCKET_MILLIS;
+            PackageLongMap indices = new PackageLongMap(mSize);
+            float[] probabilities = new float[mSize];
+            for (int i = 0, capacity = mIndices.capacity(); i < capacity; i++) {
+                final String packageName = mIndices.keyAt(i);
+                if (packageName == null) {
+                    continue;
+                }
+                final int index = (int) mIndices.valueAt(i);
+                indices.put(packageName, index);
+                if (mLastUsed[index] <= 0) {
+                    continue;
+                }
+                // Uses are counted from whichever of the bucket count and the launch count saw
+                // more.
+                final long uses = Math.max(1, Math.max(mActiveBuckets[index], mLaunches[index]));
+                final float frequency = Math.min(1f, uses / observedBuckets);
+                // The usual number of days between two uses.
+                final float gapDays = Math.max(1f, spanDays / uses);
+                final float daysUnused =
+                        Math.max(0f, (float) (now - mLastUsed[index]) / DateUtils.DAY_IN_MILLIS);
+                final float overdueDays = Math.max(0f, daysUnused - gapDays);
+                probabilities[index] = frequency * (float) Math.exp(-overdueDays / gapDays);
+            }
+            return new ReuseModel(indices, probabilities);
+        }
+
+        /** Writes the history, in the format {@link #readFrom(DataInputStream)} reads. */
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(mFirstTimeStamp);
+            out.writeInt(mSize);
+            for (int i = 0, capacity = mIndices.capacity(); i < capacity; i++) {
+                final String packageName = mIndices.keyAt(i);
+                if (packageName != null) {
+                    final int index = (int) mIndices.valueAt(i);
+                    out.writeUTF(packageName);
+                    out.writeLong(mLastUsed[index]);
+                    out.writeInt(mActiveBuckets[index]);
+                    out.writeLong(mLaunches[index]);
+                }
+            }
+        }
+
+        /** Reads a history written by {@link #writeTo(DataOutputStream)}. */
+        public static History readFrom(DataInputStream in) throws IOException {
+            final long firstTimeStamp = in.readLong();
+            final int size = in.readInt();
+            History history = new History(firstTimeStamp, Math.max(size, INITIAL_CAPACITY));
+            for (int i = 0; i < size; i++) {
+                final int index = history.indexOf(in.readUTF());
+                history.mLastUsed[index] = in.readLong();
+                history.mActiveBuckets[index] = in.readInt();
+                history.mLaunches[index] = in.readLong();
+            }
+            return history;
+        }
+
+        private long getBucket(long timeMillis) {
+            return (timeMillis - mFirstTimeStamp) / BUCKET_MILLIS;
+        }
+
+        private int indexOf(String packageName) {
+            int index = (int) mIndices.get(packageName, NOT_FOUND);
+            if (index == NOT_FOUND) {
+                index = mSize++;
+                mIndices.put(packageName, index);
+                if (index == mLastUsed.length) {
+                    final int capacity = index * 2;
+                    mLastUsed = Arrays.copyOf(mLastUsed, capacity);
+                    mActiveBuckets = Arrays.copyOf(mActiveBuckets, capacity);
+                    mLaunches = Arrays.copyOf(mLaunches, capacity);
+                }
+            }
+            return index;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import com.android.storagemanager.R;
+import com.android.storagemanager.deletionhelper.AppScorer;
 
 /**
  * Abstract class for creating feature controllers. Allows OEM implementations to define their own
@@ -69,6 +70,14 @@ public abstract class FeatureFactory {
      */
     public abstract StorageManagementJobProvider getStorageManagementJobProvider();
 
+    /**
+     * Returns the scorer which orders the apps offered for deletion. Factories which do not
+     * override this get {@link AppScorer#DEFAULT}.
+     */
+    public AppScorer getAppScorer() {
+        return AppScorer.DEFAULT;
+    }
+
     public static class FactoryNotFoundException extends RuntimeException {
         public FactoryNotFoundException(Throwable throwable) {
             super("Unable to create factory. Did you misconfigure Proguard?", throwable);
@@ -20,7 +20,8 @@ import android.app.job.JobParameters;
 import android.content.Context;
 
 /**
- * Feature provider for automatic storage management jobs.
+ * Feature provider for automatic storage management jobs. Providers can delete through a {@link
+ * com.android.storagemanager.deletionhelper.HeadlessDeletion}, as the deletion helper would.
  */
 public interface StorageManagementJobProvider {
     /**
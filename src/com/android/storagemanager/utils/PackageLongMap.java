@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.storagemanager.utils;
+
+import java.util.Arrays;
+
+/**
+ * PackageLongMap maps package names to primitive long values, such as timestamps, without boxing
+ * each value. It uses open addressing with linear probing and is not thread-safe.
+ */
+public class PackageLongMap {
+    private static final int MIN_CAPACITY = 16;
+
+    private String[] mKeys;
+    private long[] mValues;
+    private int mSize;
+
+    public PackageLongMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize The number of packages expected to be stored in the map.
+     */
+    public PackageLongMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        // Keep the load factor under 0.75.
+        while (capacity * 3 < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        mKeys = new String[capacity];
+        mValues = new long[capacity];
+    }
+
+    /** Returns the number of packages in the map. */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the value for a package.
+     *
+     * @param packageName The package to look up.
+     * @param defaultValue The value to return if the package is not in the map.
+     */
+    public long get(String packageName, long defaultValue) {
+        int index = indexOf(mKeys, packageName);
+        return mKeys[index] == null ? defaultValue : mValues[index];
+    }
+
+    /** Returns whether the package has a value in the map. */
+    public boolean containsKey(String packageName) {
+        return mKeys[indexOf(mKeys, packageName)] != null;
+    }
+
+    /** Sets the value for a package, replacing any existing value. */
+    public void put(String packageName, long value) {
+        int index = indexOf(mKeys, packageName);
+        if (mKeys[index] == null) {
+            mKeys[index] = packageName;
+            mSize++;
+            mValues[index] = value;
+            if (mSize * 4 > mKeys.length * 3) {
+                resize(mKeys.length << 1);
+            }
+            return;
+        }
+        mValues[index] = value;
+    }
+
+    /** Removes the package from the map, if it exists. */
+    public void remove(String packageName) {
+        int index = indexOf(mKeys, packageName);
+        if (mKeys[index] == null) {
+            return;
+        }
+        mKeys[index] = null;
+        mSize--;
+
+        // Re-insert the rest of the probe run so that later lookups do not stop at the hole.
+        final int mask = mKeys.length - 1;
+        int next = (index + 1) & mask;
+        while (mKeys[next] != null) {
+            String key = mKeys[next];
+            long value = mValues[next];
+            mKeys[next] = null;
+            int target = indexOf(mKeys, key);
+            mKeys[target] = key;
+            mValues[target] = value;
+            next = (next + 1) & mask;
+        }
+    }
+
+    /** Removes every package from the map. */
+    public void clear() {
+        Arrays.fill(mKeys, null);
+        mSize = 0;
+    }
+
+    /**
+     * Returns the slot capacity of the map. Slots in the range [0, capacity()) may be iterated with
+     * {@link #keyAt(int)} and {@link #valueAt(int)}; empty slots have a null key.
+     */
+    public int capacity() {
+        return mKeys.length;
+    }
+
+    /** Returns the package stored in the given slot, or null if the slot is empty. */
+    public String keyAt(int slot) {
+        return mKeys[slot];
+    }
+
+    /** Returns the value stored in the given slot. Only meaningful if the key is non-null. */
+    public long valueAt(int slot) {
+        return mValues[slot];
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = mKeys;
+        long[] oldValues = mValues;
+        mKeys = new String[capacity];
+        mValues = new long[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = indexOf(mKeys, oldKeys[i]);
+                mKeys[index] = oldKeys[i];
+                mValues[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int indexOf(String[] keys, String packageName) {
+        final int mask = keys.length - 1;
+        int hash = packageName.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (keys[index] != null && !keys[index].equals(packageName)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+}
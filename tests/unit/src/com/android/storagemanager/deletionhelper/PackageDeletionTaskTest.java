@@ -26,6 +26,7 @@ import android.test.suitebuilder.annotation.SmallTest;
 import com.android.storagemanager.deletionhelper.PackageDeletionTask;
 import com.android.storagemanager.deletionhelper.PackageDeletionTask.Callback;
 
+import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -67,6 +68,85 @@ public class PackageDeletionTaskTest extends AndroidTestCase {
         runTask(appsToDelete, true);
     }
 
+    @SmallTest
+    public void testCompletesOnceWithAggregatedResults() throws Exception {
+        HashSet<String> appsToDelete = new HashSet<String>();
+        appsToDelete.add("app.test1");
+        appsToDelete.add("app.test2");
+        mPackageManager.failingPackage = "app.test2";
+        CountingCallback callback = new CountingCallback();
+
+        new PackageDeletionTask(mPackageManager, appsToDelete, callback).run();
+
+        assertEquals(2, callback.progressCount);
+        assertEquals(1, callback.completeCount);
+        assertEquals(1, callback.result.getFailureCount());
+        assertEquals(2, callback.result.getResults().size());
+    }
+
+    @SmallTest
+    public void testMissingPackagesCompleteOnce() throws Exception {
+        HashSet<String> appsToDelete = new HashSet<String>();
+        appsToDelete.add("app.test1");
+        appsToDelete.add("app.test2");
+        appsToDelete.add("app.test3");
+        mPackageManager.missingPackages.addAll(appsToDelete);
+        CountingCallback callback = new CountingCallback();
+
+        new PackageDeletionTask(mPackageManager, appsToDelete, callback).run();
+
+        assertEquals(3, callback.progressCount);
+        assertEquals(1, callback.completeCount);
+        assertEquals(3, callback.result.getFailureCount());
+    }
+
+    @SmallTest
+    public void testBoundsInFlightUninstalls() throws Exception {
+        DeferringPackageManager packageManager = new DeferringPackageManager();
+        HashSet<String> appsToDelete = new HashSet<String>();
+        appsToDelete.add("app.test1");
+        appsToDelete.add("app.test2");
+        appsToDelete.add("app.test3");
+        CountingCallback callback = new CountingCallback();
+        PackageDeletionTask task =
+                new PackageDeletionTask(packageManager, appsToDelete, callback);
+        task.setMaxInFlight(2);
+
+        task.run();
+        assertEquals(2, packageManager.observers.size());
+
+        packageManager.finishNext();
+        assertEquals(2, packageManager.observers.size());
+        assertEquals(1, callback.progressCount);
+
+        packageManager.finishNext();
+        packageManager.finishNext();
+        assertEquals(0, packageManager.observers.size());
+        assertEquals(1, callback.completeCount);
+        assertTrue(callback.result.isSuccess());
+    }
+
+    @SmallTest
+    public void testCancelSkipsUninstallsNotStarted() throws Exception {
+        DeferringPackageManager packageManager = new DeferringPackageManager();
+        HashSet<String> appsToDelete = new HashSet<String>();
+        appsToDelete.add("app.test1");
+        appsToDelete.add("app.test2");
+        appsToDelete.add("app.test3");
+        CountingCallback callback = new CountingCallback();
+        PackageDeletionTask task =
+                new PackageDeletionTask(packageManager, appsToDelete, callback);
+        task.setMaxInFlight(1);
+
+        task.run();
+        callback.cancelled = true;
+        packageManager.finishNext();
+
+        assertEquals(0, packageManager.observers.size());
+        assertEquals(1, callback.completeCount);
+        assertEquals(1, callback.result.getResults().size());
+    }
+
     private void runTask(HashSet<String> appsToDelete, boolean shouldFail) {
         PackageDeletionTask task = new PackageDeletionTask(mPackageManager, appsToDelete,
                 new VerifierCallback(appsToDelete, shouldFail));
@@ -75,12 +155,17 @@ public class PackageDeletionTaskTest extends AndroidTestCase {
 
     class FakePackageManager extends MockPackageManager {
         public boolean deletionSucceeds = true;
+        public String failingPackage;
+        public Set<String> missingPackages = new HashSet<String>();
 
         @Override
         public void deletePackageAsUser(String packageName, IPackageDeleteObserver observer,
                                         int flags, int userId) {
+            if (missingPackages.contains(packageName)) {
+                throw new IllegalArgumentException("Unknown package: " + packageName);
+            }
             int resultCode;
-            if (deletionSucceeds) {
+            if (deletionSucceeds && !packageName.equals(failingPackage)) {
                 resultCode = PackageManager.DELETE_SUCCEEDED;
                 mDeletedApps.add(packageName);
             } else {
@@ -95,6 +180,47 @@ public class PackageDeletionTaskTest extends AndroidTestCase {
         }
     }
 
+    /** Holds on to the uninstalls until the test finishes them. */
+    class DeferringPackageManager extends MockPackageManager {
+        public ArrayList<IPackageDeleteObserver> observers = new ArrayList<>();
+        public ArrayList<String> packages = new ArrayList<>();
+
+        @Override
+        public void deletePackageAsUser(String packageName, IPackageDeleteObserver observer,
+                                        int flags, int userId) {
+            packages.add(packageName);
+            observers.add(observer);
+        }
+
+        public void finishNext() throws RemoteException {
+            String packageName = packages.remove(0);
+            observers.remove(0).packageDeleted(packageName, PackageManager.DELETE_SUCCEEDED);
+        }
+    }
+
+    class CountingCallback extends Callback {
+        public int progressCount;
+        public int completeCount;
+        public boolean cancelled;
+        public PackageDeletionTask.BatchResult result;
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void onProgress(PackageDeletionTask.Result result, int completed, int total) {
+            progressCount++;
+        }
+
+        @Override
+        public void onComplete(PackageDeletionTask.BatchResult result) {
+            completeCount++;
+            this.result = result;
+        }
+    }
+
     class VerifierCallback extends Callback {
         private Set<String> mExpectedDeletedApps;
         private boolean mShouldFail;